@@ -0,0 +1,19 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Runs QueryLayerBenchmark on a scratch database that is created, seeded
+# from the shipped data and dropped again.
+#   benchmark.sh [seconds per benchmark] [threads]
+BENCH_DB=${BENCH_DB:-profnetwork_bench}
+
+# build target/profnetwork.jar
+(cd $DIR/.. && mvn -B -q package) || exit 1
+CP=$DIR/../target/profnetwork.jar:$DIR/../lib/pg73jdbc3.jar
+
+dropdb -p $PGPORT --if-exists $BENCH_DB
+createdb -p $PGPORT $BENCH_DB || exit 1
+psql -q -p $PGPORT $BENCH_DB < $DIR/../../sql/src/create_tables.sql 2> /dev/null
+psql -q -p $PGPORT $BENCH_DB < $DIR/../../sql/src/create_counters.sql 2> /dev/null
+psql -q -p $PGPORT $BENCH_DB < $DIR/../../sql/src/create_friends.sql 2> /dev/null
+java -cp $CP BulkLoader $BENCH_DB $PGPORT $USER $DIR/../.. || { dropdb -p $PGPORT $BENCH_DB; exit 1; }
+java -cp $CP QueryLayerBenchmark $BENCH_DB $PGPORT $USER $1 $2
+dropdb -p $PGPORT $BENCH_DB
@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+# load the seed data in one transaction, run after sql/src/create_tables.sql
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BulkLoader $DB_NAME $PGPORT $USER $DIR/../..
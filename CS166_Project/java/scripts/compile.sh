@@ -1,11 +1,11 @@
 #!/bin/bash
 DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
-# Indicate the path of the java compiler to use
-export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
 export PATH=$JAVA_HOME/bin:$PATH
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/ProfNetwork.java
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
@@ -0,0 +1,21 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Generates a synthetic data set, loads it into a scratch database, runs
+# LoadDriver against it and drops the database again.
+#   load_test.sh <users> <clients> <seconds> [connections per user] [messages] [think time ms]
+LOAD_DB=${LOAD_DB:-profnetwork_load}
+DATA=${DATA:-/tmp/profnetwork_load}
+
+# build target/profnetwork.jar
+(cd $DIR/.. && mvn -B -q package) || exit 1
+CP=$DIR/../target/profnetwork.jar:$DIR/../lib/pg73jdbc3.jar
+
+java -Xmx2g -cp $CP WorkloadGenerator $DATA $1 ${4:-5} ${5:-$((10 * $1))} || exit 1
+dropdb -p $PGPORT --if-exists $LOAD_DB
+createdb -p $PGPORT $LOAD_DB || exit 1
+psql -q -p $PGPORT $LOAD_DB < $DIR/../../sql/src/create_tables.sql 2> /dev/null
+psql -q -p $PGPORT $LOAD_DB < $DIR/../../sql/src/create_counters.sql 2> /dev/null
+psql -q -p $PGPORT $LOAD_DB < $DIR/../../sql/src/create_friends.sql 2> /dev/null
+java -cp $CP BulkLoader $LOAD_DB $PGPORT $USER $DIR/../.. $DATA || { dropdb -p $PGPORT $LOAD_DB; exit 1; }
+java -Dprofnetwork.purge.intervalMs=0 -cp $CP LoadDriver $LOAD_DB $PGPORT $USER $2 $3 ${6:-0} 2> /dev/null
+dropdb -p $PGPORT $LOAD_DB
@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+# convert the char(N) columns of an existing database to the types of
+# sql/src/create_tables.sql while the application runs; pass the rows per
+# batch and/or -compact (VACUUM FULL, locks each table) as arguments
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ColumnMigration $DB_NAME $PGPORT $USER "$@"
@@ -0,0 +1,40 @@
+#!/bin/bash
+# Drives the menus once against a real database and fails unless every
+# step printed its success output: startup (which loads the user
+# directory, connection graph and search index through streamed queries),
+# CreateUser, LogIn, NewMessage, FriendList and the inbox page.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+# Indicate the path of the java compiler to use, unless JAVA_HOME is set
+export JAVA_HOME=${JAVA_HOME:-/usr/csshare/pkgs/jdk1.7.0_17}
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+LOGIN=smoke$$
+OUTBOX=$(mktemp -d)
+#Use your database name, port number and login
+OUT=$(printf '%s\n' \
+   1 $LOGIN secret $LOGIN@example.com "Smoke Test" 2000-01-01 \
+   2 $LOGIN secret \
+   3 $LOGIN "smoke test message" \
+   1 2 \
+   4 1 x \
+   9 9 \
+   | java -Dprofnetwork.outbox.dir=$OUTBOX -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ProfNetwork $DB_NAME $PGPORT $USER 2>&1)
+rm -rf $OUTBOX
+echo "$OUT"
+
+FAIL=0
+for EXPECT in "Done" "Message (sent|queued)" "userid" "msgId|No messages\." "Bye !"; do
+   if ! echo "$OUT" | grep -qE "$EXPECT"; then
+      echo "FAIL: no \"$EXPECT\" in the output above"
+      FAIL=1
+   fi
+done
+if echo "$OUT" | grep -q "Unable to Connect"; then
+   echo "FAIL: startup failed"
+   FAIL=1
+fi
+[ $FAIL -eq 0 ] && echo "OK: smoke run passed"
+exit $FAIL
@@ -0,0 +1,509 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the seed data into an empty (or partially filled) database in a
+ * single transaction.  Rows are streamed from the seed files into
+ * unconstrained staging tables with multi-row INSERTs, then moved into
+ * the real tables with one INSERT ... SELECT per table that drops
+ * duplicate keys, rows whose users do not exist and statuses outside the
+ * status enums, the same rows the one-INSERT-per-line scripts lose to
+ * constraint errors.  The seed files name users by login; the move joins
+ * USR to store their uids.  The secondary indexes of create_indexes.sql
+ * are dropped for the load and rebuilt afterwards.  When
+ * create_counters.sql or create_friends.sql has been run, their triggers
+ * are disabled for the load and USR_COUNTERS and FRIEND are rebuilt at
+ * the end.
+ *
+ * A failed load exits with status 1, so that scripts stop there.
+ *
+ * Seed files are either the data/*.csv exports, where every other field
+ * is a fragment of the original INSERT statement, or the single-row
+ * INSERT scripts under sql/src/sql_files.
+ *
+ */
+public class BulkLoader {
+
+   // rows sent per multi-row INSERT into a staging table
+   private static final int ROWS_PER_INSERT = 500;
+
+   // the VALUES list of a single-row INSERT script line
+   private static final Pattern VALUES = Pattern.compile("VALUES\\s*\\((.*)\\)\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+
+   // one quoted SQL literal, with '' as an escaped quote
+   private static final Pattern LITERAL = Pattern.compile("'((?:[^']|'')*)'");
+
+   // the name of each index created by create_indexes.sql
+   private static final Pattern INDEX_NAME = Pattern.compile("CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+   /**
+    * One target table: its staging table and the statement moving the
+    * staged rows into it.
+    */
+   private static class Table {
+      final String name;
+      final String stage;
+      final int columns;
+      final String move;
+
+      Table (String name, String stageColumns, int columns, String move) {
+         this.name = name;
+         this.stage = "CREATE TEMP TABLE " + name + "_LOAD (" + stageColumns + ") ON COMMIT DROP";
+         this.columns = columns;
+         this.move = move;
+      }//end Table
+   }//end Table
+
+   // tables in foreign key order, USR first
+   private static final Table USR = new Table("USR",
+      "userId text, password text, email text, name text, dateOfBirth text", 5,
+      "INSERT INTO USR (userId, password, email, name, dateOfBirth) " +
+      "SELECT DISTINCT ON (L.userId) L.userId, L.password, L.email, L.name, CAST(NULLIF(L.dateOfBirth, '') AS date) " +
+      "FROM USR_LOAD L " +
+      "WHERE NOT EXISTS (SELECT 1 FROM USR U WHERE U.userId = L.userId)");
+
+   private static final Table WORK_EXPR = new Table("WORK_EXPR",
+      "userId text, company text, role text, location text, startDate text, endDate text", 6,
+      "INSERT INTO WORK_EXPR (uid, company, role, location, startDate, endDate) " +
+      "SELECT DISTINCT ON (U.uid, L.company, L.role, L.startDate) U.uid, L.company, L.role, L.location, " +
+      "CAST(NULLIF(L.startDate, '') AS date), CAST(NULLIF(L.endDate, '') AS date) " +
+      "FROM WORK_EXPR_LOAD L, USR U " +
+      "WHERE U.userId = L.userId " +
+      "AND NOT EXISTS (SELECT 1 FROM WORK_EXPR W WHERE W.uid = U.uid AND W.company = L.company " +
+      "AND W.role = L.role AND W.startDate = CAST(NULLIF(L.startDate, '') AS date))");
+
+   private static final Table EDUCATIONAL_DETAILS = new Table("EDUCATIONAL_DETAILS",
+      "userId text, institutionName text, major text, degree text, startdate text, enddate text", 6,
+      "INSERT INTO EDUCATIONAL_DETAILS (uid, institutionName, major, degree, startdate, enddate) " +
+      "SELECT DISTINCT ON (U.uid, L.major, L.degree) U.uid, L.institutionName, L.major, L.degree, " +
+      "CAST(NULLIF(L.startdate, '') AS date), CAST(NULLIF(L.enddate, '') AS date) " +
+      "FROM EDUCATIONAL_DETAILS_LOAD L, USR U " +
+      "WHERE U.userId = L.userId " +
+      "AND NOT EXISTS (SELECT 1 FROM EDUCATIONAL_DETAILS E WHERE E.uid = U.uid " +
+      "AND E.major = L.major AND E.degree = L.degree)");
+
+   private static final Table CONNECTION_USR = new Table("CONNECTION_USR",
+      "userId text, connectionId text, status text", 3,
+      "INSERT INTO CONNECTION_USR (uid, connectionUid, status) " +
+      "SELECT DISTINCT ON (A.uid, B.uid) A.uid, B.uid, CAST(L.status AS CONNECTION_STATUS) " +
+      "FROM CONNECTION_USR_LOAD L, USR A, USR B " +
+      "WHERE A.userId = L.userId AND B.userId = L.connectionId " +
+      "AND L.status IN ('Request', 'Accept', 'Reject') " +
+      "AND NOT EXISTS (SELECT 1 FROM CONNECTION_USR C WHERE C.uid = A.uid AND C.connectionUid = B.uid)");
+
+   private static final Table MESSAGE = new Table("MESSAGE",
+      "msgId text, senderId text, receiverId text, contents text, sendTime text, deleteStatus text, status text", 7,
+      "INSERT INTO MESSAGE (msgId, senderUid, receiverUid, contents, sendTime, deleteStatus, status) " +
+      "SELECT DISTINCT ON (CAST(L.msgId AS integer)) CAST(L.msgId AS integer), S.uid, R.uid, L.contents, " +
+      "CAST(NULLIF(L.sendTime, '') AS timestamp), CAST(NULLIF(L.deleteStatus, '') AS integer), CAST(L.status AS MESSAGE_STATUS) " +
+      // an unknown receiver is kept as NULL, an undelivered message
+      "FROM MESSAGE_LOAD L JOIN USR S ON S.userId = L.senderId LEFT JOIN USR R ON R.userId = L.receiverId " +
+      "WHERE L.status IN ('sent', 'Read', 'Failed to Deliver') " +
+      "AND NOT EXISTS (SELECT 1 FROM MESSAGE M WHERE M.msgId = CAST(L.msgId AS integer))");
+
+   // tables with the maintenance triggers of create_counters.sql and create_friends.sql
+   private static final String[] TRIGGER_TABLES = { "USR", "CONNECTION_USR", "MESSAGE" };
+
+   // refills FRIEND from scratch, as at the end of create_friends.sql
+   private static final String REFRESH_FRIENDS =
+      "INSERT INTO FRIEND (uid, friendUid) " +
+      "SELECT uid, connectionUid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid " +
+      "UNION " +
+      "SELECT connectionUid, uid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid";
+
+   // refills USR_COUNTERS from scratch, as at the end of create_counters.sql
+   private static final String REFRESH_COUNTERS =
+      "INSERT INTO USR_COUNTERS (uid, friendCount, pendingCount, unreadCount) " +
+      "SELECT U.uid, COALESCE(F.n, 0), COALESCE(P.n, 0), COALESCE(M.n, 0) " +
+      "FROM USR U " +
+      "LEFT JOIN (SELECT E.id, COUNT(*) AS n " +
+      "FROM (SELECT uid AS id, connectionUid AS other FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid " +
+      "UNION SELECT connectionUid, uid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid) E " +
+      "GROUP BY E.id) F ON F.id = U.uid " +
+      "LEFT JOIN (SELECT connectionUid AS id, COUNT(*) AS n FROM CONNECTION_USR WHERE status = 'Request' " +
+      "GROUP BY connectionUid) P ON P.id = U.uid " +
+      "LEFT JOIN (SELECT receiverUid AS id, COUNT(*) AS n FROM MESSAGE " +
+      "WHERE status = 'sent' AND COALESCE(deleteStatus, 0) & 2 = 0 " +
+      "GROUP BY receiverUid) M ON M.id = U.uid";
+
+   private final Connection _connection;
+
+   /**
+    * Creates a new loader on an open connection.
+    *
+    * @param connection the connection the whole load runs on
+    */
+   public BulkLoader (Connection connection) {
+      this._connection = connection;
+   }//end BulkLoader
+
+   /**
+    * Loads all seed files and rebuilds the indexes in one transaction.
+    *
+    * @param users the USR seed file
+    * @param work the WORK_EXPR seed file
+    * @param education the EDUCATIONAL_DETAILS seed file
+    * @param connections the CONNECTION_USR seed file
+    * @param indexScript create_indexes.sql, or null to leave indexes alone
+    * @throws java.sql.SQLException when the load fails; nothing is committed
+    * @throws java.io.IOException when a seed file cannot be read
+    */
+   public void load (File users, File work, File education, File connections, File indexScript)
+         throws SQLException, IOException {
+      load(users, work, education, connections, null, indexScript);
+   }//end load
+
+   /**
+    * Loads all seed files, including messages, and rebuilds the indexes in
+    * one transaction.
+    *
+    * @param users the USR seed file
+    * @param work the WORK_EXPR seed file
+    * @param education the EDUCATIONAL_DETAILS seed file
+    * @param connections the CONNECTION_USR seed file
+    * @param messages the MESSAGE seed file, or null for none
+    * @param indexScript create_indexes.sql, or null to leave indexes alone
+    * @throws java.sql.SQLException when the load fails; nothing is committed
+    * @throws java.io.IOException when a seed file cannot be read
+    */
+   public void load (File users, File work, File education, File connections, File messages, File indexScript)
+         throws SQLException, IOException {
+      long start = System.currentTimeMillis();
+      this._connection.setAutoCommit(false);
+      try{
+         execute("SET DateStyle = 'ISO, MDY'");
+         List<String> indexes = indexScript == null ? new ArrayList<String>() : readStatements(indexScript);
+         for (String sql : indexes){
+            Matcher m = INDEX_NAME.matcher(sql);
+            if (m.find())
+               execute("DROP INDEX IF EXISTS " + m.group(1));
+         }//end for
+         // per-row maintenance triggers would dominate the load; rebuild once instead
+         boolean counters = hasTable("usr_counters");
+         boolean friends = hasTable("friend");
+         if (counters || friends){
+            for (String table : TRIGGER_TABLES)
+               execute("ALTER TABLE " + table + " DISABLE TRIGGER USER");
+         }//end if
+
+         load(USR, users);
+         load(WORK_EXPR, work);
+         load(EDUCATIONAL_DETAILS, education);
+         load(CONNECTION_USR, connections);
+         if (messages != null){
+            load(MESSAGE, messages);
+            // move the message id sequence past the loaded msgIds
+            Statement stmt = this._connection.createStatement();
+            try{
+               stmt.executeQuery("SELECT setval('MESSAGE_MSGID_SEQ', COALESCE((SELECT MAX(msgId) FROM MESSAGE), 0) + 1, false)").close();
+            }finally{
+               stmt.close();
+            }//end try
+         }//end if
+
+         if (counters || friends){
+            long t = System.currentTimeMillis();
+            if (counters){
+               execute("DELETE FROM USR_COUNTERS");
+               execute(REFRESH_COUNTERS);
+            }//end if
+            if (friends){
+               execute("DELETE FROM FRIEND");
+               execute(REFRESH_FRIENDS);
+            }//end if
+            for (String table : TRIGGER_TABLES)
+               execute("ALTER TABLE " + table + " ENABLE TRIGGER USER");
+            System.out.println("Rebuilt " + (counters ? "USR_COUNTERS " : "") + (friends ? "FRIEND " : "")
+                               + "in " + (System.currentTimeMillis() - t) + "ms");
+         }//end if
+
+         long t = System.currentTimeMillis();
+         for (String sql : indexes)
+            execute(sql);
+         System.out.println("Rebuilt " + indexes.size() + " indexes in " + (System.currentTimeMillis() - t) + "ms");
+
+         this._connection.commit();
+      }catch (SQLException e){
+         this._connection.rollback();
+         throw e;
+      }catch (IOException e){
+         this._connection.rollback();
+         throw e;
+      }finally{
+         this._connection.setAutoCommit(true);
+      }//end try
+
+      // refresh planner statistics for the new data
+      execute("ANALYZE");
+      System.out.println("Load finished in " + (System.currentTimeMillis() - start) + "ms");
+   }//end load
+
+   /**
+    * Streams one seed file into the staging table of a target table and
+    * moves the valid rows over.
+    */
+   private void load (Table table, File file) throws SQLException, IOException {
+      long start = System.currentTimeMillis();
+      execute(table.stage);
+
+      PreparedStatement full = this._connection.prepareStatement(insertSql(table, ROWS_PER_INSERT));
+      List<String[]> batch = new ArrayList<String[]>(ROWS_PER_INSERT);
+      int read = 0;
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try{
+         boolean csv = file.getName().endsWith(".csv");
+         if (csv)
+            reader.readLine(); // column headers
+         String line;
+         while ((line = reader.readLine()) != null){
+            String[] row = csv ? parseCsvLine(line, table.columns) : parseInsertLine(line, table.columns);
+            if (row == null)
+               continue;
+            batch.add(row);
+            ++read;
+            if (batch.size() == ROWS_PER_INSERT){
+               insert(full, batch, table.columns);
+               batch.clear();
+            }//end if
+         }//end while
+      }finally{
+         reader.close();
+         full.close();
+      }//end try
+      if (!batch.isEmpty()){
+         PreparedStatement rest = this._connection.prepareStatement(insertSql(table, batch.size()));
+         try{
+            insert(rest, batch, table.columns);
+         }finally{
+            rest.close();
+         }//end try
+      }//end if
+
+      Statement stmt = this._connection.createStatement();
+      int loaded;
+      try{
+         loaded = stmt.executeUpdate(table.move);
+      }finally{
+         stmt.close();
+      }//end try
+      System.out.println(table.name + ": " + loaded + " of " + read + " rows loaded from " + file.getName()
+                         + " in " + (System.currentTimeMillis() - start) + "ms");
+   }//end load
+
+   private static String insertSql (Table table, int rows) {
+      StringBuilder row = new StringBuilder("(");
+      for (int i = 0; i < table.columns; ++i)
+         row.append(i == 0 ? "?" : ",?");
+      row.append(")");
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table.name + "_LOAD VALUES ");
+      for (int i = 0; i < rows; ++i){
+         if (i > 0)
+            sql.append(",");
+         sql.append(row);
+      }//end for
+      return sql.toString();
+   }//end insertSql
+
+   private static void insert (PreparedStatement stmt, List<String[]> rows, int columns) throws SQLException {
+      int p = 1;
+      for (String[] row : rows){
+         for (int i = 0; i < columns; ++i)
+            stmt.setString(p++, row[i]);
+      }//end for
+      stmt.executeUpdate();
+   }//end insert
+
+   private boolean hasTable (String name) throws SQLException {
+      PreparedStatement stmt = this._connection.prepareStatement("SELECT 1 FROM pg_class WHERE relname = ? AND relkind = 'r'");
+      try{
+         stmt.setString(1, name);
+         ResultSet rs = stmt.executeQuery();
+         return rs.next();
+      }finally{
+         stmt.close();
+      }//end try
+   }//end hasTable
+
+   private void execute (String sql) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try{
+         stmt.executeUpdate(sql);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end execute
+
+   /**
+    * Parses a row of the data/*.csv exports.  Every even field is a
+    * fragment of the INSERT statement the export was made from; the odd
+    * fields are the column values, with quotes escaped SQL style.
+    *
+    * @return the column values, or null for a malformed line
+    */
+   static String[] parseCsvLine (String line, int columns) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i){
+         char c = line.charAt(i);
+         if (quoted){
+            if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+               field.append('"');
+               ++i;
+            }else if (c == '"'){
+               quoted = false;
+            }else{
+               field.append(c);
+            }//end if
+         }else if (c == '"'){
+            quoted = true;
+         }else if (c == ','){
+            fields.add(field.toString());
+            field.setLength(0);
+         }else{
+            field.append(c);
+         }//end if
+      }//end for
+      fields.add(field.toString());
+
+      if (fields.size() < 2 * columns + 1)
+         return null;
+      String[] row = new String[columns];
+      for (int i = 0; i < columns; ++i)
+         row[i] = fields.get(2 * i + 1).replace("''", "'");
+      return row;
+   }//end parseCsvLine
+
+   /**
+    * Parses one line of a single-row INSERT script.
+    *
+    * @return the column values, or null when the line is not an INSERT
+    */
+   static String[] parseInsertLine (String line, int columns) {
+      Matcher values = VALUES.matcher(line);
+      if (!values.find())
+         return null;
+      Matcher literal = LITERAL.matcher(values.group(1));
+      String[] row = new String[columns];
+      int i = 0;
+      while (i < columns && literal.find())
+         row[i++] = literal.group(1).replace("''", "'");
+      return i == columns ? row : null;
+   }//end parseInsertLine
+
+   /**
+    * Splits an SQL script into statements, dropping -- comments.
+    */
+   private static List<String> readStatements (File script) throws IOException {
+      List<String> statements = new ArrayList<String>();
+      StringBuilder sql = new StringBuilder();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(script), "UTF-8"));
+      try{
+         String line;
+         while ((line = reader.readLine()) != null){
+            int comment = line.indexOf("--");
+            if (comment >= 0)
+               line = line.substring(0, comment);
+            sql.append(line).append('\n');
+            int end;
+            while ((end = sql.indexOf(";")) >= 0){
+               String stmt = sql.substring(0, end).trim();
+               if (stmt.length() > 0)
+                  statements.add(stmt);
+               sql.delete(0, end + 1);
+            }//end while
+         }//end while
+      }finally{
+         reader.close();
+      }//end try
+      return statements;
+   }//end readStatements
+
+   /**
+    * The bulk load entry point
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;project dir&gt; [directory of
+    *        single-row INSERT scripts, e.g. WorkloadGenerator output or sql/src/sql_files]
+    */
+   public static void main (String[] args) {
+      if (args.length != 4 && args.length != 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> <CS166_Project dir> [seed script dir]");
+         return;
+      }//end if
+
+      File project = new File(args[3]);
+      File data = new File(project, "data");
+      File sqlFiles = new File(project, "sql/src/sql_files");
+      Connection connection = null;
+      boolean failed = false;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         connection = DriverManager.getConnection(url, args[2], "");
+         if (args.length == 5){
+            File generated = new File(args[4]);
+            File messages = new File(generated, "message_entry.sql");
+            new BulkLoader(connection).load(
+               new File(generated, "user_entry.sql"),
+               new File(generated, "work_expr.sql"),
+               new File(generated, "edu_details.sql"),
+               new File(generated, "connection_entry.sql"),
+               // sql/src/sql_files has no message seed file
+               messages.exists() ? messages : null,
+               new File(project, "sql/src/create_indexes.sql"));
+            return;
+         }//end if
+         new BulkLoader(connection).load(
+            new File(data, "user_entry2.csv"),
+            new File(data, "work_expr2.csv"),
+            // there is no CSV export of the education data
+            new File(sqlFiles, "edu_details.sql"),
+            new File(data, "connection_entry2.csv"),
+            new File(project, "sql/src/create_indexes.sql"));
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         try{
+            if (connection != null)
+               connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+      if (failed)
+         System.exit(1);
+   }//end main
+
+}//end BulkLoader
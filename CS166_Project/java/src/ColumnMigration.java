@@ -0,0 +1,534 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts the char(N) columns of a database created by an earlier
+ * create_tables.sql to the varchar and enum types it declares now, while
+ * the application keeps running.  Each table is converted in five steps:
+ *
+ *   1. every column to convert gets a shadow column of its new type, and
+ *      a BEFORE INSERT OR UPDATE trigger fills the shadows of every row
+ *      written from then on; both in one short transaction
+ *   2. the existing rows are converted in batches along the primary key,
+ *      each batch its own transaction
+ *   3. the indexes covering converted columns are built again on the
+ *      shadows with CREATE INDEX CONCURRENTLY
+ *   4. one short transaction drops the old columns, and with them their
+ *      indexes, and gives the shadows and new indexes the old names
+ *   5. VACUUM ANALYZE makes the old row versions' space reusable
+ *
+ * The short transactions wait at most SWAP_LOCK_TIMEOUT_MS for their
+ * table lock and are retried, so they never queue up the application
+ * behind a long running transaction.  Running the tool again resumes an
+ * interrupted conversion; converted tables are skipped.
+ *
+ * Table and index sizes are reported before and after.  The rebuilt
+ * indexes are smaller right away, but rows converted in place still
+ * carry the old values until the table is rewritten, so the heap only
+ * shrinks with -compact, which runs VACUUM FULL and holds each table's
+ * lock while rewriting it.  Clients that prepared statements before the
+ * swap may see one "cached plan must not change result type" error per
+ * statement and are best restarted afterwards.
+ *
+ */
+public class ColumnMigration {
+
+   // rows converted per transaction, unless given on the command line
+   private static final int DEFAULT_BATCH_ROWS = 5000;
+
+   // suffix of the shadow columns, indexes and sync trigger
+   private static final String SHADOW = "__new";
+
+   // tries at each short transaction, and how long each waits for its lock
+   private static final int SWAP_ATTEMPTS = 10;
+   private static final int SWAP_LOCK_TIMEOUT_MS = 2000;
+
+   // the status enums of create_tables.sql, name first
+   private static final String[][] ENUMS = {
+      { "message_status", "sent", "Read", "Failed to Deliver" },
+      { "connection_status", "Request", "Accept", "Reject" }
+   };
+
+   // table, column and type in create_tables.sql, as the catalog names them
+   private static final String[][] COLUMNS = {
+      { "usr", "name", "character varying(50)" },
+      { "work_expr", "company", "character varying(50)" },
+      { "work_expr", "role", "character varying(50)" },
+      { "work_expr", "location", "character varying(50)" },
+      { "educational_details", "institutionname", "character varying(50)" },
+      { "educational_details", "major", "character varying(50)" },
+      { "educational_details", "degree", "character varying(50)" },
+      { "message", "contents", "character varying(500)" },
+      { "message", "status", "message_status" },
+      { "connection_usr", "status", "connection_status" }
+   };
+
+   // a literal cast to char(N) in an index predicate, which no longer
+   // compares with the converted column
+   private static final Pattern BPCHAR_LITERAL = Pattern.compile("('(?:[^']|'')*')::bpchar");
+
+   private final Connection _connection;
+   private final int _batchRows;
+   private final long _pauseMs;
+
+   /**
+    * Creates a new migration on an open connection.
+    *
+    * @param connection the connection the migration runs on
+    * @param batchRows the rows converted per transaction
+    * @param pauseMs the pause between two batches, to leave the database
+    *        to the application
+    */
+   public ColumnMigration (Connection connection, int batchRows, long pauseMs) {
+      this._connection = connection;
+      this._batchRows = batchRows;
+      this._pauseMs = pauseMs;
+   }//end ColumnMigration
+
+   /**
+    * Converts every table and reports the sizes before and after.
+    *
+    * @param compact whether to rewrite the converted tables with VACUUM
+    *        FULL at the end, locking each for its rewrite
+    * @throws java.sql.SQLException when a step fails; finished tables
+    *         stay converted and the others can be resumed
+    */
+   public void migrate (boolean compact) throws SQLException {
+      long start = System.currentTimeMillis();
+      execute("SET DateStyle = 'ISO, MDY'");
+      List<String> tables = new ArrayList<String>();
+      for (String[] c : COLUMNS)
+         if (!tables.contains(c[0]))
+            tables.add(c[0]);
+      Map<String, long[]> before = sizes(tables);
+
+      createEnums();
+      for (String table : tables)
+         migrate(table);
+      report("after conversion", before, sizes(tables));
+
+      if (compact){
+         for (String table : tables){
+            long t = System.currentTimeMillis();
+            execute("VACUUM FULL ANALYZE " + table);
+            System.out.println(table + ": rewritten in " + (System.currentTimeMillis() - t) + "ms");
+         }//end for
+         report("after VACUUM FULL", before, sizes(tables));
+      }//end if
+      System.out.println("Migration finished in " + (System.currentTimeMillis() - start) + "ms");
+   }//end migrate
+
+   private void createEnums () throws SQLException {
+      for (String[] e : ENUMS){
+         if (!query("SELECT typname FROM pg_type WHERE typname = ?", e[0]).isEmpty())
+            continue;
+         StringBuilder sql = new StringBuilder("CREATE TYPE " + e[0] + " AS ENUM (");
+         for (int i = 1; i < e.length; ++i)
+            sql.append(i > 1 ? ", " : "").append(literal(e[i]));
+         execute(sql.append(")").toString());
+      }//end for
+   }//end createEnums
+
+   /**
+    * Converts the columns of one table that still have their old type.
+    */
+   private void migrate (String table) throws SQLException {
+      long start = System.currentTimeMillis();
+      List<String[]> pending = new ArrayList<String[]>();
+      for (String[] c : COLUMNS){
+         if (!c[0].equals(table))
+            continue;
+         String type = columnType(table, c[1]);
+         if (type == null)
+            throw new SQLException(table + "." + c[1] + " does not exist");
+         if (!type.equals(c[2]))
+            pending.add(c);
+      }//end for
+      if (pending.isEmpty()){
+         System.out.println(table + ": already converted");
+         return;
+      }//end if
+      checkLabels(table, pending);
+
+      // 1. shadow columns and the trigger that keeps new writes converted
+      String trigger = table + SHADOW;
+      List<String> prepare = new ArrayList<String>();
+      StringBuilder sync = new StringBuilder();
+      StringBuilder set = new StringBuilder();
+      for (String[] c : pending){
+         String shadow = c[1] + SHADOW;
+         if (columnType(table, shadow) == null)
+            prepare.add("ALTER TABLE " + table + " ADD COLUMN " + shadow + " " + c[2]);
+         sync.append("NEW.").append(shadow).append(" := ").append(convert("NEW." + c[1], c[2])).append("; ");
+         set.append(set.length() == 0 ? "" : ", ").append(shadow).append(" = ").append(convert(c[1], c[2]));
+      }//end for
+      prepare.add("CREATE OR REPLACE FUNCTION " + trigger + "() RETURNS trigger AS $$ BEGIN " + sync
+                  + "RETURN NEW; END; $$ LANGUAGE plpgsql");
+      prepare.add("DROP TRIGGER IF EXISTS " + trigger + " ON " + table);
+      prepare.add("CREATE TRIGGER " + trigger + " BEFORE INSERT OR UPDATE ON " + table
+                  + " FOR EACH ROW EXECUTE PROCEDURE " + trigger + "()");
+      inLockedTransaction(table, prepare);
+
+      // 2. the rows already there
+      long rows = backfill(table, set.toString());
+
+      // 3. the indexes, built without blocking writes
+      List<String[]> indexes = rebuildIndexes(table, pending);
+
+      // 4. the swap
+      List<String> swap = new ArrayList<String>();
+      for (String[] c : pending){
+         if (isNotNull(table, c[1]))
+            swap.add("ALTER TABLE " + table + " ALTER COLUMN " + c[1] + SHADOW + " SET NOT NULL");
+      }//end for
+      swap.add("DROP TRIGGER " + trigger + " ON " + table);
+      for (String[] c : pending)
+         swap.add("ALTER TABLE " + table + " DROP COLUMN " + c[1]);
+      for (String[] c : pending)
+         swap.add("ALTER TABLE " + table + " RENAME COLUMN " + c[1] + SHADOW + " TO " + c[1]);
+      for (String[] index : indexes){
+         // a primary key index takes the constraint's name
+         swap.add(index[1] != null
+                  ? "ALTER TABLE " + table + " ADD CONSTRAINT " + index[1] + " PRIMARY KEY USING INDEX " + index[0] + SHADOW
+                  : "ALTER INDEX " + index[0] + SHADOW + " RENAME TO " + index[0]);
+      }//end for
+      swap.add("DROP FUNCTION " + trigger + "()");
+      inLockedTransaction(table, swap);
+
+      // 5. the old row versions
+      execute("VACUUM ANALYZE " + table);
+      System.out.println(table + ": " + pending.size() + " columns, " + rows + " rows and "
+                         + indexes.size() + " indexes converted in " + (System.currentTimeMillis() - start) + "ms");
+   }//end migrate
+
+   /**
+    * Fails before anything is changed when a status column holds a value
+    * its enum has no label for.
+    */
+   private void checkLabels (String table, List<String[]> pending) throws SQLException {
+      for (String[] c : pending){
+         for (String[] e : ENUMS){
+            if (!e[0].equals(c[2]))
+               continue;
+            StringBuilder labels = new StringBuilder();
+            for (int i = 1; i < e.length; ++i)
+               labels.append(i > 1 ? ", " : "").append(literal(e[i]));
+            List<List<String>> bad = query("SELECT DISTINCT CAST(" + c[1] + " AS text) FROM " + table
+                                           + " WHERE CAST(" + c[1] + " AS text) NOT IN (" + labels + ")");
+            if (!bad.isEmpty())
+               throw new SQLException(table + "." + c[1] + " holds values " + e[0] + " has no label for: " + bad);
+         }//end for
+      }//end for
+   }//end checkLabels
+
+   /**
+    * Converts the existing rows in key order, batchRows per transaction.
+    * Each batch is the key range after the previous one, so it is found
+    * through the primary key index however far the conversion has got.
+    *
+    * @return the number of rows converted
+    */
+   private long backfill (String table, String set) throws SQLException {
+      List<List<String>> key = query(
+         "SELECT A.attname FROM pg_index I, pg_attribute A, generate_series(0, 31) K " +
+         "WHERE I.indrelid = CAST(? AS regclass) AND I.indisprimary AND K < I.indnatts " +
+         "AND A.attrelid = I.indrelid AND A.attnum = I.indkey[K] ORDER BY K", table);
+      if (key.isEmpty())
+         throw new SQLException(table + " has no primary key to convert it along");
+      StringBuilder columns = new StringBuilder();
+      StringBuilder row = new StringBuilder();
+      for (List<String> k : key){
+         columns.append(columns.length() == 0 ? "" : ", ").append(k.get(0));
+         row.append(row.length() == 0 ? "?" : ", ?");
+      }//end for
+      String after = "(" + columns + ") > (" + row + ")";
+      String upTo = "(" + columns + ") <= (" + row + ")";
+      String end = " ORDER BY " + columns + " LIMIT 1 OFFSET " + (this._batchRows - 1);
+
+      long start = System.currentTimeMillis();
+      long rows = 0;
+      String[] from = null;
+      while (true){
+         // the last key of this batch, or null when the rest fits in it
+         List<List<String>> last = from == null
+            ? query("SELECT " + columns + " FROM " + table + end)
+            : query("SELECT " + columns + " FROM " + table + " WHERE " + after + end, from);
+         String[] to = last.isEmpty() ? null : last.get(0).toArray(new String[0]);
+
+         String where = from == null && to == null ? "true"
+                      : from == null ? upTo
+                      : to == null ? after
+                      : after + " AND " + upTo;
+         List<String> params = new ArrayList<String>();
+         if (from != null)
+            for (String v : from)
+               params.add(v);
+         if (to != null)
+            for (String v : to)
+               params.add(v);
+         rows += update("UPDATE " + table + " SET " + set + " WHERE " + where, params.toArray(new String[0]));
+         if (to == null)
+            break;
+         from = to;
+         if (rows % (100L * this._batchRows) == 0)
+            System.out.println(table + ": " + rows + " rows converted");
+         pause();
+      }//end while
+      System.out.println(table + ": " + rows + " rows converted in " + (System.currentTimeMillis() - start) + "ms");
+      return rows;
+   }//end backfill
+
+   /**
+    * Builds a copy of every index covering a converted column on the
+    * shadow columns, named with the SHADOW suffix.
+    *
+    * @return per index its name, and its constraint name if it is the
+    *         primary key
+    */
+   private List<String[]> rebuildIndexes (String table, List<String[]> pending) throws SQLException {
+      List<String[]> rebuilt = new ArrayList<String[]>();
+      List<List<String>> indexes = query(
+         "SELECT C.relname, pg_get_indexdef(I.indexrelid), " +
+         "(SELECT conname FROM pg_constraint WHERE conindid = I.indexrelid AND contype = 'p') " +
+         "FROM pg_index I, pg_class C WHERE I.indrelid = CAST(? AS regclass) AND C.oid = I.indexrelid", table);
+      for (List<String> index : indexes){
+         String name = index.get(0);
+         if (name.endsWith(SHADOW))
+            continue; // left by an interrupted run, built again below
+         String definition = index.get(1);
+         int using = definition.indexOf(" USING ");
+         String body = definition.substring(using);
+         String shadowed = body;
+         for (String[] c : pending)
+            shadowed = shadowed.replaceAll("\\b" + c[1] + "\\b", c[1] + SHADOW);
+         if (shadowed.equals(body))
+            continue;
+         shadowed = BPCHAR_LITERAL.matcher(shadowed).replaceAll("$1");
+         String head = definition.substring(0, using).replaceFirst(
+            " INDEX " + Pattern.quote(name) + " ON ", Matcher.quoteReplacement(" INDEX CONCURRENTLY " + name + SHADOW + " ON "));
+
+         long t = System.currentTimeMillis();
+         execute("DROP INDEX IF EXISTS " + name + SHADOW);
+         execute(head + shadowed);
+         System.out.println(table + ": built " + name + SHADOW + " in " + (System.currentTimeMillis() - t) + "ms");
+         rebuilt.add(new String[] { name, index.get(2) });
+      }//end for
+      return rebuilt;
+   }//end rebuildIndexes
+
+   /**
+    * Runs statements in one transaction that first takes an exclusive
+    * lock on the table, waiting at most SWAP_LOCK_TIMEOUT_MS for it; the
+    * transaction is tried again when the wait times out.
+    */
+   private void inLockedTransaction (String table, List<String> statements) throws SQLException {
+      for (int attempt = 1; ; ++attempt){
+         this._connection.setAutoCommit(false);
+         try{
+            execute("SET LOCAL lock_timeout = " + SWAP_LOCK_TIMEOUT_MS);
+            execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+            for (String sql : statements)
+               execute(sql);
+            this._connection.commit();
+            return;
+         }catch (SQLException e){
+            this._connection.rollback();
+            String message = e.getMessage();
+            if (attempt == SWAP_ATTEMPTS || message == null || !message.contains("lock timeout"))
+               throw e;
+            System.out.println(table + ": table busy, trying again (" + attempt + ")");
+         }finally{
+            this._connection.setAutoCommit(true);
+         }//end try
+         sleep(attempt * 1000L);
+      }//end for
+   }//end inLockedTransaction
+
+   private String columnType (String table, String column) throws SQLException {
+      List<List<String>> type = query(
+         "SELECT format_type(atttypid, atttypmod) FROM pg_attribute " +
+         "WHERE attrelid = CAST(? AS regclass) AND attname = ? AND NOT attisdropped", table, column);
+      return type.isEmpty() ? null : type.get(0).get(0);
+   }//end columnType
+
+   private boolean isNotNull (String table, String column) throws SQLException {
+      return !query("SELECT 1 FROM pg_attribute WHERE attrelid = CAST(? AS regclass) AND attname = ? AND attnotnull",
+                    table, column).isEmpty();
+   }//end isNotNull
+
+   // via text, which drops char(N)'s padding
+   private static String convert (String column, String type) {
+      return "CAST(CAST(" + column + " AS text) AS " + type + ")";
+   }//end convert
+
+   private static String literal (String value) {
+      return "'" + value.replace("'", "''") + "'";
+   }//end literal
+
+   /**
+    * @return per table its heap size (including TOAST) and the size of
+    *         all its indexes, in bytes
+    */
+   private Map<String, long[]> sizes (List<String> tables) throws SQLException {
+      Map<String, long[]> sizes = new LinkedHashMap<String, long[]>();
+      for (String table : tables){
+         List<String> row = query("SELECT pg_table_size(CAST(? AS regclass)), pg_indexes_size(CAST(? AS regclass))",
+                                  table, table).get(0);
+         sizes.put(table, new long[] { Long.parseLong(row.get(0).trim()), Long.parseLong(row.get(1).trim()) });
+      }//end for
+      return sizes;
+   }//end sizes
+
+   private static void report (String title, Map<String, long[]> before, Map<String, long[]> after) {
+      System.out.println("\nSizes " + title + ", kB:");
+      System.out.println(String.format("%-22s %12s %12s %7s %12s %12s %7s",
+                                       "table", "heap before", "heap after", "change",
+                                       "idx before", "idx after", "change"));
+      long[] total = new long[4];
+      for (Map.Entry<String, long[]> e : before.entrySet()){
+         long[] b = e.getValue();
+         long[] a = after.get(e.getKey());
+         line(e.getKey(), b[0], a[0], b[1], a[1]);
+         total[0] += b[0];
+         total[1] += a[0];
+         total[2] += b[1];
+         total[3] += a[1];
+      }//end for
+      line("total", total[0], total[1], total[2], total[3]);
+      System.out.println();
+   }//end report
+
+   private static void line (String name, long heapBefore, long heapAfter, long indexBefore, long indexAfter) {
+      System.out.println(String.format("%-22s %12d %12d %7s %12d %12d %7s", name,
+                                       heapBefore / 1024, heapAfter / 1024, change(heapBefore, heapAfter),
+                                       indexBefore / 1024, indexAfter / 1024, change(indexBefore, indexAfter)));
+   }//end line
+
+   private static String change (long before, long after) {
+      return before == 0 ? "" : String.format("%+.0f%%", 100.0 * (after - before) / before);
+   }//end change
+
+   private List<List<String>> query (String sql, String... params) throws SQLException {
+      PreparedStatement stmt = this._connection.prepareStatement(sql);
+      try{
+         for (int i = 0; i < params.length; ++i)
+            stmt.setString(i + 1, params[i]);
+         ResultSet rs = stmt.executeQuery();
+         int columns = rs.getMetaData().getColumnCount();
+         List<List<String>> rows = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> row = new ArrayList<String>();
+            for (int i = 1; i <= columns; ++i)
+               row.add(rs.getString(i));
+            rows.add(row);
+         }//end while
+         return rows;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end query
+
+   private int update (String sql, String... params) throws SQLException {
+      PreparedStatement stmt = this._connection.prepareStatement(sql);
+      try{
+         for (int i = 0; i < params.length; ++i)
+            stmt.setString(i + 1, params[i]);
+         return stmt.executeUpdate();
+      }finally{
+         stmt.close();
+      }//end try
+   }//end update
+
+   private void execute (String sql) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try{
+         stmt.executeUpdate(sql);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end execute
+
+   private void pause () {
+      if (this._pauseMs > 0)
+         sleep(this._pauseMs);
+   }//end pause
+
+   private static void sleep (long ms) {
+      try{
+         Thread.sleep(ms);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end sleep
+
+   /**
+    * The migration entry point.  The pause between batches comes from
+    * the profnetwork.migrate.pauseMs system property, default 0.
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [rows per batch] [-compact]
+    */
+   public static void main (String[] args) {
+      int batchRows = DEFAULT_BATCH_ROWS;
+      boolean compact = false;
+      boolean usage = args.length < 3;
+      for (int i = 3; i < args.length && !usage; ++i){
+         if (args[i].equals("-compact"))
+            compact = true;
+         else if (args[i].matches("\\d+") && Integer.parseInt(args[i]) > 0)
+            batchRows = Integer.parseInt(args[i]);
+         else
+            usage = true;
+      }//end for
+      if (usage) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ColumnMigration.class.getName () +
+            " <dbname> <port> <user> [rows per batch] [-compact]");
+         return;
+      }//end if
+
+      Connection connection = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         connection = DriverManager.getConnection(url, args[2], "");
+         new ColumnMigration(connection, batchRows, Long.getLong("profnetwork.migrate.pauseMs", 0))
+            .migrate(compact);
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         try{
+            if (connection != null)
+               connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+}//end ColumnMigration
@@ -0,0 +1,159 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the ways SendRequest can decide whether two users are within
+ * three levels of connection, on whatever data the database holds (load
+ * the shipped connection_entry.sql first):
+ *
+ *   multi-query  the twelve self-join queries SendRequest used to issue,
+ *                one round trip each
+ *   recursive    ProfNetwork.connectionDistance(), one round trip
+ *   in-memory    SocialGraph.distance(), no round trip
+ *
+ * The multi-query checks are reproduced exactly as they were, so they
+ * only test whether the sender has any 2nd or 3rd level connection; the
+ * other two answer the real question.  Pairs are drawn from users with at
+ * least one accepted connection.
+ *
+ */
+public class ConnectionDistanceBenchmark {
+
+   // the 2nd and 3rd level queries of the old SendRequest
+   private static final String[] MULTI_QUERY = {
+      "SELECT C2.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.uid = C1.uid",
+      "SELECT C2.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.uid = C1.connectionUid",
+      "SELECT C2.uid FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.connectionUid",
+      "SELECT C2.uid FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.uid",
+      "SELECT C3.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.uid = C1.uid AND C3.status = 'Accept' AND C3.uid = C2.connectionUid",
+      "SELECT C3.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.uid AND C3.status = 'Accept' AND C3.uid = C2.uid",
+      "SELECT C3.uid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.uid = C1.connectionUid AND C3.status = 'Accept' AND C3.connectionUid = C2.connectionUid",
+      "SELECT C3.uid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.connectionUid AND C3.status = 'Accept' AND C3.connectionUid = C2.uid",
+      "SELECT C3.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.connectionUid AND C3.status = 'Accept' AND C3.uid = C2.uid",
+      "SELECT C3.connectionUid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.uid = ? AND C2.status = 'Accept' AND C2.uid = C1.connectionUid AND C3.status = 'Accept' AND C3.uid = C2.connectionUid",
+      "SELECT C3.uid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.connectionUid = C1.uid AND C3.status = 'Accept' AND C3.connectionUid = C2.uid",
+      "SELECT C3.uid FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionUid = ? AND C2.status = 'Accept' AND C2.uid = C1.uid AND C3.status = 'Accept' AND C3.connectionUid = C2.connectionUid"
+   };
+
+   private static final int WARMUP = 50;
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [pairs]
+    */
+   public static void main (String[] args) {
+      if (args.length != 3 && args.length != 4) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ConnectionDistanceBenchmark.class.getName () +
+            " <dbname> <port> <user> [pairs]");
+         return;
+      }//end if
+
+      ProfNetwork esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         int pairs = args.length == 4 ? Integer.parseInt(args[3]) : 1000;
+
+         List<List<String>> rows = esql.executeQueryAndReturnResult(
+            "SELECT uid, connectionUid FROM CONNECTION_USR WHERE status = 'Accept'");
+         LinkedHashSet<Long> connected = new LinkedHashSet<Long>();
+         for (List<String> row : rows){
+            connected.add(Long.parseLong(row.get(0).trim()));
+            connected.add(Long.parseLong(row.get(1).trim()));
+         }//end for
+         if (connected.isEmpty()){
+            System.err.println("No accepted connections loaded; load connection_entry.sql first");
+            return;
+         }//end if
+         List<Long> users = new ArrayList<Long>(connected);
+         Random random = new Random(166);
+         long[][] sample = new long[pairs + WARMUP][2];
+         for (int i = 0; i < sample.length; ++i){
+            sample[i][0] = users.get(random.nextInt(users.size()));
+            sample[i][1] = users.get(random.nextInt(users.size()));
+         }//end for
+
+         SocialGraph graph = esql.getGraph() != null ? esql.getGraph() : SocialGraph.load(esql);
+         System.out.println(users.size() + " connected users, " + graph.getConnectionCount()
+                            + " connections, " + pairs + " pairs\n");
+
+         long[] multi = new long[pairs];
+         long[] recursive = new long[pairs];
+         long[] memory = new long[pairs];
+         int mismatches = 0;
+         int within = 0;
+         for (int i = 0; i < sample.length; ++i){
+            long from = sample[i][0];
+            long to = sample[i][1];
+
+            long t0 = System.nanoTime();
+            boolean any = false;
+            for (String query : MULTI_QUERY){
+               if (esql.executeQuery(query, from) > 0)
+                  any = true;
+            }//end for
+            long t1 = System.nanoTime();
+            int viaSql = esql.connectionDistance(from, to, 3);
+            long t2 = System.nanoTime();
+            int viaGraph = graph.distance(from, to, 3);
+            long t3 = System.nanoTime();
+
+            if (i < WARMUP)
+               continue;
+            multi[i - WARMUP] = t1 - t0;
+            recursive[i - WARMUP] = t2 - t1;
+            memory[i - WARMUP] = t3 - t2;
+            if (viaSql != viaGraph)
+               ++mismatches;
+            if (viaGraph > 0)
+               ++within;
+         }//end for
+
+         report("multi-query (12 round trips)", multi);
+         report("recursive query (1 round trip)", recursive);
+         report("in-memory graph", memory);
+         System.out.println("\n" + within + " of " + pairs + " pairs within 3 levels, "
+                            + mismatches + " disagreements between recursive query and graph");
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   private static void report (String name, long[] nanos) {
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      long total = 0;
+      for (long n : sorted)
+         total += n;
+      System.out.println(String.format("%-32s avg %9.1fus  p50 %9.1fus  p99 %9.1fus  max %9.1fus",
+                                       name, total / 1000.0 / sorted.length,
+                                       sorted[sorted.length / 2] / 1000.0,
+                                       sorted[(int) (sorted.length * 0.99)] / 1000.0,
+                                       sorted[sorted.length - 1] / 1000.0));
+   }//end report
+
+}//end ConnectionDistanceBenchmark
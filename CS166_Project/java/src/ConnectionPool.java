@@ -0,0 +1,464 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.  Connections are
+ * validated when borrowed, retired after a maximum lifetime, evicted when
+ * idle for too long, and reported when held longer than the leak
+ * threshold.  Borrowers wait at most the configured borrow timeout for a
+ * free connection.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * Pool configuration.  Every field can be overridden with a system
+    * property named profnetwork.pool.&lt;field&gt;, e.g.
+    * -Dprofnetwork.pool.maxSize=20
+    */
+   public static class Settings {
+      // upper bound on open connections
+      public int maxSize = 10;
+      // connections kept open even when idle
+      public int minIdle = 1;
+      // how long borrow() waits for a free connection
+      public long borrowTimeoutMs = 30000;
+      // idle connections above minIdle are closed after this long
+      public long idleTimeoutMs = 600000;
+      // connections are retired after this long regardless of use
+      public long maxLifetimeMs = 1800000;
+      // connections used within this window skip the validation query
+      public long validationBypassMs = 500;
+      // report connections held longer than this, 0 disables
+      public long leakThresholdMs = 0;
+      // prepared statements cached per connection
+      public int statementCacheSize = StatementCache.DEFAULT_CAPACITY;
+
+      /**
+       * @return settings with defaults overridden by system properties
+       */
+      public static Settings fromSystemProperties () {
+         Settings s = new Settings();
+         s.maxSize = Integer.getInteger("profnetwork.pool.maxSize", s.maxSize);
+         s.minIdle = Integer.getInteger("profnetwork.pool.minIdle", s.minIdle);
+         s.borrowTimeoutMs = Long.getLong("profnetwork.pool.borrowTimeoutMs", s.borrowTimeoutMs);
+         s.idleTimeoutMs = Long.getLong("profnetwork.pool.idleTimeoutMs", s.idleTimeoutMs);
+         s.maxLifetimeMs = Long.getLong("profnetwork.pool.maxLifetimeMs", s.maxLifetimeMs);
+         s.validationBypassMs = Long.getLong("profnetwork.pool.validationBypassMs", s.validationBypassMs);
+         s.leakThresholdMs = Long.getLong("profnetwork.pool.leakThresholdMs", s.leakThresholdMs);
+         s.statementCacheSize = Integer.getInteger("profnetwork.pool.statementCacheSize", s.statementCacheSize);
+         return s;
+      }//end fromSystemProperties
+   }//end Settings
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final Settings _settings;
+
+   // idle connections, most recently released first
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+
+   // connections currently handed out
+   private final List<PooledConnection> _leased = new ArrayList<PooledConnection>();
+
+   // open connections plus connections being opened
+   private int _total = 0;
+
+   // threads blocked in borrow()
+   private int _waiting = 0;
+
+   private boolean _closed = false;
+
+   // counters exposed through the metrics getters
+   private long _borrowCount = 0;
+   private long _createdCount = 0;
+   private long _destroyedCount = 0;
+   private long _timeoutCount = 0;
+   private long _validationFailures = 0;
+   private long _leakCount = 0;
+   private long _waitNanos = 0;
+
+   // runs eviction and leak detection in the background
+   private final ScheduledExecutorService _housekeeper;
+
+   /**
+    * Creates a new pool and opens the minimum number of idle connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param settings the pool configuration
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool (String url, String user, String passwd, Settings settings) throws SQLException {
+      if (settings.maxSize < 1 || settings.minIdle > settings.maxSize)
+         throw new IllegalArgumentException("Invalid pool size: minIdle=" + settings.minIdle + " maxSize=" + settings.maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._settings = settings;
+
+      for (int i = 0; i < settings.minIdle; ++i){
+         PooledConnection pc = open();
+         synchronized (this){
+            ++this._total;
+            this._idle.addFirst(pc);
+         }//end synchronized
+      }//end for
+
+      this._housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "ProfNetwork-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      long period = Math.max(1000, Math.min(settings.idleTimeoutMs,
+                                            settings.leakThresholdMs > 0 ? settings.leakThresholdMs : Long.MAX_VALUE) / 2);
+      this._housekeeper.scheduleWithFixedDelay(new Runnable() {
+         public void run () {
+            housekeep();
+         }
+      }, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Leases a connection from the pool, opening a new one when none is
+    * idle and the pool is below its maximum size.
+    *
+    * @return a validated connection that must be handed back with release()
+    * @throws java.sql.SQLException when no connection becomes available
+    *         within the borrow timeout or a new one cannot be opened
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(this._settings.borrowTimeoutMs);
+      while (true){
+         PooledConnection pc = null;
+         boolean create = false;
+         synchronized (this){
+            while (true){
+               if (this._closed)
+                  throw new SQLException("Connection pool is closed");
+               if (!this._idle.isEmpty()){
+                  pc = this._idle.removeFirst();
+                  break;
+               }//end if
+               if (this._total < this._settings.maxSize){
+                  ++this._total;
+                  create = true;
+                  break;
+               }//end if
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0){
+                  ++this._timeoutCount;
+                  throw new SQLException("Timed out after " + this._settings.borrowTimeoutMs
+                                         + "ms waiting for a database connection (" + stats() + ")");
+               }//end if
+               ++this._waiting;
+               try{
+                  TimeUnit.NANOSECONDS.timedWait(this, remaining);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }finally{
+                  --this._waiting;
+               }//end try
+            }//end while
+         }//end synchronized
+
+         long now = System.currentTimeMillis();
+         if (create){
+            try{
+               pc = open();
+            }catch (SQLException e){
+               synchronized (this){
+                  --this._total;
+                  notifyAll();
+               }//end synchronized
+               throw e;
+            }//end try
+         }else if (isExpired(pc, now) || !validate(pc, now)){
+            destroy(pc);
+            continue;
+         }//end if
+
+         synchronized (this){
+            pc.onBorrow(now, this._settings.leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null);
+            this._leased.add(pc);
+            ++this._borrowCount;
+            this._waitNanos += System.nanoTime() - start;
+         }//end synchronized
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Hands a leased connection back to the pool.  Broken or expired
+    * connections are closed instead of being reused.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release (PooledConnection pc) {
+      if (pc == null)
+         return;
+      long now = System.currentTimeMillis();
+      boolean reuse = !pc.isBroken() && !isExpired(pc, now);
+      if (reuse){
+         try{
+            Connection c = pc.getConnection();
+            // never hand an open transaction to the next borrower
+            if (!c.getAutoCommit()){
+               c.rollback();
+               c.setAutoCommit(true);
+            }//end if
+         }catch (SQLException e){
+            reuse = false;
+         }//end try
+      }//end if
+
+      synchronized (this){
+         if (!this._leased.remove(pc))
+            return;
+         pc.onRelease(now);
+         if (reuse && !this._closed){
+            this._idle.addFirst(pc);
+            notifyAll();
+            return;
+         }//end if
+      }//end synchronized
+      destroy(pc);
+   }//end release
+
+   /**
+    * Closes every idle connection and stops the background housekeeping.
+    * Connections still leased are closed when they are released.
+    */
+   public void close () {
+      List<PooledConnection> toClose;
+      synchronized (this){
+         this._closed = true;
+         toClose = new ArrayList<PooledConnection>(this._idle);
+         this._idle.clear();
+         notifyAll();
+      }//end synchronized
+      this._housekeeper.shutdownNow();
+      for (PooledConnection pc : toClose)
+         destroy(pc);
+   }//end close
+
+   /**
+    * Opens a connection to the pool's database that the pool does not
+    * manage, for session state such as LISTEN that must stay on one
+    * connection and never reach another borrower.
+    *
+    * @return the new connection, which the caller closes
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openUnpooled () throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openUnpooled
+
+   private PooledConnection open () throws SQLException {
+      Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+      synchronized (this){
+         ++this._createdCount;
+      }//end synchronized
+      return new PooledConnection(c, this._settings.statementCacheSize);
+   }//end open
+
+   private void destroy (PooledConnection pc) {
+      pc.close();
+      synchronized (this){
+         --this._total;
+         ++this._destroyedCount;
+         notifyAll();
+      }//end synchronized
+   }//end destroy
+
+   private boolean isExpired (PooledConnection pc, long now) {
+      return this._settings.maxLifetimeMs > 0 && now - pc.getCreatedAt() >= this._settings.maxLifetimeMs;
+   }//end isExpired
+
+   /**
+    * Runs a trivial query on a connection that has been idle for longer
+    * than the validation bypass window.
+    */
+   private boolean validate (PooledConnection pc, long now) {
+      if (now - pc.getReleasedAt() < this._settings.validationBypassMs)
+         return true;
+      try{
+         Statement stmt = pc.getConnection().createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery("SELECT 1");
+            rs.close();
+         }finally{
+            stmt.close();
+         }//end try
+         return true;
+      }catch (SQLException e){
+         synchronized (this){
+            ++this._validationFailures;
+         }//end synchronized
+         return false;
+      }//end try
+   }//end validate
+
+   /**
+    * Closes idle connections past their idle timeout or lifetime, keeping
+    * at least minIdle open, and reports connections held past the leak
+    * threshold.
+    */
+   private void housekeep () {
+      long now = System.currentTimeMillis();
+      List<PooledConnection> evicted = new ArrayList<PooledConnection>();
+      List<Throwable> leaks = new ArrayList<Throwable>();
+      List<Long> heldFor = new ArrayList<Long>();
+      synchronized (this){
+         // oldest idle connections are at the tail
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext()){
+            PooledConnection pc = it.next();
+            boolean idleTooLong = this._settings.idleTimeoutMs > 0
+                                  && now - pc.getReleasedAt() >= this._settings.idleTimeoutMs
+                                  && this._idle.size() > this._settings.minIdle;
+            if (idleTooLong || isExpired(pc, now)){
+               it.remove();
+               evicted.add(pc);
+            }//end if
+         }//end while
+         if (this._settings.leakThresholdMs > 0){
+            for (PooledConnection pc : this._leased){
+               if (pc.getBorrowSite() != null && now - pc.getBorrowedAt() >= this._settings.leakThresholdMs){
+                  leaks.add(pc.getBorrowSite());
+                  heldFor.add(now - pc.getBorrowedAt());
+                  ++this._leakCount;
+                  // report each lease only once
+                  pc.onBorrow(pc.getBorrowedAt(), null);
+               }//end if
+            }//end for
+         }//end if
+      }//end synchronized
+
+      for (PooledConnection pc : evicted)
+         destroy(pc);
+      for (int i = 0; i < leaks.size(); ++i){
+         System.err.println("Possible connection leak: connection held for " + heldFor.get(i) + "ms");
+         leaks.get(i).printStackTrace();
+      }//end for
+   }//end housekeep
+
+   /**
+    * @return the number of connections currently handed out
+    */
+   public synchronized int getActiveCount () {
+      return this._leased.size();
+   }//end getActiveCount
+
+   /**
+    * @return the number of open connections waiting in the pool
+    */
+   public synchronized int getIdleCount () {
+      return this._idle.size();
+   }//end getIdleCount
+
+   /**
+    * @return the number of open connections, leased or idle
+    */
+   public synchronized int getTotalCount () {
+      return this._total;
+   }//end getTotalCount
+
+   /**
+    * @return the number of threads waiting for a connection
+    */
+   public synchronized int getWaitingCount () {
+      return this._waiting;
+   }//end getWaitingCount
+
+   /**
+    * @return the number of successful borrows
+    */
+   public synchronized long getBorrowCount () {
+      return this._borrowCount;
+   }//end getBorrowCount
+
+   /**
+    * @return the number of borrows that gave up after the borrow timeout
+    */
+   public synchronized long getTimeoutCount () {
+      return this._timeoutCount;
+   }//end getTimeoutCount
+
+   /**
+    * @return the number of physical connections opened
+    */
+   public synchronized long getCreatedCount () {
+      return this._createdCount;
+   }//end getCreatedCount
+
+   /**
+    * @return the number of physical connections closed
+    */
+   public synchronized long getDestroyedCount () {
+      return this._destroyedCount;
+   }//end getDestroyedCount
+
+   /**
+    * @return the number of idle connections that failed validation
+    */
+   public synchronized long getValidationFailures () {
+      return this._validationFailures;
+   }//end getValidationFailures
+
+   /**
+    * @return the number of leases reported as possible leaks
+    */
+   public synchronized long getLeakCount () {
+      return this._leakCount;
+   }//end getLeakCount
+
+   /**
+    * @return the average time spent in borrow(), in microseconds
+    */
+   public synchronized long getAverageWaitMicros () {
+      return this._borrowCount == 0 ? 0 : this._waitNanos / this._borrowCount / 1000;
+   }//end getAverageWaitMicros
+
+   /**
+    * @return a one line summary of the pool metrics
+    */
+   public synchronized String stats () {
+      return "total=" + this._total + " active=" + this._leased.size() + " idle=" + this._idle.size()
+             + " waiting=" + this._waiting + " borrows=" + this._borrowCount
+             + " avgWaitUs=" + getAverageWaitMicros() + " timeouts=" + this._timeoutCount
+             + " created=" + this._createdCount + " destroyed=" + this._destroyedCount
+             + " validationFailures=" + this._validationFailures + " leaks=" + this._leakCount;
+   }//end stats
+
+}//end ConnectionPool
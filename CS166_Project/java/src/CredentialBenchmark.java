@@ -0,0 +1,77 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Picks the PBKDF2 iteration count for CredentialStore.  Verifying a
+ * password is timed at increasing costs on this machine and the largest
+ * cost whose p99 stays within the login budget is suggested as
+ * -Dprofnetwork.credentials.iterations.  Needs no database.
+ *
+ */
+public class CredentialBenchmark {
+
+   private static final int[] COSTS = { 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000 };
+
+   private static final int WARMUP = 20;
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args [p99 budget in ms] [samples per cost]
+    */
+   public static void main (String[] args) {
+      double budgetMs = args.length > 0 ? Double.parseDouble(args[0]) : 50;
+      int samples = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+      System.out.println("login p99 budget " + budgetMs + "ms, " + samples + " samples per cost\n");
+      int best = -1;
+      for (int cost : COSTS){
+         String stored = CredentialStore.hash("correct horse", cost);
+         long[] nanos = new long[samples];
+         for (int i = 0; i < samples + WARMUP; ++i){
+            long t0 = System.nanoTime();
+            CredentialStore.matches(stored, "battery staple");
+            long t1 = System.nanoTime();
+            if (i >= WARMUP)
+               nanos[i - WARMUP] = t1 - t0;
+         }//end for
+         double p99 = report(cost + " iterations", nanos);
+         if (p99 > budgetMs)
+            break;
+         best = cost;
+      }//end for
+
+      if (best < 0)
+         System.out.println("\neven " + COSTS[0] + " iterations exceed the budget");
+      else
+         System.out.println("\nuse -Dprofnetwork.credentials.iterations=" + best);
+   }//end main
+
+   // prints the distribution and returns its p99 in ms
+   private static double report (String name, long[] nanos) {
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      long total = 0;
+      for (long n : sorted)
+         total += n;
+      double p99 = sorted[(int) (sorted.length * 0.99)] / 1000000.0;
+      System.out.println(String.format("%-20s avg %8.2fms  p50 %8.2fms  p99 %8.2fms  max %8.2fms",
+                                       name, total / 1000000.0 / sorted.length,
+                                       sorted[sorted.length / 2] / 1000000.0, p99,
+                                       sorted[sorted.length - 1] / 1000000.0));
+      return p99;
+   }//end report
+
+}//end CredentialBenchmark
@@ -0,0 +1,282 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Stores and checks USR.password as salted PBKDF2 hashes of the form
+ *
+ *   pbkdf2-sha1$&lt;iterations&gt;$&lt;salt hex&gt;$&lt;hash hex&gt;
+ *
+ * Only the stored hash is fetched, by primary key, and it is compared in
+ * the JVM in constant time.  Rows still holding a plaintext password (the
+ * seed data) are accepted once and rewritten as hashes, as are hashes of
+ * an older iteration count.
+ *
+ * A successful login is remembered for a short while as an HMAC of the
+ * password under a key that never leaves the process, so that bursts of
+ * re-authentication by the same user skip the deliberately slow hash.
+ *
+ */
+public class CredentialStore {
+
+   public static final String SCHEME = "pbkdf2-sha1";
+
+   // PBKDF2 cost; benchmark with CredentialBenchmark before raising it
+   public static final int DEFAULT_ITERATIONS = 20000;
+
+   private static final int SALT_BYTES = 16;
+   private static final int HASH_BYTES = 20;
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+   private static final SecureRandom RANDOM = new SecureRandom();
+
+   private static class Verified {
+      final byte[] mac;
+      final long expiresAt;
+
+      Verified (byte[] mac, long expiresAt) {
+         this.mac = mac;
+         this.expiresAt = expiresAt;
+      }//end Verified
+   }//end Verified
+
+   private final ProfNetwork _esql;
+   private final int _iterations;
+   private final long _sessionTtlNanos;
+
+   // key of the verified-session MACs, fresh for every process
+   private final SecretKeySpec _sessionKey;
+
+   // recently verified users, most recent last
+   private final LinkedHashMap<String, Verified> _sessions;
+
+   // verified against to keep unknown users as slow as known ones
+   private final String _dummyHash;
+
+   /**
+    * Creates a new store configured from the profnetwork.credentials.*
+    * system properties (iterations, sessions, sessionTtlMs).
+    *
+    * @param esql the database access object
+    */
+   public CredentialStore (ProfNetwork esql) {
+      this(esql, Integer.getInteger("profnetwork.credentials.iterations", DEFAULT_ITERATIONS),
+           Integer.getInteger("profnetwork.credentials.sessions", 10000),
+           Long.getLong("profnetwork.credentials.sessionTtlMs", 5 * 60 * 1000L));
+   }//end CredentialStore
+
+   /**
+    * Creates a new store
+    *
+    * @param esql the database access object
+    * @param iterations the PBKDF2 iteration count of new hashes
+    * @param maxSessions the most verified logins remembered, 0 for none
+    * @param sessionTtlMs how long a verified login is remembered
+    */
+   public CredentialStore (ProfNetwork esql, int iterations, final int maxSessions, long sessionTtlMs) {
+      this._esql = esql;
+      this._iterations = iterations;
+      this._sessionTtlNanos = sessionTtlMs * 1000000L;
+      byte[] key = new byte[32];
+      RANDOM.nextBytes(key);
+      this._sessionKey = new SecretKeySpec(key, "HmacSHA256");
+      this._sessions = new LinkedHashMap<String, Verified>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, Verified> eldest) {
+            return size() > maxSessions;
+         }
+      };
+      this._dummyHash = hash("", iterations);
+   }//end CredentialStore
+
+   /**
+    * Checks a login.
+    *
+    * @param userId the login
+    * @param password the password given
+    * @return true if the user exists and the password is theirs
+    * @throws java.sql.SQLException when the stored hash cannot be read
+    */
+   public boolean verify (String userId, String password) throws SQLException {
+      byte[] mac = sessionMac(userId, password);
+      synchronized (this._sessions){
+         Verified v = this._sessions.get(userId);
+         if (v != null && v.expiresAt - System.nanoTime() > 0 && MessageDigest.isEqual(v.mac, mac))
+            return true;
+      }//end synchronized
+
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(
+         "SELECT password FROM USR WHERE userId = ?", userId);
+      if (result.isEmpty()){
+         matches(this._dummyHash, password);
+         return false;
+      }//end if
+      String stored = result.get(0).get(0);
+      boolean ok;
+      if (stored.startsWith(SCHEME + "$")){
+         ok = matches(stored, password);
+         if (ok && iterationsOf(stored) != this._iterations)
+            store(userId, password);
+      }else{
+         // plaintext left from before hashing; upgrade it on first use
+         matches(this._dummyHash, password);
+         ok = MessageDigest.isEqual(stored.getBytes(UTF8), password.getBytes(UTF8));
+         if (ok)
+            store(userId, password);
+      }//end if
+      if (ok){
+         synchronized (this._sessions){
+            this._sessions.put(userId, new Verified(mac, System.nanoTime() + this._sessionTtlNanos));
+         }//end synchronized
+      }//end if
+      return ok;
+   }//end verify
+
+   /**
+    * Replaces a user's password and forgets their verified logins.
+    *
+    * @param userId the login
+    * @param password the new password
+    * @throws java.sql.SQLException when the hash cannot be stored
+    */
+   public void setPassword (String userId, String password) throws SQLException {
+      store(userId, password);
+      invalidate(userId);
+   }//end setPassword
+
+   /**
+    * Forgets the verified logins of a user.
+    *
+    * @param userId the login
+    */
+   public void invalidate (String userId) {
+      synchronized (this._sessions){
+         this._sessions.remove(userId);
+      }//end synchronized
+   }//end invalidate
+
+   /**
+    * Hashes a password with the configured cost, for storing in USR.password.
+    *
+    * @param password the password
+    * @return the encoded salted hash
+    */
+   public String hash (String password) {
+      return hash(password, this._iterations);
+   }//end hash
+
+   /**
+    * Hashes a password with a fresh salt.
+    *
+    * @param password the password
+    * @param iterations the PBKDF2 iteration count
+    * @return the encoded salted hash
+    */
+   public static String hash (String password, int iterations) {
+      byte[] salt = new byte[SALT_BYTES];
+      RANDOM.nextBytes(salt);
+      return SCHEME + "$" + iterations + "$" + toHex(salt) + "$" + toHex(derive(password, salt, iterations));
+   }//end hash
+
+   /**
+    * Checks a password against an encoded hash in constant time.  A
+    * malformed hash, such as a truncated one, matches no password.
+    *
+    * @param stored the encoded hash
+    * @param password the password given
+    * @return true if the password produced the hash
+    */
+   public static boolean matches (String stored, String password) {
+      String[] parts = stored.split("\\$", -1);
+      if (parts.length != 4 || !parts[0].equals(SCHEME))
+         return false;
+      int iterations = iterationsOf(stored);
+      byte[] salt = fromHex(parts[2]);
+      byte[] expected = fromHex(parts[3]);
+      if (iterations <= 0 || salt == null || salt.length == 0 || expected == null || expected.length != HASH_BYTES)
+         return false;
+      return MessageDigest.isEqual(expected, derive(password, salt, iterations));
+   }//end matches
+
+   private void store (String userId, String password) throws SQLException {
+      this._esql.executeUpdate("UPDATE USR SET password = ? WHERE userId = ?", hash(password), userId);
+   }//end store
+
+   // the iteration count of an encoded hash, or -1 if it has none
+   private static int iterationsOf (String stored) {
+      String[] parts = stored.split("\\$", -1);
+      if (parts.length < 2)
+         return -1;
+      try{
+         return Integer.parseInt(parts[1]);
+      }catch (NumberFormatException e){
+         return -1;
+      }//end try
+   }//end iterationsOf
+
+   private byte[] sessionMac (String userId, String password) {
+      try{
+         Mac mac = Mac.getInstance("HmacSHA256");
+         mac.init(this._sessionKey);
+         mac.update(userId.getBytes(UTF8));
+         mac.update((byte) 0);
+         return mac.doFinal(password.getBytes(UTF8));
+      }catch (GeneralSecurityException e){
+         throw new IllegalStateException(e);
+      }//end try
+   }//end sessionMac
+
+   private static byte[] derive (String password, byte[] salt, int iterations) {
+      PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BYTES * 8);
+      try{
+         return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(spec).getEncoded();
+      }catch (GeneralSecurityException e){
+         throw new IllegalStateException(e);
+      }finally{
+         spec.clearPassword();
+      }//end try
+   }//end derive
+
+   private static String toHex (byte[] bytes) {
+      StringBuilder sb = new StringBuilder(bytes.length * 2);
+      for (byte b : bytes)
+         sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return sb.toString();
+   }//end toHex
+
+   // the bytes of a hex string, or null if it is not one
+   private static byte[] fromHex (String hex) {
+      if (hex.length() % 2 != 0)
+         return null;
+      byte[] bytes = new byte[hex.length() / 2];
+      for (int i = 0; i < bytes.length; ++i){
+         int hi = Character.digit(hex.charAt(2 * i), 16);
+         int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+         if (hi < 0 || lo < 0)
+            return null;
+         bytes[i] = (byte) ((hi << 4) | lo);
+      }//end for
+      return bytes;
+   }//end fromHex
+
+}//end CredentialStore
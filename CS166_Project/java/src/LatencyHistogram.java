@@ -0,0 +1,136 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock-free latency histogram in the style of
+ * HdrHistogram.  Every power of two range of values is split into
+ * SUB_BUCKETS linear buckets, so a recorded value is known to within
+ * 1/SUB_BUCKETS (about 3%) of itself whether it is a microsecond or a
+ * minute, in a few kilobytes.  Recording is two atomic increments and
+ * never allocates; reads are not atomic snapshots, which only matters to
+ * the last few values recorded while a percentile is being computed.
+ *
+ */
+public class LatencyHistogram {
+
+   // linear buckets per power of two; the relative error is 1 / SUB_BUCKETS
+   private static final int SUB_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+   // values below 2 * SUB_BUCKETS get one bucket each, then SUB_BUCKETS per power of two
+   private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * Records one value.
+    *
+    * @param value the value, typically nanoseconds; negative counts as 0
+    */
+   public void record (long value) {
+      if (value < 0)
+         value = 0;
+      this._counts.incrementAndGet(index(value));
+      this._count.incrementAndGet();
+      this._sum.addAndGet(value);
+      long max = this._max.get();
+      while (value > max && !this._max.compareAndSet(max, value))
+         max = this._max.get();
+   }//end record
+
+   /**
+    * @return the number of values recorded
+    */
+   public long getCount () {
+      return this._count.get();
+   }//end getCount
+
+   /**
+    * @return the sum of the values recorded
+    */
+   public long getSum () {
+      return this._sum.get();
+   }//end getSum
+
+   /**
+    * @return the largest value recorded, exactly
+    */
+   public long getMax () {
+      return this._max.get();
+   }//end getMax
+
+   /**
+    * @return the mean of the values recorded, or 0 when empty
+    */
+   public double getMean () {
+      long count = this._count.get();
+      return count == 0 ? 0 : (double) this._sum.get() / count;
+   }//end getMean
+
+   /**
+    * Returns the value at a percentile: no more than that fraction of the
+    * recorded values is larger.  Reported as the top of its bucket, so it
+    * may overstate the true value by up to 1/SUB_BUCKETS, never understate.
+    *
+    * @param p the percentile as a fraction, e.g. 0.99
+    * @return the value at the percentile, or 0 when empty
+    */
+   public long getValueAtPercentile (double p) {
+      long count = this._count.get();
+      if (count == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(p * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i){
+         seen += this._counts.get(i);
+         if (seen >= rank)
+            return Math.min(highestEquivalent(i), this._max.get());
+      }//end for
+      return this._max.get();
+   }//end getValueAtPercentile
+
+   /**
+    * Forgets every value recorded.
+    */
+   public void reset () {
+      for (int i = 0; i < BUCKETS; ++i)
+         this._counts.set(i, 0);
+      this._count.set(0);
+      this._sum.set(0);
+      this._max.set(0);
+   }//end reset
+
+   // the bucket of a non-negative value
+   static int index (long value) {
+      if (value < 2 * SUB_BUCKETS)
+         return (int) value;
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+      return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+   }//end index
+
+   // the largest value that falls into a bucket
+   static long highestEquivalent (int index) {
+      if (index < 2 * SUB_BUCKETS)
+         return index;
+      int shift = index / SUB_BUCKETS - 1;
+      long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+      return ((sub + 1) << shift) - 1;
+   }//end highestEquivalent
+
+}//end LatencyHistogram
@@ -0,0 +1,305 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Closed-loop load test of the menu handlers against a seeded database,
+ * typically one filled by WorkloadGenerator and BulkLoader
+ * (scripts/load_test.sh does both).
+ *
+ * Every client is a thread that logs in as a random user, performs a
+ * random number of actions picked from a weighted mix resembling a
+ * browsing session, waits the think time between actions and logs in
+ * again as someone else.  A client issues its next action only when the
+ * previous one has finished, so the offered load follows the response
+ * time and the number of clients sets the concurrency.
+ *
+ * Each action drives the real handler through a Session fed with
+ * scripted answers.  An action fails when the handler throws, when it
+ * records an error on its session, or, for LogIn, when the login is
+ * refused.  After a warmup of a fifth of the run (at most 10 seconds)
+ * throughput, latency percentiles and error rates are printed per action,
+ * followed by the per-statement table of QueryMetrics.
+ *
+ */
+public class LoadDriver {
+
+   // the actions, their weights in the mix, and the actions per login
+   private static final String[] ACTIONS = {
+      "LogIn", "ViewMessage", "FriendList", "SearchUser", "NewMessage",
+      "UpdateRequest", "SendRequest", "UpdatePassword" };
+   private static final int[] WEIGHTS = { 0, 30, 20, 15, 15, 10, 8, 2 };
+   private static final int LOGIN = 0;
+   private static final int MIN_ACTIONS = 5;
+   private static final int MAX_ACTIONS = 20;
+
+   // discards handler output
+   private static final PrintStream NOWHERE = new PrintStream(new OutputStream() {
+      public void write (int b) {
+      }
+      public void write (byte[] b, int off, int len) {
+      }
+   });
+
+   private final ProfNetwork _esql;
+   private final List<String> _users = new ArrayList<String>();
+   private final List<String> _passwords = new ArrayList<String>();
+   private final int _totalWeight;
+
+   /**
+    * Latencies and failures of one action on one client.
+    */
+   private static class Stats {
+      long[] nanos = new long[1024];
+      int count = 0;
+      int errors = 0;
+
+      void add (long latency, boolean failed) {
+         if (this.count == this.nanos.length)
+            this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+         this.nanos[this.count++] = latency;
+         if (failed)
+            ++this.errors;
+      }//end add
+   }//end Stats
+
+   private LoadDriver (ProfNetwork esql) {
+      this._esql = esql;
+      int total = 0;
+      for (int w : WEIGHTS)
+         total += w;
+      this._totalWeight = total;
+   }//end LoadDriver
+
+   /**
+    * The load test entry point
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;clients&gt; &lt;seconds&gt; [think time ms]
+    */
+   public static void main (String[] args) {
+      if (args.length < 5 || args.length > 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            LoadDriver.class.getName () +
+            " <dbname> <port> <user> <clients> <seconds> [think time ms]");
+         return;
+      }//end if
+
+      ProfNetwork esql = null;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         int clients = Integer.parseInt(args[3]);
+         long seconds = Long.parseLong(args[4]);
+         long thinkMs = args.length > 5 ? Long.parseLong(args[5]) : 0;
+         LoadDriver driver = new LoadDriver(esql);
+         driver.sampleUsers(Math.max(1000, clients * 50));
+         System.out.println(driver._users.size() + " sample users, " + clients + " clients, "
+                            + seconds + "s, think time " + thinkMs + "ms\n");
+         driver.run(clients, seconds * 1000, thinkMs);
+         System.out.println("\nStatements, warmup included\n" + esql.getMetrics().dump());
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+   }//end main
+
+   // random users; generated users share one password, seed users keep theirs in plaintext
+   private void sampleUsers (int count) throws Exception {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+         "SELECT userId, password FROM USR ORDER BY random() LIMIT ?", count);
+      for (List<String> row : rows){
+         this._users.add(row.get(0).trim());
+         String password = row.get(1).trim();
+         this._passwords.add(password.startsWith(CredentialStore.SCHEME + "$") ? WorkloadGenerator.PASSWORD : password);
+      }//end for
+      if (this._users.isEmpty())
+         throw new IllegalStateException("No users found; seed the database first");
+   }//end sampleUsers
+
+   private void run (final int clients, long durationMs, final long thinkMs) throws Exception {
+      final Stats[][] stats = new Stats[clients][ACTIONS.length];
+      final Exception[] failure = new Exception[1];
+      final CountDownLatch done = new CountDownLatch(clients);
+      long warmupMs = Math.min(durationMs / 5, 10000);
+      final long warmupEnd = System.nanoTime() + warmupMs * 1000000L;
+      final long end = System.nanoTime() + durationMs * 1000000L;
+      for (int c = 0; c < clients; ++c){
+         final int client = c;
+         for (int a = 0; a < ACTIONS.length; ++a)
+            stats[c][a] = new Stats();
+         new Thread("load-client-" + c) {
+            public void run () {
+               Random random = new Random(166 + client);
+               try{
+                  while (System.nanoTime() < end){
+                     int u = random.nextInt(_users.size());
+                     if (!act(LOGIN, u, random, warmupEnd, stats[client]))
+                        continue;
+                     int actions = MIN_ACTIONS + random.nextInt(MAX_ACTIONS - MIN_ACTIONS + 1);
+                     for (int i = 0; i < actions && System.nanoTime() < end; ++i){
+                        if (thinkMs > 0)
+                           Thread.sleep(thinkMs);
+                        act(pickAction(random), u, random, warmupEnd, stats[client]);
+                     }//end for
+                  }//end while
+               }catch (Exception e){
+                  failure[0] = e;
+               }finally{
+                  Session.unbind();
+                  done.countDown();
+               }//end try
+            }
+         }.start();
+      }//end for
+      done.await();
+      if (failure[0] != null)
+         throw failure[0];
+
+      long measuredMs = durationMs - warmupMs;
+      int totalCount = 0;
+      int totalErrors = 0;
+      System.out.println(String.format("%-16s %8s %9s %9s %9s %9s %9s %7s %7s",
+                                       "action", "count", "ops/s", "p50 ms", "p99 ms", "p99.9 ms",
+                                       "max ms", "errors", "err %"));
+      for (int a = 0; a < ACTIONS.length; ++a){
+         Stats merged = new Stats();
+         for (int c = 0; c < clients; ++c){
+            Stats s = stats[c][a];
+            for (int i = 0; i < s.count; ++i)
+               merged.add(s.nanos[i], false);
+            merged.errors += s.errors;
+         }//end for
+         totalCount += merged.count;
+         totalErrors += merged.errors;
+         report(ACTIONS[a], merged, measuredMs);
+      }//end for
+      System.out.println(String.format("%-16s %8d %9.1f %49d %6.2f%%", "total", totalCount,
+                                       totalCount * 1000.0 / measuredMs, totalErrors,
+                                       totalCount == 0 ? 0.0 : 100.0 * totalErrors / totalCount));
+   }//end run
+
+   private int pickAction (Random random) {
+      int r = random.nextInt(this._totalWeight);
+      int a = 0;
+      while (r >= WEIGHTS[a]){
+         r -= WEIGHTS[a];
+         ++a;
+      }//end while
+      return a;
+   }//end pickAction
+
+   /**
+    * Performs one action as user u and records it once the warmup is over.
+    *
+    * @return whether the action succeeded
+    */
+   private boolean act (int action, int u, Random random, long warmupEnd, Stats[] stats) {
+      String user = this._users.get(u);
+      String password = this._passwords.get(u);
+      String other = this._users.get(random.nextInt(this._users.size()));
+      boolean ok;
+      long t0 = System.nanoTime();
+      try{
+         switch (action){
+         case 0:
+            drive(user + "\n" + password + "\n");
+            ok = user.equals(ProfNetwork.LogIn(this._esql));
+            break;
+         case 1:
+            // open the inbox or outbox and leave after the first page
+            drive((random.nextInt(4) == 0 ? "2" : "1") + "\n0\n");
+            ProfNetwork.ViewMessage(this._esql, user);
+            ok = true;
+            break;
+         case 2:
+            drive("2\n");
+            ProfNetwork.FriendList(this._esql, user);
+            ok = true;
+            break;
+         case 3:
+            // a prefix of someone's login, then leave after the first page
+            drive(other.substring(0, Math.min(other.length(), 2 + random.nextInt(4))) + "\n0\n");
+            ProfNetwork.SearchUser(this._esql);
+            ok = true;
+            break;
+         case 4:
+            drive(other + "\nload test message " + random.nextInt() + "\n");
+            ProfNetwork.NewMessage(this._esql, user);
+            ok = true;
+            break;
+         case 5:
+            // accept or reject every pending request
+            drive("1\n" + (random.nextInt(4) == 0 ? "2" : "1") + "\n*\n");
+            ProfNetwork.UpdateRequest(this._esql, user);
+            ok = true;
+            break;
+         case 6:
+            drive(other + "\n");
+            ProfNetwork.SendRequest(this._esql, user);
+            ok = true;
+            break;
+         default:
+            // set the same password again so later logins still work
+            drive("1\n" + password + "\n");
+            ProfNetwork.UpdatePassword(this._esql, user);
+            ok = true;
+            break;
+         }//end switch
+         ok &= Session.current().getErrorCount() == 0;
+      }catch (Exception e){
+         ok = false;
+      }//end try
+      long t1 = System.nanoTime();
+      if (t0 >= warmupEnd)
+         stats[action].add(t1 - t0, !ok);
+      return ok;
+   }//end act
+
+   // binds a session answering the handler's prompts with the given lines
+   private static void drive (String answers) {
+      Session.bind(new Session(new BufferedReader(new StringReader(answers)), NOWHERE));
+   }//end drive
+
+   private static void report (String name, Stats stats, long measureMs) {
+      if (stats.count == 0){
+         System.out.println(String.format("%-16s %8d", name, 0));
+         return;
+      }//end if
+      long[] sorted = Arrays.copyOf(stats.nanos, stats.count);
+      Arrays.sort(sorted);
+      System.out.println(String.format("%-16s %8d %9.1f %9.2f %9.2f %9.2f %9.2f %7d %6.2f%%",
+                                       name, stats.count, stats.count * 1000.0 / measureMs,
+                                       percentile(sorted, 0.50), percentile(sorted, 0.99),
+                                       percentile(sorted, 0.999), sorted[sorted.length - 1] / 1000000.0,
+                                       stats.errors, 100.0 * stats.errors / stats.count));
+   }//end report
+
+   private static double percentile (long[] sorted, double p) {
+      return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000000.0;
+   }//end percentile
+
+}//end LoadDriver
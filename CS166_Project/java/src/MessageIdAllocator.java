@@ -0,0 +1,66 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Hands out MESSAGE.msgId values from blocks reserved on the database
+ * sequence.  The sequence increments by the block size, so one nextval
+ * call reserves a whole block that no other client or session can get;
+ * the ids inside it are then handed out without a round trip.
+ *
+ */
+public class MessageIdAllocator {
+
+   // must match INCREMENT BY of MESSAGE_MSGID_SEQ in create_tables.sql
+   public static final int DEFAULT_BLOCK_SIZE = 50;
+
+   private final ProfNetwork _esql;
+   private final String _nextvalQuery;
+   private final int _blockSize;
+
+   // next id to hand out and the last id of the current block
+   private long _next = 1;
+   private long _last = 0;
+
+   /**
+    * Creates a new allocator on the given sequence
+    *
+    * @param esql the database access object used to reserve blocks
+    * @param sequence the name of the sequence backing the ids
+    * @param blockSize the INCREMENT BY of the sequence
+    */
+   public MessageIdAllocator (ProfNetwork esql, String sequence, int blockSize) {
+      this._esql = esql;
+      this._nextvalQuery = "SELECT nextval('" + sequence + "')";
+      this._blockSize = blockSize;
+   }//end MessageIdAllocator
+
+   /**
+    * Returns the next unused id, reserving a new block from the sequence
+    * when the current one is exhausted.
+    *
+    * @return a message id no other caller will receive
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public synchronized int next () throws SQLException {
+      if (this._next > this._last){
+         List<List<String>> result = this._esql.executeQueryAndReturnResult(this._nextvalQuery);
+         this._next = Long.parseLong(result.get(0).get(0));
+         this._last = this._next + this._blockSize - 1;
+      }//end if
+      return (int) this._next++;
+   }//end next
+
+}//end MessageIdAllocator
@@ -0,0 +1,735 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues outgoing messages and writes them to MESSAGE in batches, so that
+ * a sender waits for a local disk write instead of a database round trip
+ * and many senders share one multi-row INSERT.
+ *
+ * send() appends the message to a journal file in the outbox directory
+ * and returns once the append is on disk; the messages of concurrent
+ * senders go to disk with one fsync.  A flusher thread takes queued
+ * messages in order and inserts up to batchSize of them at a time,
+ * waiting at most flushMs for a batch to fill.  Journal segments are
+ * deleted once all their messages are committed.  When the process dies
+ * with messages still queued, the next start finds them in the journal
+ * and inserts them then; a message committed just before the crash is
+ * not inserted twice, the insert skips msgIds already in MESSAGE.
+ *
+ * A message is MESSAGE_QUEUED from send() until its batch commits, and
+ * listed by queuedBy() meanwhile; it is then MESSAGE_SENT, or
+ * MESSAGE_FAILED when it went in without a receiver or not at all.
+ *
+ * At most capacity messages wait at a time.  A sender finding the outbox
+ * full waits up to offerTimeoutMs for room, then gets an error, so a
+ * database that cannot keep up slows senders down instead of filling
+ * memory and disk.  A batch that fails because the database is away is
+ * retried until it goes in.  A message whose receiver no longer exists
+ * goes in with status Failed to Deliver and no receiver, as for an
+ * unknown recipient; one the database refuses for its contents is
+ * dropped and reported.  So is one that fails on its own, for a reason
+ * the error does not tell, MAX_ATTEMPTS times while the database
+ * answers, so that it does not hold up every message behind it.
+ *
+ * One process uses an outbox directory at a time.
+ *
+ */
+public class MessageOutbox {
+
+   // journal segments are closed when they grow past this size
+   private static final long SEGMENT_BYTES = 1L << 20;
+
+   private static final String SEGMENT_PREFIX = "outbox-";
+   private static final String SEGMENT_SUFFIX = ".log";
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // longest wait between two attempts at a failing batch
+   private static final long MAX_RETRY_DELAY_MS = 30 * 1000L;
+
+   // attempts at a message failing for no known reason before it is dropped
+   public static final int MAX_ATTEMPTS = 5;
+
+   private static final String INSERT_HEAD =
+      "INSERT INTO MESSAGE(msgId,senderUid,receiverUid,contents,sendTime,deleteStatus,status) " +
+      "SELECT V.msgId, V.senderUid, V.receiverUid, V.contents, V.sendTime, 0, V.status FROM (VALUES ";
+   private static final String INSERT_ROW =
+      "(CAST(? AS integer),CAST(? AS bigint),CAST(? AS bigint),CAST(? AS text),CAST(? AS timestamp),CAST(? AS MESSAGE_STATUS))";
+   private static final String INSERT_TAIL =
+      ") V(msgId,senderUid,receiverUid,contents,sendTime,status) " +
+      "WHERE V.msgId IS NOT NULL AND NOT EXISTS (SELECT 1 FROM MESSAGE M WHERE M.msgId = V.msgId)";
+
+   // rows per INSERT statement.  A batch is padded with NULL rows, which
+   // the statement skips, up to the next of these sizes, so that only a
+   // few statements are ever prepared, cached and timed.
+   private static final int[] INSERT_SIZES = { 1, 8, 32, 128 };
+   private static final String[] INSERTS = new String[INSERT_SIZES.length];
+   static {
+      for (int i = 0; i < INSERT_SIZES.length; ++i){
+         StringBuilder sql = new StringBuilder(INSERT_HEAD);
+         for (int r = 0; r < INSERT_SIZES[i]; ++r)
+            sql.append(r == 0 ? "" : ",").append(INSERT_ROW);
+         INSERTS[i] = sql.append(INSERT_TAIL).toString();
+      }//end for
+   }//end static
+
+   /**
+    * A message on its way to MESSAGE.
+    */
+   public static class Message {
+      public final int msgId;
+      public final long senderUid;
+      // -1 when the recipient does not exist
+      public final long receiverUid;
+      public final String contents;
+      public final Timestamp sendTime;
+
+      // MESSAGE_QUEUED until the message is committed, then the status
+      // it is stored with
+      private volatile String _status = ProfNetwork.MESSAGE_QUEUED;
+
+      // failed inserts of the message alone, used by the flusher only
+      private int _attempts = 0;
+
+      // the journal segment holding the message
+      private Segment _segment;
+
+      public Message (int msgId, long senderUid, long receiverUid, String contents, Timestamp sendTime) {
+         this.msgId = msgId;
+         this.senderUid = senderUid;
+         this.receiverUid = receiverUid;
+         this.contents = contents;
+         this.sendTime = sendTime;
+      }//end Message
+
+      /**
+       * @return MESSAGE_QUEUED while the message waits in the outbox, then
+       *         MESSAGE_SENT, or MESSAGE_FAILED when it was stored without
+       *         a receiver or could not be stored at all
+       */
+      public String getStatus () {
+         return this._status;
+      }//end getStatus
+
+      // the status the message is inserted with
+      private String storedStatus () {
+         return this.receiverUid >= 0 ? ProfNetwork.MESSAGE_SENT : ProfNetwork.MESSAGE_FAILED;
+      }//end storedStatus
+   }//end Message
+
+   // one journal file; deleted once closed and holding no pending message
+   private static class Segment {
+      final File file;
+      FileChannel channel;
+      long bytes = 0;
+      int pending = 0;
+
+      Segment (File file) {
+         this.file = file;
+      }//end Segment
+   }//end Segment
+
+   private final ProfNetwork _esql;
+   private final File _dir;
+   private final int _batchSize;
+   private final long _flushMs;
+   private final long _offerTimeoutMs;
+   private final boolean _fsync;
+
+   // room for capacity messages; a permit is returned once one is committed
+   private final Semaphore _room;
+   private final LinkedBlockingQueue<Message> _queue = new LinkedBlockingQueue<Message>();
+   // msgId -> message, from send() until committed, for the senders' outboxes
+   private final ConcurrentHashMap<Integer, Message> _pending = new ConcurrentHashMap<Integer, Message>();
+
+   // guards the journal: appends, rotation and segment bookkeeping
+   private final Object _journalLock = new Object();
+   private Segment _current = null;
+   private long _nextSegment = 0;
+   // bytes appended since start, and bytes known to be on disk
+   private long _appended = 0;
+   private final Object _syncLock = new Object();
+   private long _synced = 0;
+
+   private final FileLock _dirLock;
+   private final RandomAccessFile _lockFile;
+   private final Thread _flusher;
+   private volatile boolean _closing = false;
+
+   private final AtomicLong _sent = new AtomicLong();
+   private final AtomicLong _delivered = new AtomicLong();
+   private final AtomicLong _batches = new AtomicLong();
+   private final AtomicLong _failures = new AtomicLong();
+
+   /**
+    * Creates a new outbox configured from the profnetwork.outbox.*
+    * system properties: dir (default "outbox"), batchSize, flushMs,
+    * capacity, offerTimeoutMs and fsync.  Returns null, so that messages
+    * are inserted directly, when profnetwork.outbox is false or the
+    * directory is in use by another process.
+    *
+    * @param esql the database access object
+    * @return the started outbox, or null
+    * @throws java.io.IOException when the directory or journal cannot be
+    *         read or written
+    */
+   public static MessageOutbox fromSystemProperties (ProfNetwork esql) throws IOException {
+      if ("false".equals(System.getProperty("profnetwork.outbox")))
+         return null;
+      File dir = new File(System.getProperty("profnetwork.outbox.dir", "outbox"));
+      try{
+         return new MessageOutbox(esql, dir,
+                                  Integer.getInteger("profnetwork.outbox.batchSize", 128),
+                                  Long.getLong("profnetwork.outbox.flushMs", 20),
+                                  Integer.getInteger("profnetwork.outbox.capacity", 10000),
+                                  Long.getLong("profnetwork.outbox.offerTimeoutMs", 5000),
+                                  !"false".equals(System.getProperty("profnetwork.outbox.fsync")));
+      }catch (IllegalStateException e){
+         System.err.println(e.getMessage() + "; sending messages directly");
+         return null;
+      }//end try
+   }//end fromSystemProperties
+
+   /**
+    * Creates a new outbox on a directory, queues the messages its journal
+    * still holds and starts the flusher on a daemon thread.
+    *
+    * @param esql the database access object
+    * @param dir the directory of the journal, created if missing
+    * @param batchSize the most messages inserted per statement
+    * @param flushMs the longest a queued message waits for its batch to fill
+    * @param capacity the most messages waiting at a time
+    * @param offerTimeoutMs how long send() waits for room in a full outbox
+    * @param fsync whether send() waits for the journal to reach the disk
+    * @throws java.io.IOException when the journal cannot be read or written
+    * @throws IllegalStateException when another process uses the directory
+    */
+   public MessageOutbox (ProfNetwork esql, File dir, int batchSize, long flushMs, int capacity,
+                         long offerTimeoutMs, boolean fsync) throws IOException {
+      this._esql = esql;
+      this._dir = dir;
+      this._batchSize = batchSize;
+      this._flushMs = flushMs;
+      this._offerTimeoutMs = offerTimeoutMs;
+      this._fsync = fsync;
+
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create outbox directory " + dir);
+      this._lockFile = new RandomAccessFile(new File(dir, "outbox.lock"), "rw");
+      this._dirLock = this._lockFile.getChannel().tryLock();
+      if (this._dirLock == null){
+         this._lockFile.close();
+         throw new IllegalStateException("Outbox directory " + dir + " is in use");
+      }//end if
+
+      int recovered = recover();
+      this._room = new Semaphore(Math.max(capacity, recovered), true);
+      this._room.acquireUninterruptibly(recovered);
+      if (recovered > 0)
+         System.err.println("Outbox: " + recovered + " queued messages recovered from " + dir);
+
+      this._flusher = new Thread(new Runnable() {
+         public void run () {
+            flushLoop();
+         }
+      }, "ProfNetwork-message-outbox");
+      this._flusher.setDaemon(true);
+      this._flusher.start();
+   }//end MessageOutbox
+
+   /**
+    * Queues a message for MESSAGE.  Returns once the message is in the
+    * journal, so it is not lost even if the process dies before the
+    * batch holding it is inserted.
+    *
+    * @param message the message
+    * @throws java.sql.SQLException when the outbox stays full for
+    *         offerTimeoutMs, is closed, or the journal cannot be written
+    */
+   public void send (Message message) throws SQLException {
+      if (this._closing)
+         throw new SQLException("Outbox closed");
+      try{
+         if (!this._room.tryAcquire(this._offerTimeoutMs, TimeUnit.MILLISECONDS))
+            throw new SQLException("Outbox full, " + this._queue.size() + " messages waiting; try again later");
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted waiting for the outbox");
+      }//end try
+      long end;
+      try{
+         byte[] record = encode(message).getBytes(UTF8);
+         synchronized (this._journalLock){
+            if (this._current == null || this._current.bytes >= SEGMENT_BYTES)
+               rotate();
+            Segment s = this._current;
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining())
+               s.channel.write(buffer);
+            s.bytes += record.length;
+            s.pending++;
+            this._appended += record.length;
+            end = this._appended;
+            message._segment = s;
+            // in journal order, which recovery replays in
+            this._pending.put(message.msgId, message);
+            this._queue.add(message);
+         }//end synchronized
+      }catch (IOException e){
+         this._room.release();
+         throw new SQLException("Cannot write the outbox journal: " + e.getMessage());
+      }//end try
+      try{
+         sync(end);
+      }catch (IOException e){
+         // the message is queued and will be sent; only its durability is in doubt
+         System.err.println("Outbox journal sync failed: " + e.getMessage());
+      }//end try
+      this._sent.incrementAndGet();
+   }//end send
+
+   /**
+    * Forces the journal to disk up to a position.  A sender whose append
+    * another sender's force already covered returns at once, so one
+    * fsync serves everyone who appended while the previous one ran.
+    */
+   private void sync (long end) throws IOException {
+      if (!this._fsync)
+         return;
+      synchronized (this._syncLock){
+         if (this._synced >= end)
+            return;
+         long upTo;
+         FileChannel channel;
+         synchronized (this._journalLock){
+            upTo = this._appended;
+            channel = this._current == null ? null : this._current.channel;
+         }//end synchronized
+         try{
+            if (channel != null)
+               channel.force(false);
+         }catch (ClosedChannelException e){
+            // rotated meanwhile; rotate() forced the segment before closing it
+         }//end try
+         this._synced = upTo;
+      }//end synchronized
+   }//end sync
+
+   // closes the current segment and opens the next; holds _journalLock
+   private void rotate () throws IOException {
+      Segment old = this._current;
+      File file = new File(this._dir, String.format("%s%012d%s", SEGMENT_PREFIX, this._nextSegment++, SEGMENT_SUFFIX));
+      Segment s = new Segment(file);
+      s.channel = new RandomAccessFile(file, "rw").getChannel();
+      s.channel.position(s.channel.size());
+      this._current = s;
+      if (old != null){
+         if (this._fsync)
+            old.channel.force(false);
+         old.channel.close();
+         old.channel = null;
+         deleteIfDone(old);
+      }//end if
+   }//end rotate
+
+   // holds _journalLock
+   private void deleteIfDone (Segment s) {
+      if (s != this._current && s.pending == 0 && !s.file.delete() && s.file.exists())
+         System.err.println("Outbox: cannot delete " + s.file);
+   }//end deleteIfDone
+
+   /**
+    * Queues the messages of the journal segments left by the previous
+    * process, oldest first.  A last record without its line end was
+    * never acknowledged and is dropped.
+    *
+    * @return the number of messages queued
+    */
+   private int recover () throws IOException {
+      File[] files = this._dir.listFiles();
+      List<File> segments = new ArrayList<File>();
+      for (File f : files == null ? new File[0] : files){
+         String name = f.getName();
+         if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+            segments.add(f);
+      }//end for
+      File[] sorted = segments.toArray(new File[0]);
+      Arrays.sort(sorted);
+      int recovered = 0;
+      for (File f : sorted){
+         String name = f.getName();
+         long n = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+         this._nextSegment = Math.max(this._nextSegment, n + 1);
+         Segment s = new Segment(f);
+         BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(f), UTF8));
+         try{
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = reader.read()) >= 0){
+               if (c != '\n'){
+                  line.append((char) c);
+                  continue;
+               }//end if
+               Message m = decode(line.toString());
+               line.setLength(0);
+               if (m == null)
+                  continue;
+               m._segment = s;
+               s.pending++;
+               this._pending.put(m.msgId, m);
+               this._queue.add(m);
+               ++recovered;
+            }//end while
+         }finally{
+            reader.close();
+         }//end try
+         synchronized (this._journalLock){
+            deleteIfDone(s);
+         }//end synchronized
+      }//end for
+      return recovered;
+   }//end recover
+
+   // msgId TAB senderUid TAB receiverUid TAB sendTime millis TAB contents NL
+   private static String encode (Message m) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(m.msgId).append('\t').append(m.senderUid).append('\t').append(m.receiverUid)
+        .append('\t').append(m.sendTime.getTime()).append('\t');
+      String contents = m.contents == null ? "" : m.contents;
+      for (int i = 0; i < contents.length(); ++i){
+         char c = contents.charAt(i);
+         if (c == '\\') sb.append("\\\\");
+         else if (c == '\t') sb.append("\\t");
+         else if (c == '\n') sb.append("\\n");
+         else if (c == '\r') sb.append("\\r");
+         else sb.append(c);
+      }//end for
+      return sb.append('\n').toString();
+   }//end encode
+
+   private static Message decode (String line) {
+      String[] f = line.split("\t", 5);
+      if (f.length < 5)
+         return null;
+      StringBuilder contents = new StringBuilder();
+      String s = f[4];
+      for (int i = 0; i < s.length(); ++i){
+         char c = s.charAt(i);
+         if (c == '\\' && i + 1 < s.length()){
+            char e = s.charAt(++i);
+            contents.append(e == 't' ? '\t' : e == 'n' ? '\n' : e == 'r' ? '\r' : e);
+         }else
+            contents.append(c);
+      }//end for
+      try{
+         return new Message(Integer.parseInt(f[0]), Long.parseLong(f[1]), Long.parseLong(f[2]),
+                            contents.toString(), new Timestamp(Long.parseLong(f[3])));
+      }catch (NumberFormatException e){
+         return null;
+      }//end try
+   }//end decode
+
+   /**
+    * The flusher: takes the next message, gathers more until the batch is
+    * full or flushMs has passed, and inserts them, until closed with an
+    * empty queue.
+    */
+   private void flushLoop () {
+      List<Message> batch = new ArrayList<Message>();
+      long retryDelay = 0;
+      while (true){
+         try{
+            if (batch.isEmpty()){
+               Message first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+               if (first == null){
+                  if (this._closing)
+                     return;
+                  continue;
+               }//end if
+               batch.add(first);
+               long deadline = System.currentTimeMillis() + this._flushMs;
+               while (batch.size() < this._batchSize){
+                  long wait = deadline - System.currentTimeMillis();
+                  Message next = wait > 0 ? this._queue.poll(wait, TimeUnit.MILLISECONDS) : this._queue.poll();
+                  if (next == null)
+                     break;
+                  batch.add(next);
+                  this._queue.drainTo(batch, this._batchSize - batch.size());
+               }//end while
+            }//end if
+            deliver(batch);
+            committed(batch);
+            batch.clear();
+            retryDelay = 0;
+         }catch (InterruptedException e){
+            if (!this._closing)
+               continue;
+            // closing: keep the batch in the journal for the next start
+            return;
+         }catch (SQLException e){
+            // the journal keeps the batch; try again, backing off
+            this._failures.incrementAndGet();
+            retryDelay = Math.min(MAX_RETRY_DELAY_MS, Math.max(100, retryDelay * 2));
+            System.err.println("Outbox: " + batch.size() + " messages not delivered, retrying in "
+                               + retryDelay + "ms: " + e.getMessage());
+            try{
+               Thread.sleep(retryDelay);
+            }catch (InterruptedException ie){
+               return;
+            }//end try
+         }//end try
+      }//end while
+   }//end flushLoop
+
+   /**
+    * Inserts a batch with one statement.  When the statement fails while
+    * the database answers, the messages go in one at a time so that a
+    * bad message holds up only itself: one whose receiver no longer
+    * exists goes in undelivered, one the database refuses outright is
+    * dropped and reported.  One failing for another reason is tried
+    * again with the batch, after the flusher's backoff, and dropped once
+    * it has failed MAX_ATTEMPTS times.  A failure while the database does
+    * not answer is thrown, and the batch is retried as a whole.
+    */
+   private void deliver (List<Message> batch) throws SQLException {
+      try{
+         insert(this._esql, batch);
+         this._batches.incrementAndGet();
+         return;
+      }catch (SQLException e){
+         if (!isRejected(e) && !databaseAnswers())
+            throw e;
+      }//end try
+      for (Message m : batch){
+         // already in on an earlier pass at this batch
+         if (!ProfNetwork.MESSAGE_QUEUED.equals(m._status))
+            continue;
+         try{
+            insert(this._esql, Collections.singletonList(m));
+         }catch (SQLException e){
+            if (!isRejected(e) && (!databaseAnswers() || ++m._attempts < MAX_ATTEMPTS))
+               throw e;
+            this._failures.incrementAndGet();
+            if (isForeignKeyViolation(e) && m.receiverUid >= 0){
+               // the receiver is gone: keep the message, undelivered
+               insert(this._esql, Collections.singletonList(
+                  new Message(m.msgId, m.senderUid, -1, m.contents, m.sendTime)));
+            }else
+               System.err.println("Outbox: message " + m.msgId + " dropped: " + e.getMessage());
+            m._status = ProfNetwork.MESSAGE_FAILED;
+         }//end try
+      }//end for
+      this._batches.incrementAndGet();
+   }//end deliver
+
+   /**
+    * Tells whether the database answers a trivial query, so that a
+    * statement failing meanwhile failed for the data in it.
+    */
+   private boolean databaseAnswers () {
+      try{
+         this._esql.executeQueryAndReturnResult("SELECT 1");
+         return true;
+      }catch (SQLException e){
+         return false;
+      }//end try
+   }//end databaseAnswers
+
+   private static boolean isForeignKeyViolation (SQLException e) {
+      String message = e.getMessage();
+      return "23503".equals(e.getSQLState()) || (message != null && message.contains("foreign key"));
+   }//end isForeignKeyViolation
+
+   /**
+    * Tells whether the database refused a statement for the values in it
+    * rather than for its own state.  The bundled driver carries no
+    * SQLSTATE, so the server message is checked as well.
+    */
+   private static boolean isRejected (SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && (state.startsWith("22") || state.startsWith("23")))
+         return true;
+      String message = e.getMessage();
+      return message != null && (message.contains("violates") || message.contains("value too long")
+                                 || message.contains("invalid input"));
+   }//end isRejected
+
+   /**
+    * Inserts messages into MESSAGE, skipping those whose msgId is already
+    * there.  Up to the largest of INSERT_SIZES go in one statement.
+    *
+    * @param esql the database access object
+    * @param messages the messages
+    * @return the number of messages inserted
+    * @throws java.sql.SQLException when an insert fails
+    */
+   public static int insert (ProfNetwork esql, List<Message> messages) throws SQLException {
+      int inserted = 0;
+      int largest = INSERT_SIZES[INSERT_SIZES.length - 1];
+      for (int from = 0; from < messages.size(); from += largest){
+         List<Message> chunk = messages.subList(from, Math.min(messages.size(), from + largest));
+         int size = 0;
+         while (INSERT_SIZES[size] < chunk.size())
+            ++size;
+         // the padding rows stay all NULL
+         Object[] params = new Object[INSERT_SIZES[size] * 6];
+         int p = 0;
+         for (Message m : chunk){
+            params[p++] = m.msgId;
+            params[p++] = m.senderUid;
+            params[p++] = m.receiverUid >= 0 ? Long.valueOf(m.receiverUid) : null;
+            params[p++] = m.contents;
+            params[p++] = m.sendTime;
+            params[p++] = m.storedStatus();
+         }//end for
+         inserted += esql.executeUpdate(INSERTS[size], params);
+         for (Message m : chunk)
+            m._status = m.storedStatus();
+      }//end for
+      return inserted;
+   }//end insert
+
+   // releases a committed batch's room and journal space
+   private void committed (List<Message> batch) {
+      synchronized (this._journalLock){
+         for (Message m : batch){
+            Segment s = m._segment;
+            s.pending--;
+            deleteIfDone(s);
+            this._pending.remove(m.msgId);
+         }//end for
+      }//end synchronized
+      this._delivered.addAndGet(batch.size());
+      this._room.release(batch.size());
+   }//end committed
+
+   /**
+    * Lists the messages of a sender that are still waiting to be
+    * committed, and so are not in MESSAGE yet.
+    *
+    * @param senderUid the sender
+    * @return the sender's queued messages, newest first
+    */
+   public List<Message> queuedBy (long senderUid) {
+      List<Message> queued = new ArrayList<Message>();
+      for (Message m : this._pending.values())
+         if (m.senderUid == senderUid)
+            queued.add(m);
+      Collections.sort(queued, new Comparator<Message>() {
+         public int compare (Message a, Message b) {
+            int c = b.sendTime.compareTo(a.sendTime);
+            return c != 0 ? c : Integer.compare(b.msgId, a.msgId);
+         }
+      });
+      return queued;
+   }//end queuedBy
+
+   /**
+    * @return the messages accepted since start
+    */
+   public long getSentCount () {
+      return this._sent.get();
+   }//end getSentCount
+
+   /**
+    * @return the messages committed to MESSAGE since start
+    */
+   public long getDeliveredCount () {
+      return this._delivered.get();
+   }//end getDeliveredCount
+
+   /**
+    * @return the INSERT statements that committed messages since start
+    */
+   public long getBatchCount () {
+      return this._batches.get();
+   }//end getBatchCount
+
+   /**
+    * @return the batches that failed and were retried since start
+    */
+   public long getFailureCount () {
+      return this._failures.get();
+   }//end getFailureCount
+
+   /**
+    * @return the messages accepted but not committed yet
+    */
+   public int getQueuedCount () {
+      return this._queue.size();
+   }//end getQueuedCount
+
+   /**
+    * Stops accepting messages, waits up to timeoutMs for the queued ones
+    * to be inserted and closes the journal.  Messages still queued then
+    * stay in the journal for the next start.
+    *
+    * @param timeoutMs how long to wait for the queue to drain
+    */
+   public void close (long timeoutMs) {
+      this._closing = true;
+      try{
+         this._flusher.join(timeoutMs);
+         if (this._flusher.isAlive()){
+            this._flusher.interrupt();
+            this._flusher.join(1000);
+         }//end if
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+      synchronized (this._journalLock){
+         try{
+            if (this._current != null && this._current.channel != null){
+               this._current.channel.close();
+               this._current.channel = null;
+               Segment last = this._current;
+               this._current = null;
+               deleteIfDone(last);
+            }//end if
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end synchronized
+      try{
+         this._dirLock.release();
+         this._lockFile.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+   }//end close
+
+}//end MessageOutbox
@@ -0,0 +1,114 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes messages both parties have deleted (deleteStatus 3) in the
+ * background, so that soft deletes do not make MESSAGE grow without
+ * bound.  Rows go in batches of a bounded size, each its own short
+ * transaction, so a purge never holds many row locks or a long
+ * transaction open.
+ *
+ */
+public class MessagePurger {
+
+   private static final String PURGE_BATCH =
+      "DELETE FROM MESSAGE WHERE msgId IN (" +
+      "SELECT msgId FROM MESSAGE WHERE deleteStatus = " + ProfNetwork.DELETED_BY_BOTH + " LIMIT ?)";
+
+   private final ProfNetwork _esql;
+   private final int _batchSize;
+   private final ScheduledExecutorService _scheduler;
+
+   // rows removed since start
+   private volatile long _purged = 0;
+
+   /**
+    * Creates a new purger configured from the profnetwork.purge.intervalMs
+    * and profnetwork.purge.batchSize system properties, or null when the
+    * interval is 0.
+    *
+    * @param esql the database access object
+    * @return the started purger, or null
+    */
+   public static MessagePurger fromSystemProperties (ProfNetwork esql) {
+      long intervalMs = Long.getLong("profnetwork.purge.intervalMs", 10 * 60 * 1000L);
+      int batchSize = Integer.getInteger("profnetwork.purge.batchSize", 1000);
+      return intervalMs > 0 ? new MessagePurger(esql, intervalMs, batchSize) : null;
+   }//end fromSystemProperties
+
+   /**
+    * Creates a new purger and schedules it on a daemon thread.
+    *
+    * @param esql the database access object
+    * @param intervalMs the delay between two purges
+    * @param batchSize the most rows deleted per transaction
+    */
+   public MessagePurger (ProfNetwork esql, long intervalMs, int batchSize) {
+      this._esql = esql;
+      this._batchSize = batchSize;
+      this._scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "ProfNetwork-message-purger");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      this._scheduler.scheduleWithFixedDelay(new Runnable() {
+         public void run () {
+            try{
+               purge();
+            }catch (SQLException e){
+               System.err.println("Message purge failed: " + e.getMessage());
+            }//end try
+         }
+      }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+   }//end MessagePurger
+
+   /**
+    * Deletes every message both parties have deleted, one batch at a time.
+    *
+    * @return the number of messages removed
+    * @throws java.sql.SQLException when a batch cannot be deleted
+    */
+   public long purge () throws SQLException {
+      long removed = 0;
+      int n;
+      do{
+         n = this._esql.executeUpdate(PURGE_BATCH, this._batchSize);
+         removed += n;
+         this._purged += n;
+      }while (n == this._batchSize && !Thread.currentThread().isInterrupted());
+      return removed;
+   }//end purge
+
+   /**
+    * @return the number of messages removed since the purger started
+    */
+   public long getPurgedCount () {
+      return this._purged;
+   }//end getPurgedCount
+
+   /**
+    * Stops the background purges.
+    */
+   public void close () {
+      this._scheduler.shutdownNow();
+   }//end close
+
+}//end MessagePurger
@@ -0,0 +1,327 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Tells logged in sessions about new messages and connection requests as
+ * the triggers of create_notify.sql signal them, so that no session has
+ * to query MESSAGE or CONNECTION_USR to find out.
+ *
+ * One connection outside the pool LISTENs on the message_&lt;uid&gt;,
+ * request_&lt;uid&gt; and friend_&lt;uid&gt; channels of every subscribed
+ * user, whatever the number of sessions.  The bundled driver reads notifications only as
+ * part of a query's response, so a daemon thread runs SELECT 1 on it
+ * every pollMs and hands what arrived to the subscribers of each user.
+ * LISTEN and UNLISTEN run on the same thread, queued by subscribe() and
+ * unsubscribe().  When the connection is lost the thread opens another,
+ * LISTENs again and tells every subscriber RESYNC, as notifications may
+ * have been missed in between.
+ *
+ */
+public class NotificationHub {
+
+   // events, the channel name up to the uid
+   public static final String MESSAGE = "message";
+   public static final String REQUEST = "request";
+   public static final String FRIEND = "friend";
+   // anything may have changed while the listener was disconnected
+   public static final String RESYNC = "resync";
+
+   // longest wait between two attempts to reconnect
+   private static final long MAX_RECONNECT_DELAY_MS = 30 * 1000L;
+
+   /**
+    * Receives the events of one user, on the hub's thread.  It must not
+    * block, e.g. on a client's socket: the thread also delivers the events
+    * of every other user and polls the listener connection.
+    */
+   public interface Subscriber {
+      /**
+       * @param event MESSAGE, REQUEST, FRIEND or RESYNC
+       */
+      void notified (String event);
+   }//end Subscriber
+
+   private final ConnectionPool _pool;
+   private final long _pollMs;
+
+   // uid -> subscribers; channels to LISTEN and UNLISTEN on the next poll.
+   // All guarded by this.
+   private final Map<Long, List<Subscriber>> _subscribers = new HashMap<Long, List<Subscriber>>();
+   private final Set<String> _listen = new LinkedHashSet<String>();
+   private final Set<String> _unlisten = new LinkedHashSet<String>();
+
+   // used by the hub's thread only
+   private Connection _connection = null;
+
+   private final Thread _thread;
+   private volatile boolean _closed = false;
+
+   private final AtomicLong _received = new AtomicLong();
+   private final AtomicLong _delivered = new AtomicLong();
+
+   /**
+    * Creates a new hub polling every profnetwork.notify.pollMs (default
+    * 250), or null when profnetwork.notify is false.
+    *
+    * @param pool the pool whose database the listener connects to
+    * @return the started hub, or null
+    */
+   public static NotificationHub fromSystemProperties (ConnectionPool pool) {
+      if ("false".equals(System.getProperty("profnetwork.notify")))
+         return null;
+      return new NotificationHub(pool, Long.getLong("profnetwork.notify.pollMs", 250));
+   }//end fromSystemProperties
+
+   /**
+    * Creates a new hub and starts its listener on a daemon thread.
+    *
+    * @param pool the pool whose database the listener connects to
+    * @param pollMs the delay between two reads of the notifications
+    */
+   public NotificationHub (ConnectionPool pool, long pollMs) {
+      this._pool = pool;
+      this._pollMs = pollMs;
+      this._thread = new Thread(new Runnable() {
+         public void run () {
+            listen();
+         }
+      }, "ProfNetwork-notifications");
+      this._thread.setDaemon(true);
+      this._thread.start();
+   }//end NotificationHub
+
+   /**
+    * Starts telling a subscriber about a user's events.
+    *
+    * @param uid the user
+    * @param subscriber the subscriber, e.g. the user's session
+    */
+   public synchronized void subscribe (long uid, Subscriber subscriber) {
+      List<Subscriber> list = this._subscribers.get(uid);
+      if (list == null){
+         list = new ArrayList<Subscriber>();
+         this._subscribers.put(uid, list);
+         for (String channel : channels(uid)){
+            this._unlisten.remove(channel);
+            this._listen.add(channel);
+         }//end for
+      }//end if
+      list.add(subscriber);
+   }//end subscribe
+
+   /**
+    * Stops telling a subscriber about a user's events.
+    *
+    * @param uid the user
+    * @param subscriber the subscriber given to subscribe()
+    */
+   public synchronized void unsubscribe (long uid, Subscriber subscriber) {
+      List<Subscriber> list = this._subscribers.get(uid);
+      if (list == null || !list.remove(subscriber) || !list.isEmpty())
+         return;
+      this._subscribers.remove(uid);
+      for (String channel : channels(uid)){
+         this._listen.remove(channel);
+         this._unlisten.add(channel);
+      }//end for
+   }//end unsubscribe
+
+   private static String[] channels (long uid) {
+      return new String[] { MESSAGE + "_" + uid, REQUEST + "_" + uid, FRIEND + "_" + uid };
+   }//end channels
+
+   /**
+    * The listener loop: (re)connects, applies queued LISTEN and UNLISTEN,
+    * reads the notifications and dispatches them, until closed.
+    */
+   private void listen () {
+      long reconnectDelay = 0;
+      boolean connected = false;
+      while (!this._closed){
+         try{
+            if (this._connection == null){
+               connect(connected);
+               connected = true;
+               reconnectDelay = 0;
+            }//end if
+            applyListens();
+            Statement stmt = this._connection.createStatement();
+            try{
+               stmt.executeQuery("SELECT 1").close();
+            }finally{
+               stmt.close();
+            }//end try
+            PGNotification[] notifications = ((PGConnection) this._connection).getNotifications();
+            if (notifications != null)
+               for (PGNotification n : notifications)
+                  dispatch(n.getName());
+            Thread.sleep(this._pollMs);
+         }catch (InterruptedException e){
+            // closed
+         }catch (SQLException e){
+            if (this._closed)
+               break;
+            System.err.println("Notification listener disconnected: " + e.getMessage());
+            disconnect();
+            reconnectDelay = Math.min(MAX_RECONNECT_DELAY_MS, Math.max(500, reconnectDelay * 2));
+            try{
+               Thread.sleep(reconnectDelay);
+            }catch (InterruptedException ie){
+               // closed
+            }//end try
+         }//end try
+      }//end while
+      disconnect();
+   }//end listen
+
+   /**
+    * Opens the listener connection and LISTENs on the channels of every
+    * subscribed user.  After a reconnect every subscriber is told RESYNC.
+    */
+   private void connect (boolean reconnect) throws SQLException {
+      List<Long> uids;
+      synchronized (this){
+         uids = new ArrayList<Long>(this._subscribers.keySet());
+         this._listen.clear();
+         this._unlisten.clear();
+      }//end synchronized
+      this._connection = this._pool.openUnpooled();
+      Statement stmt = this._connection.createStatement();
+      try{
+         for (long uid : uids)
+            for (String channel : channels(uid))
+               stmt.executeUpdate("LISTEN " + channel);
+      }finally{
+         stmt.close();
+      }//end try
+      if (reconnect)
+         for (long uid : uids)
+            deliver(uid, RESYNC);
+   }//end connect
+
+   private void applyListens () throws SQLException {
+      List<String> sql = new ArrayList<String>();
+      synchronized (this){
+         for (String channel : this._listen)
+            sql.add("LISTEN " + channel);
+         for (String channel : this._unlisten)
+            sql.add("UNLISTEN " + channel);
+         this._listen.clear();
+         this._unlisten.clear();
+      }//end synchronized
+      if (sql.isEmpty())
+         return;
+      Statement stmt = this._connection.createStatement();
+      try{
+         for (String s : sql)
+            stmt.executeUpdate(s);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end applyListens
+
+   private void dispatch (String channel) {
+      this._received.incrementAndGet();
+      int split = channel.lastIndexOf('_');
+      if (split < 0)
+         return;
+      String event = channel.substring(0, split);
+      long uid;
+      try{
+         uid = Long.parseLong(channel.substring(split + 1));
+      }catch (NumberFormatException e){
+         return;
+      }//end try
+      if (event.equals(MESSAGE) || event.equals(REQUEST) || event.equals(FRIEND))
+         deliver(uid, event);
+   }//end dispatch
+
+   private void deliver (long uid, String event) {
+      List<Subscriber> subscribers;
+      synchronized (this){
+         List<Subscriber> list = this._subscribers.get(uid);
+         if (list == null)
+            return;
+         subscribers = new ArrayList<Subscriber>(list);
+      }//end synchronized
+      for (Subscriber s : subscribers){
+         try{
+            s.notified(event);
+            this._delivered.incrementAndGet();
+         }catch (RuntimeException e){
+            // one broken session must not starve the others
+            System.err.println("Notification subscriber failed: " + e);
+         }//end try
+      }//end for
+   }//end deliver
+
+   private void disconnect () {
+      if (this._connection == null)
+         return;
+      try{
+         this._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+      this._connection = null;
+   }//end disconnect
+
+   /**
+    * @return the number of users with at least one subscriber
+    */
+   public synchronized int getSubscribedCount () {
+      return this._subscribers.size();
+   }//end getSubscribedCount
+
+   /**
+    * @return the notifications received since start
+    */
+   public long getReceivedCount () {
+      return this._received.get();
+   }//end getReceivedCount
+
+   /**
+    * @return the events handed to subscribers since start
+    */
+   public long getDeliveredCount () {
+      return this._delivered.get();
+   }//end getDeliveredCount
+
+   /**
+    * Stops the listener and closes its connection.
+    */
+   public void close () {
+      this._closed = true;
+      this._thread.interrupt();
+      try{
+         this._thread.join(2000);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+}//end NotificationHub
@@ -0,0 +1,118 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection owned by a ConnectionPool together with its
+ * prepared statement cache and the bookkeeping the pool needs for
+ * lifetime, idle and leak checks.
+ *
+ */
+public class PooledConnection {
+
+   // the physical connection
+   private final Connection _connection;
+
+   // prepared statements of this connection
+   private final StatementCache _statements;
+
+   // when the physical connection was opened
+   private final long _createdAt;
+
+   // when the connection was last handed back to the pool
+   private long _releasedAt;
+
+   // when the connection was last borrowed, 0 while idle
+   private long _borrowedAt;
+
+   // where the connection was borrowed from, only kept for leak detection
+   private Throwable _borrowSite;
+
+   // set when a statement failed in a way that makes the connection unusable
+   private boolean _broken;
+
+   PooledConnection (Connection connection, int statementCacheSize) {
+      this._connection = connection;
+      this._statements = new StatementCache(connection, statementCacheSize);
+      this._createdAt = System.currentTimeMillis();
+      this._releasedAt = this._createdAt;
+   }//end PooledConnection
+
+   /**
+    * @return the physical connection
+    */
+   public Connection getConnection () {
+      return this._connection;
+   }//end getConnection
+
+   /**
+    * @return the prepared statement cache of this connection
+    */
+   public StatementCache getStatements () {
+      return this._statements;
+   }//end getStatements
+
+   /**
+    * Marks the connection as unusable so that the pool closes it instead
+    * of handing it out again.
+    */
+   public void markBroken () {
+      this._broken = true;
+   }//end markBroken
+
+   boolean isBroken () {
+      return this._broken;
+   }//end isBroken
+
+   long getCreatedAt () {
+      return this._createdAt;
+   }//end getCreatedAt
+
+   long getReleasedAt () {
+      return this._releasedAt;
+   }//end getReleasedAt
+
+   long getBorrowedAt () {
+      return this._borrowedAt;
+   }//end getBorrowedAt
+
+   Throwable getBorrowSite () {
+      return this._borrowSite;
+   }//end getBorrowSite
+
+   void onBorrow (long now, Throwable site) {
+      this._borrowedAt = now;
+      this._borrowSite = site;
+   }//end onBorrow
+
+   void onRelease (long now) {
+      this._borrowedAt = 0;
+      this._borrowSite = null;
+      this._releasedAt = now;
+   }//end onRelease
+
+   /**
+    * Closes the cached statements and the physical connection.
+    */
+   void close () {
+      this._statements.clear();
+      try{
+         this._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+}//end PooledConnection
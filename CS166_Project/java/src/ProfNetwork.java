@@ -11,23 +11,26 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
-//for getting the date and time
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -36,13 +39,77 @@ import java.util.Date;
  */
 public class ProfNetwork {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // rows fetched per round trip by executeQueryAndStream.
+   public static final int DEFAULT_FETCH_SIZE = 256;
+
+   // names the cursors of streamThroughCursor(), unique per call.
+   private static final AtomicLong CURSORS = new AtomicLong ();
+
+   // attempts inTransaction() makes before giving up on serialization failures.
+   public static final int MAX_TRANSACTION_ATTEMPTS = 5;
+
+   // MESSAGE.deleteStatus bits; a message is purged once both are set.
+   public static final int DELETED_BY_SENDER = 1;
+   public static final int DELETED_BY_RECEIVER = 2;
+   public static final int DELETED_BY_BOTH = DELETED_BY_SENDER | DELETED_BY_RECEIVER;
+
+   // MESSAGE.status labels: stored for the receiver, read by them, or
+   // stored without a receiver because there was no such user.
+   public static final String MESSAGE_SENT = "sent";
+   public static final String MESSAGE_READ = "Read";
+   public static final String MESSAGE_FAILED = "Failed to Deliver";
+   // status of a message in the outbox, not stored in MESSAGE yet
+   public static final String MESSAGE_QUEUED = "Queued";
+
+   // pool of physical database connections shared by every query method.
+   private ConnectionPool _pool = null;
+
+   // MESSAGE.msgId values reserved from MESSAGE_MSGID_SEQ.
+   private MessageIdAllocator _messageIds = null;
+
+   // logins <-> USR.uid, the key every other table refers to users by.
+   private UserDirectory _users = null;
+
+   // accepted connections, kept in memory for the SendRequest level check.
+   private SocialGraph _graph = null;
+
+   // profiles viewed through FriendList.
+   private ProfileCache _profiles = null;
+
+   // USR.password hashing and login checks.
+   private CredentialStore _credentials = null;
+
+   // people search over logins, names, companies and institutions.
+   private UserSearchIndex _search = null;
+
+   // removes messages deleted by both parties, or null when disabled.
+   private MessagePurger _purger = null;
+
+   // queues new messages and inserts them in batches, or null when
+   // messages are inserted one by one.
+   private MessageOutbox _outbox = null;
+
+   // tells logged in sessions about new messages and requests, or null
+   // when disabled.
+   private NotificationHub _notifications = null;
+
+   // latency, row and error statistics of every statement run.
+   private QueryMetrics _metrics = QueryMetrics.fromSystemProperties();
+
+   // whether create_counters.sql has been run on the database.
+   private boolean _hasCounters = false;
+
+   // whether create_friends.sql has been run, so FRIEND holds both
+   // directions of every accepted connection.
+   private boolean _hasFriends = false;
 
    // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // This variable can be global for convenience; it reads from the
+   // Session bound to the calling thread (the keyboard by default).
+   static BufferedReader in = Session.input();
+
+   // prompts and results go to the Session bound to the calling thread.
+   static PrintStream out = Session.output();
 
    /**
     * Creates a new instance of ProfNetwork 
@@ -55,23 +122,413 @@ public class ProfNetwork {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public ProfNetwork (String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, ConnectionPool.Settings.fromSystemProperties());
+   }//end ProfNetwork
 
-      System.out.print("Connecting to database...");
+   /**
+    * Creates a new instance of ProfNetwork backed by a connection pool
+    * with the given settings.
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param settings the connection pool configuration
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ProfNetwork (String dbname, String dbport, String user, String passwd,
+                       ConnectionPool.Settings settings) throws SQLException {
+
+      out.print("Connecting to database...");
       try{
          // constructs the connection URL
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
-         System.out.println ("Connection URL: " + url + "\n");
-executeUpdate
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
-         System.out.println("Done");
+         out.println ("Connection URL: " + url + "\n");
+         // open the pool, which eagerly obtains its first physical connections
+         this._pool = new ConnectionPool(url, user, passwd, settings);
+         this._messageIds = new MessageIdAllocator(this, "MESSAGE_MSGID_SEQ",
+                                                   MessageIdAllocator.DEFAULT_BLOCK_SIZE);
+         // before the graph and the search index, which map uids back to logins
+         this._users = UserDirectory.load(this);
+         // -Dprofnetwork.graph=false leaves level checks to connectionDistance()
+         if (!"false".equals(System.getProperty("profnetwork.graph")))
+            this._graph = SocialGraph.load(this);
+         // -Dprofnetwork.search=false leaves SearchUser to a name prefix query
+         if (!"false".equals(System.getProperty("profnetwork.search")))
+            this._search = UserSearchIndex.load(this);
+         this._profiles = new ProfileCache(this);
+         this._credentials = new CredentialStore(this);
+         this._purger = MessagePurger.fromSystemProperties(this);
+         // -Dprofnetwork.outbox=false makes NewMessage insert directly
+         this._outbox = MessageOutbox.fromSystemProperties(this);
+         // -Dprofnetwork.notify=false makes the menu read the badges every time
+         this._notifications = NotificationHub.fromSystemProperties(this._pool);
+         this._hasCounters = hasTable ("usr_counters");
+         this._hasFriends = hasTable ("friend");
+         out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
-         System.out.println("Make sure you started postgres on this machine");
+         out.println("Make sure you started postgres on this machine");
          System.exit(-1);
       }//end catch
    }//end ProfNetwork
 
+   /**
+    * Returns a fresh MESSAGE.msgId.  Ids come from blocks reserved on
+    * MESSAGE_MSGID_SEQ, so concurrent senders never collide and most
+    * calls need no round trip.
+    *
+    * @return an unused message id
+    * @throws java.sql.SQLException when a new id block cannot be reserved
+    */
+   public int nextMessageId () throws SQLException {
+      return this._messageIds.next ();
+   }//end nextMessageId
+
+   /**
+    * Method to send a message.  With the outbox the message is journaled
+    * locally and inserted in a batch shortly after, and is MESSAGE_QUEUED
+    * until then; without it it is inserted before the method returns.
+    * Once inserted the message is MESSAGE_SENT, or MESSAGE_FAILED and
+    * stored without a receiver when there is no such recipient.
+    *
+    * @param sender the sender
+    * @param recipient the login the message is addressed to
+    * @param contents the message text
+    * @return the message, whose getStatus() follows its delivery
+    * @throws java.sql.SQLException when the message cannot be queued or
+    *         inserted, e.g. because the outbox stays full
+    */
+   public MessageOutbox.Message sendMessage (String sender, String recipient, String contents) throws SQLException {
+      long to = this._users.uid (recipient);
+      MessageOutbox.Message message = new MessageOutbox.Message (
+         nextMessageId (), this._users.uid (sender), to, contents, new Timestamp (System.currentTimeMillis ()));
+      if (this._outbox != null)
+         this._outbox.send (message);
+      else
+         MessageOutbox.insert (this, Collections.singletonList (message));
+      return message;
+   }//end sendMessage
+
+   /**
+    * @return the outbox of new messages, or null when it is disabled
+    */
+   public MessageOutbox getOutbox () {
+      return this._outbox;
+   }//end getOutbox
+
+   /**
+    * @return the hub that pushes new messages and requests to sessions,
+    *         or null when it is disabled
+    */
+   public NotificationHub getNotifications () {
+      return this._notifications;
+   }//end getNotifications
+
+   /**
+    * @param name the table name, in lower case
+    * @return whether the database has the table
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   private boolean hasTable (String name) throws SQLException {
+      return executeQuery ("SELECT 1 FROM pg_class WHERE relname = ? AND relkind = 'r'", name) > 0;
+   }//end hasTable
+
+   /**
+    * @return whether accepted connections are mirrored into FRIEND, so a
+    *         user's friends are one index range scan
+    */
+   public boolean hasFriendEdges () {
+      return this._hasFriends;
+   }//end hasFriendEdges
+
+   /**
+    * Method to read a user's badge counters with one primary key lookup
+    * on USR_COUNTERS.
+    *
+    * @param user the user
+    * @return the counters, or null when the database has no USR_COUNTERS
+    *         (create_counters.sql has not been run) or no row for the user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserCounters getCounters (String user) throws SQLException {
+      long uid = this._users.uid (user);
+      if (!this._hasCounters || uid < 0)
+         return null;
+      List<List<String>> result = executeQueryAndReturnResult (
+         "SELECT friendCount, pendingCount, unreadCount FROM USR_COUNTERS WHERE uid = ?", uid);
+      return result.isEmpty () ? null : new UserCounters (result.get(0));
+   }//end getCounters
+
+   /**
+    * Method to read a message of a user's inbox or outbox.  Read from the
+    * inbox, the message is also marked as read, which takes it off the
+    * receiver's unread count, in the same transaction as it is read.
+    * Messages already read or not delivered are left alone.
+    *
+    * @param user the receiver or sender
+    * @param msgId the message
+    * @param asReceiver true to read it from the user's inbox, false from
+    *        their outbox
+    * @return the contents, or null when the user has no such message
+    * @throws java.sql.SQLException when failed to execute the statements
+    */
+   public String readMessage (String user, final int msgId, final boolean asReceiver) throws SQLException {
+      final long uid = this._users.uid (user);
+      if (uid < 0)
+         return null;
+      return inTransaction (new Work<String>() {
+         public String run (UnitOfWork tx) throws SQLException {
+            List<List<String>> body = tx.executeQueryAndReturnResult (asReceiver
+               ? "SELECT contents FROM MESSAGE WHERE msgId = ? AND receiverUid = ? AND deleteStatus IN (0,1)"
+               : "SELECT contents FROM MESSAGE WHERE msgId = ? AND senderUid = ? AND deleteStatus IN (0,2)", msgId, uid);
+            if (body.isEmpty ())
+               return null;
+            if (asReceiver)
+               tx.executeUpdate (
+                  "UPDATE MESSAGE SET status = '" + MESSAGE_READ + "' WHERE msgId = ? AND receiverUid = ? AND status = '" + MESSAGE_SENT + "'",
+                  msgId, uid);
+            return body.get(0).get(0) == null ? "" : body.get(0).get(0).trim();
+         }
+      });
+   }//end readMessage
+
+   /**
+    * Method to find how many levels of accepted connections separate two
+    * users in a single round trip.  FRIEND, or without it CONNECTION_USR
+    * as an undirected graph, is walked by a recursive query that stops at
+    * maxDepth.
+    *
+    * @param from the first user
+    * @param to the second user
+    * @param maxDepth the largest distance of interest
+    * @return the shortest distance, or -1 if it exceeds maxDepth
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int connectionDistance (String from, String to, int maxDepth) throws SQLException {
+      if (from.equals(to))
+         return 0;
+      long a = this._users.uid (from);
+      long b = this._users.uid (to);
+      return a < 0 || b < 0 ? -1 : connectionDistance (a, b, maxDepth);
+   }//end connectionDistance
+
+   /**
+    * Method to find how many levels of accepted connections separate two
+    * users given by uid, see connectionDistance(String, String, int).
+    *
+    * @param from the uid of the first user
+    * @param to the uid of the second user
+    * @param maxDepth the largest distance of interest
+    * @return the shortest distance, or -1 if it exceeds maxDepth
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int connectionDistance (long from, long to, int maxDepth) throws SQLException {
+      if (from == to)
+         return 0;
+      String query = this._hasFriends ?
+         "WITH RECURSIVE reach(uid, depth) AS (" +
+         "  SELECT CAST(? AS bigint), 0" +
+         "  UNION" +
+         "  SELECT F.friendUid, R.depth + 1" +
+         "  FROM reach R, FRIEND F" +
+         "  WHERE R.depth < ? AND R.uid <> ? AND F.uid = R.uid" +
+         ") SELECT MIN(depth) FROM reach WHERE uid = ?"
+         :
+         "WITH RECURSIVE reach(uid, depth) AS (" +
+         "  SELECT CAST(? AS bigint), 0" +
+         "  UNION" +
+         "  SELECT CASE WHEN C.uid = R.uid THEN C.connectionUid ELSE C.uid END, R.depth + 1" +
+         "  FROM reach R, CONNECTION_USR C" +
+         "  WHERE R.depth < ? AND R.uid <> ? AND C.status = 'Accept'" +
+         "  AND (C.uid = R.uid OR C.connectionUid = R.uid)" +
+         ") SELECT MIN(depth) FROM reach WHERE uid = ?";
+      List<List<String>> result = executeQueryAndReturnResult (query, from, maxDepth, to, to);
+      String depth = result.get(0).get(0);
+      return depth == null ? -1 : Integer.parseInt(depth);
+   }//end connectionDistance
+
+   /**
+    * Method to answer many pending connection requests to a user with one
+    * statement, and so in one transaction and one round trip.
+    *
+    * @param user the user the requests were sent to
+    * @param requesters the users whose requests are answered
+    * @param accept true to accept the requests, false to reject them
+    * @return the requesters that had a pending request, now answered
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public List<String> respondToRequests (String user, List<String> requesters, final boolean accept) throws SQLException {
+      final long uid = this._users.uid (user);
+      final List<String> uids = new ArrayList<String>();
+      for (String requester : requesters){
+         long r = this._users.uid (requester);
+         if (r >= 0)
+            uids.add (Long.toString (r));
+      }//end for
+      if (uid < 0 || uids.isEmpty())
+         return new ArrayList<String>();
+      final String query =
+         "UPDATE CONNECTION_USR SET status = CAST(? AS CONNECTION_STATUS) WHERE status = 'Request' AND connectionUid = ?" +
+         " AND uid = ANY (CAST(? AS bigint[])) RETURNING uid";
+      final SocialGraph graph = this._graph;
+      final List<Long> answered = inTransaction (new Work<List<Long>>() {
+         public List<Long> run (UnitOfWork tx) throws SQLException {
+            List<List<String>> result = tx.executeQueryAndReturnResult (query, accept ? "Accept" : "Reject",
+                                                                        uid, toArrayLiteral (uids));
+            final List<Long> answered = new ArrayList<Long>();
+            for (List<String> row : result)
+               answered.add (Long.parseLong (row.get(0).trim()));
+            if (accept && graph != null){
+               tx.afterCommit (new Runnable() {
+                  public void run () {
+                     for (long requester : answered)
+                        graph.addConnection (requester, uid);
+                  }
+               });
+            }//end if
+            return answered;
+         }
+      });
+      List<String> logins = new ArrayList<String>();
+      for (long requester : answered)
+         logins.add (this._users.login (requester));
+      return logins;
+   }//end respondToRequests
+
+   /**
+    * Method to delete a message from one side of a conversation.  The
+    * side's bit is set on MESSAGE.deleteStatus by a single conditional
+    * update, so the state cannot be lost to a concurrent delete by the
+    * other side.
+    *
+    * @param user the sender or receiver deleting the message
+    * @param msgId the message
+    * @param asReceiver true to delete it from the user's inbox, false
+    *        from their outbox
+    * @return the new deleteStatus, or -1 when the user has no such message
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public int deleteMessage (String user, int msgId, boolean asReceiver) throws SQLException {
+      String query = asReceiver
+         ? "UPDATE MESSAGE SET deleteStatus = deleteStatus | 2 WHERE msgId = ? AND receiverUid = ? AND deleteStatus & 2 = 0 RETURNING deleteStatus"
+         : "UPDATE MESSAGE SET deleteStatus = deleteStatus | 1 WHERE msgId = ? AND senderUid = ? AND deleteStatus & 1 = 0 RETURNING deleteStatus";
+      List<List<String>> result = executeQueryAndReturnResult (query, msgId, this._users.uid (user));
+      return result.isEmpty () ? -1 : Integer.parseInt (result.get(0).get(0));
+   }//end deleteMessage
+
+   /**
+    * Method to delete every message of a mailbox sent before a given time
+    * in one statement.
+    *
+    * @param user the mailbox owner
+    * @param before messages sent before this time are deleted
+    * @param asReceiver true for the inbox, false for the outbox
+    * @return the number of messages deleted
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public int deleteMessagesBefore (String user, Timestamp before, boolean asReceiver) throws SQLException {
+      String query = asReceiver
+         ? "UPDATE MESSAGE SET deleteStatus = deleteStatus | 2 WHERE receiverUid = ? AND deleteStatus IN (0,1) AND sendTime < ?"
+         : "UPDATE MESSAGE SET deleteStatus = deleteStatus | 1 WHERE senderUid = ? AND deleteStatus IN (0,2) AND sendTime < ?";
+      return executeUpdate (query, this._users.uid (user), before);
+   }//end deleteMessagesBefore
+
+   /**
+    * Formats values as a PostgreSQL array literal, for binding a list to
+    * one parameter cast to an array type; the JDBC driver in use predates
+    * Connection.createArrayOf.
+    *
+    * @param values the array elements
+    * @return the literal, e.g. {"a","b"}
+    */
+   public static String toArrayLiteral (List<String> values) {
+      StringBuilder sb = new StringBuilder ("{");
+      for (String v : values){
+         if (sb.length () > 1)
+            sb.append (',');
+         sb.append ('"').append (v.replace ("\\", "\\\\").replace ("\"", "\\\"")).append ('"');
+      }//end for
+      return sb.append ('}').toString ();
+   }//end toArrayLiteral
+
+   /**
+    * @return the mapping between logins and USR.uid
+    */
+   public UserDirectory getUsers () {
+      return this._users;
+   }//end getUsers
+
+   /**
+    * Method to list a user's accepted connections, from FRIEND or, without
+    * it, from both directions of CONNECTION_USR.
+    *
+    * @param user the user
+    * @return the logins of the user's friends, sorted
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String> friendsOf (String user) throws SQLException {
+      long uid = this._users.uid (user);
+      TreeSet<String> friends = new TreeSet<String>();
+      if (uid < 0)
+         return new ArrayList<String>();
+      List<List<String>> result = this._hasFriends
+         ? executeQueryAndReturnResult ("SELECT friendUid FROM FRIEND WHERE uid = ?", uid)
+         : executeQueryAndReturnResult (
+              "SELECT CASE WHEN uid = ? THEN connectionUid ELSE uid END FROM CONNECTION_USR" +
+              " WHERE status = 'Accept' AND (uid = ? OR connectionUid = ?) AND uid <> connectionUid", uid, uid, uid);
+      for (List<String> row : result){
+         String login = this._users.login (Long.parseLong (row.get(0).trim()));
+         if (login != null)
+            friends.add (login);
+      }//end for
+      return new ArrayList<String>(friends);
+   }//end friendsOf
+
+   /**
+    * @return the in-memory index of accepted connections, or null when
+    *         it is disabled
+    */
+   public SocialGraph getGraph () {
+      return this._graph;
+   }//end getGraph
+
+   /**
+    * @return the people search index, or null when it is disabled
+    */
+   public UserSearchIndex getSearch () {
+      return this._search;
+   }//end getSearch
+
+   /**
+    * @return the cache FriendList reads profiles through
+    */
+   public ProfileCache getProfiles () {
+      return this._profiles;
+   }//end getProfiles
+
+   /**
+    * @return the store LogIn, CreateUser and UpdatePassword check and
+    *         set passwords through
+    */
+   public CredentialStore getCredentials () {
+      return this._credentials;
+   }//end getCredentials
+
+   /**
+    * @return the statistics of every statement run
+    */
+   public QueryMetrics getMetrics () {
+      return this._metrics;
+   }//end getMetrics
+
+   /**
+    * @return the connection pool, e.g. to read its metrics
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }//end getPool
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -80,14 +537,25 @@ executeUpdate
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         int rowCount = stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+         this._metrics.record (QueryMetrics.normalize (sql), start, rowCount);
+      }catch (SQLException e){
+         this._metrics.failed (QueryMetrics.normalize (sql), start, e);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -100,12 +568,36 @@ executeUpdate
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         int rowCount = printResult (rs);
+         stmt.close ();
+         this._metrics.record (QueryMetrics.normalize (query), start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (QueryMetrics.normalize (query), start, e);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
+   }//end executeQuery
 
+   /**
+    * Prints every row of a result set to standard out, preceded by a
+    * header line with the column names.
+    *
+    * @param rs the result set to print
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when failed to read the result set
+    */
+   private static int printResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
@@ -119,19 +611,18 @@ executeUpdate
       while (rs.next()){
 	 if(outputHeader){
 	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
+		out.print(rsmd.getColumnName(i) + "\t");
 	    }
-	    System.out.println();
+	    out.println();
 	    outputHeader = false;
 	 }
          for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
+            out.print (rs.getString (i) + "\t");
+         out.println ();
          ++rowCount;
       }//end while
-      stmt.close ();
       return rowCount;
-   }//end executeQuery
+   }//end printResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -143,22 +634,43 @@ executeUpdate
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         List<List<String>> result = collectResult (rs);
+         stmt.close ();
+         this._metrics.record (QueryMetrics.normalize (query), start, result.size ());
+         return result;
+      }catch (SQLException e){
+         this._metrics.failed (QueryMetrics.normalize (query), start, e);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
+   }//end executeQueryAndReturnResult
 
+   /**
+    * Copies every row of a result set into a list of records.
+    *
+    * @param rs the result set to read
+    * @return the rows as a list of records
+    * @throws java.sql.SQLException when failed to read the result set
+    */
+   static List<List<String>> collectResult (ResultSet rs) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
        */
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
           List<String> record = new ArrayList<String>();
@@ -166,9 +678,8 @@ executeUpdate
             record.add(rs.getString (i));
          result.add(record);
       }//end while
-      stmt.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end collectResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -179,52 +690,412 @@ executeUpdate
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+       PooledConnection pc = this._pool.borrow ();
+       long start = this._metrics.start ();
+       try{
+          // creates a statement object
+          Statement stmt = pc.getConnection ().createStatement ();
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+          // issues the query instruction
+          ResultSet rs = stmt.executeQuery (query);
 
-       int rowCount = 0;
+          int rowCount = 0;
 
-       // iterates through the result set and count nuber of results.
-       if(rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-       
+          // iterates through the result set and count nuber of results.
+          if(rs.next()){
+             rowCount++;
+          }//end while
+          stmt.close ();
+          this._metrics.record (QueryMetrics.normalize (query), start, rowCount);
+          return rowCount;
+       }catch (SQLException e){
+          this._metrics.failed (QueryMetrics.normalize (query), start, e);
+          checkConnection (pc);
+          throw e;
+       }finally{
+          this._pool.release (pc);
+       }//end try
    }
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys.  currval is only
+    * defined on the session that called nextval, so with pooled
+    * connections this is only reliable inside a single leased connection.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+	PooledConnection pc = this._pool.borrow ();
+	try{
+		Statement stmt = pc.getConnection ().createStatement ();
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+		int value = -1;
+		if (rs.next())
+			value = rs.getInt(1);
+		stmt.close ();
+		return value;
+	}finally{
+		this._pool.release (pc);
+	}
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Looks up the cached prepared statement for an SQL template and binds
+    * the given values to its placeholders in order.
+    *
+    * @param pc the leased connection whose statement cache is used
+    * @param sql the SQL template using ? placeholders
+    * @param params the values to bind
+    * @return the prepared statement ready to execute
+    * @throws java.sql.SQLException when the statement cannot be prepared
     */
-   public void cleanup(){
+   static PreparedStatement prepare (PooledConnection pc, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = pc.getStatements ().prepare (sql);
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Binds values to the placeholders of a prepared statement.
+    *
+    * @param stmt the prepared statement
+    * @param params the values bound to the placeholders, in order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i){
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }//end for
+   }//end bind
+
+   /**
+    * Method to run several statements as one READ COMMITTED transaction,
+    * see inTransaction(int, Work).
+    *
+    * @param work the statements of the transaction
+    * @return the result of the work
+    * @throws java.sql.SQLException when the transaction failed
+    */
+   public <T> T inTransaction (Work<T> work) throws SQLException {
+      return inTransaction (Connection.TRANSACTION_READ_COMMITTED, work);
+   }//end inTransaction
+
+   /**
+    * Method to run several statements as one transaction on one pooled
+    * connection, committing once at the end.  When the transaction fails
+    * with a serialization failure or a deadlock it is rolled back and the
+    * work is run again, up to MAX_TRANSACTION_ATTEMPTS times; any other
+    * failure rolls it back and is rethrown.
+    *
+    * @param isolation the isolation level, one of the
+    *        Connection.TRANSACTION_* constants
+    * @param work the statements of the transaction
+    * @return the result of the work
+    * @throws java.sql.SQLException when the transaction failed
+    */
+   public <T> T inTransaction (int isolation, Work<T> work) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         Connection c = pc.getConnection ();
+         c.setTransactionIsolation (isolation);
+         c.setAutoCommit (false);
+         for (int attempt = 1; ; ++attempt){
+            UnitOfWork tx = new UnitOfWork (pc, this._metrics);
+            try{
+               T result = work.run (tx);
+               tx.flush ();
+               c.commit ();
+               tx.committed ();
+               return result;
+            }catch (SQLException e){
+               tx.abandon ();
+               checkConnection (pc);
+               if (pc.isBroken ())
+                  throw e;
+               c.rollback ();
+               if (attempt >= MAX_TRANSACTION_ATTEMPTS || !isRetryable (e))
+                  throw e;
+               backoff (attempt);
+            }//end try
+         }//end for
+      }finally{
+         try{
+            if (!pc.isBroken ()){
+               Connection c = pc.getConnection ();
+               c.rollback ();
+               c.setTransactionIsolation (Connection.TRANSACTION_READ_COMMITTED);
+               c.setAutoCommit (true);
+            }//end if
+         }catch (SQLException e){
+            pc.markBroken ();
+         }//end try
+         this._pool.release (pc);
+      }//end try
+   }//end inTransaction
+
+   /**
+    * Tells whether a failed transaction may succeed when simply run again.
+    * The bundled driver speaks the pre-7.4 protocol, which carries no
+    * SQLSTATE, so the server message is checked as well.
+    */
+   private static boolean isRetryable (SQLException e) {
+      String state = e.getSQLState ();
+      if ("40001".equals (state) || "40P01".equals (state))
+         return true;
+      String message = e.getMessage ();
+      return message != null && (message.contains ("could not serialize access")
+                                 || message.contains ("deadlock detected"));
+   }//end isRetryable
+
+   // randomised exponential backoff so that retrying transactions spread out
+   private static void backoff (int attempt) {
+      try{
+         Thread.sleep ((long) (Math.random () * (5L << attempt)));
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+      }//end try
+   }//end backoff
+
+   /**
+    * Method to execute an update SQL statement with bind parameters.  The
+    * statement is prepared once per SQL template and reused afterwards.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         int rowCount = prepare (pc, sql, params).executeUpdate ();
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
       }catch (SQLException e){
-         // ignored.
+         this._metrics.failed (sql, start, e);
+         pc.getStatements ().evict (sql);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
       }//end try
+   }//end executeUpdate
+
+   /**
+    * Method to execute a query SQL template with bind parameters and print
+    * the results to standard out.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String sql, Object... params) throws SQLException {
+      return executeQueryAndStream (sql, DEFAULT_FETCH_SIZE, new RowHandler() {
+         private boolean outputHeader = true;
+         public boolean row (ResultSet rs) throws SQLException {
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  out.print(rsmd.getColumnName(i) + "\t");
+               }
+               out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               out.print (rs.getString (i) + "\t");
+            out.println ();
+            return true;
+         }
+      }, params);
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Method to execute a query SQL template with bind parameters and hand
+    * the rows to a callback as they arrive.  The query runs through a
+    * server side cursor inside a read transaction, fetching fetchSize rows
+    * per round trip, so memory use does not grow with the result size.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives each row; returning false stops the query
+    * @param params the values bound to the placeholders
+    * @return the number of rows handed to the handler
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStream (String sql, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         // the cursor lives in a transaction
+         Connection c = pc.getConnection ();
+         c.setAutoCommit (false);
+         int rowCount = streamThroughCursor (pc, sql, fetchSize, handler, params);
+         c.commit ();
+         // includes the time the handler spent on the rows
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
+   }//end executeQueryAndStream
+
+   /**
+    * Runs a query through an explicit cursor, handing its rows to a
+    * handler fetchSize rows per FETCH until the handler stops or the rows
+    * run out.  The bundled driver has no Statement.setFetchSize and would
+    * otherwise read the whole result into memory.  The connection must be
+    * in a transaction, which the cursor lives in.
+    *
+    * @param pc the connection to run the query on
+    * @param sql the SQL template using ? placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives each row
+    * @param params the values bound to the placeholders
+    * @return the number of rows handed to the handler
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   static int streamThroughCursor (PooledConnection pc, String sql, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      String cursor = "profnetwork_stream_" + CURSORS.incrementAndGet ();
+      if (fetchSize <= 0)
+         fetchSize = DEFAULT_FETCH_SIZE;
+      // not cached: the cursor name makes every DECLARE a new statement
+      PreparedStatement declare = pc.getConnection ().prepareStatement (
+         "DECLARE " + cursor + " NO SCROLL CURSOR FOR " + sql);
+      try{
+         bind (declare, params);
+         declare.execute ();
+      }finally{
+         declare.close ();
+      }//end try
+      Statement fetch = pc.getConnection ().createStatement ();
+      try{
+         int rowCount = 0;
+         boolean more = true;
+         while (more){
+            ResultSet rs = fetch.executeQuery ("FETCH " + fetchSize + " FROM " + cursor);
+            int fetched = 0;
+            while (rs.next ()){
+               ++fetched;
+               ++rowCount;
+               if (!handler.row (rs)){
+                  more = false;
+                  break;
+               }//end if
+            }//end while
+            rs.close ();
+            if (fetched < fetchSize)
+               more = false;
+         }//end while
+         fetch.execute ("CLOSE " + cursor);
+         return rowCount;
+      }finally{
+         fetch.close ();
+      }//end try
+   }//end streamThroughCursor
+
+   /**
+    * Method to execute a query SQL template with bind parameters and return
+    * the results as a list of records.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String sql, Object... params) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         ResultSet rs = prepare (pc, sql, params).executeQuery ();
+         List<List<String>> result = collectResult (rs);
+         rs.close ();
+         this._metrics.record (sql, start, result.size ());
+         return result;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         pc.getStatements ().evict (sql);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a query SQL template with bind parameters and return
+    * whether it produced any row (1) or not (0).
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned, at most 1
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String sql, Object... params) throws SQLException {
+      PooledConnection pc = this._pool.borrow ();
+      long start = this._metrics.start ();
+      try{
+         ResultSet rs = prepare (pc, sql, params).executeQuery ();
+         int rowCount = rs.next() ? 1 : 0;
+         rs.close ();
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         pc.getStatements ().evict (sql);
+         checkConnection (pc);
+         throw e;
+      }finally{
+         this._pool.release (pc);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Marks a leased connection as broken after a failed statement if the
+    * failure closed the physical connection, so the pool discards it.
+    *
+    * @param pc the connection the statement ran on
+    */
+   private static void checkConnection (PooledConnection pc) {
+      try{
+         if (pc.getConnection ().isClosed ())
+            pc.markBroken ();
+      }catch (SQLException e){
+         pc.markBroken ();
+      }//end try
+   }//end checkConnection
+
+   /**
+    * Method to close the pooled physical connections if they are open.
+    */
+   public void cleanup(){
+      // before the pool, which the last batches are inserted through
+      if (this._outbox != null){
+         this._outbox.close (10 * 1000L);
+      }//end if
+      if (this._notifications != null){
+         this._notifications.close ();
+      }//end if
+      if (this._purger != null){
+         this._purger.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
    
    /**
@@ -254,58 +1125,16 @@ executeUpdate
          
          esql = new ProfNetwork (dbname, dbport, user, "");
 
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. Goto Friend List");
-                System.out.println("2. Update Password");
-                System.out.println("3. Write a new message");
-                System.out.println("4. View message");
-                System.out.println("5. Send Friend Request");
-                System.out.println("6. Search for User");
-		System.out.println("7. Update Connection Requests");
-                System.out.println(".........................");
-                System.out.println("9. Log out");
-                switch (readChoice()){
-                   case 1: FriendList(esql,authorisedUser); break;
-                   case 2: UpdatePassword(esql, authorisedUser); break;
-                   case 3: NewMessage(esql, authorisedUser); break;
-                   case 4: ViewMessage(esql, authorisedUser); break;
-                   case 5: SendRequest(esql,authorisedUser); break;
-                   case 6: SearchUser(esql); break;
-		   case 7: UpdateRequest(esql, authorisedUser); break;
-                   case 9: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
+         runSession(esql);
       }catch(Exception e) {
          System.err.println (e.getMessage ());
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
-               System.out.print("Disconnecting from database...");
+               out.print("Disconnecting from database...");
                esql.cleanup ();
-               System.out.println("Done\n\nBye !");
+               out.println("Done\n\nBye !");
             }//end if
          }catch (Exception e) {
             // ignored.
@@ -313,8 +1142,105 @@ executeUpdate
       }//end try
    }//end main
 
+   /**
+    * Runs the interactive menu for the Session bound to the calling thread
+    * until the user exits or the input ends.
+    *
+    * @param esql the database access object shared by all sessions
+    */
+   public static void runSession(ProfNetwork esql){
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
+         out.println("MAIN MENU");
+         out.println("---------");
+         out.println("1. Create user");
+         out.println("2. Log in");
+         out.println("9. < EXIT");
+         String authorisedUser = null;
+         switch (readChoice()){
+            case 1: CreateUser(esql); break;
+            case 2: authorisedUser = LogIn(esql); break;
+            case 9: keepon = false; break;
+            default : out.println("Unrecognized choice!"); break;
+         }//end switch
+         if (authorisedUser != null) {
+           // the badges are read again only when a notification or the
+           // user's own action may have changed them
+           final NotificationHub hub = esql.getNotifications();
+           final AtomicBoolean stale = new AtomicBoolean(true);
+           // the hub's thread only queues the events, it must not block on a
+           // slow client; the session prints them before the next menu
+           final ConcurrentLinkedQueue<String> notices = new ConcurrentLinkedQueue<String>();
+           NotificationHub.Subscriber subscriber = new NotificationHub.Subscriber() {
+              public void notified(String event) {
+                 stale.set(true);
+                 // at most one notice of each kind waits
+                 if (!notices.contains(event))
+                    notices.add(event);
+              }
+           };
+           long uid = -1;
+           try{
+              uid = esql.getUsers().uid(authorisedUser);
+           }catch (SQLException e){
+              // no pushes, the badges are read every time
+           }
+           if (hub != null && uid >= 0)
+              hub.subscribe(uid, subscriber);
+           try{
+             boolean usermenu = true;
+             UserCounters counters = null;
+             while(usermenu) {
+               if (hub == null || uid < 0 || stale.getAndSet(false)){
+                  try{
+                     counters = esql.getCounters(authorisedUser);
+                  }catch (SQLException e){
+                     // the menu works without badges
+                     counters = null;
+                  }
+               }
+               for (String event = notices.poll(); event != null; event = notices.poll()){
+                  if (event.equals(NotificationHub.MESSAGE))
+                     out.println("*** You have a new message.");
+                  else if (event.equals(NotificationHub.REQUEST))
+                     out.println("*** You have a new connection request.");
+                  else if (event.equals(NotificationHub.FRIEND))
+                     out.println("*** A connection request of yours was accepted.");
+               }
+               out.println("MAIN MENU");
+               out.println("---------");
+               out.println("1. Goto Friend List" + (counters != null ? " (" + counters.friends + ")" : ""));
+               out.println("2. Update Password");
+               out.println("3. Write a new message");
+               out.println("4. View message" + (counters != null && counters.unread > 0 ? " (" + counters.unread + " unread)" : ""));
+               out.println("5. Send Friend Request");
+               out.println("6. Search for User");
+		out.println("7. Update Connection Requests" + (counters != null && counters.pending > 0 ? " (" + counters.pending + " pending)" : ""));
+               out.println(".........................");
+               out.println("9. Log out");
+               switch (readChoice()){
+                  case 1: FriendList(esql,authorisedUser); stale.set(true); break;
+                  case 2: UpdatePassword(esql, authorisedUser); break;
+                  case 3: NewMessage(esql, authorisedUser); break;
+                  case 4: ViewMessage(esql, authorisedUser); stale.set(true); break;
+                  case 5: SendRequest(esql,authorisedUser); break;
+                  case 6: SearchUser(esql); break;
+		   case 7: UpdateRequest(esql, authorisedUser); stale.set(true); break;
+                  case 9: usermenu = false; break;
+                  default : out.println("Unrecognized choice!"); break;
+               }
+             }
+           }finally{
+              if (hub != null && uid >= 0)
+                 hub.unsubscribe(uid, subscriber);
+           }
+         }
+      }//end while
+   }//end runSession
+
    public static void Greeting(){
-      System.out.println(
+      out.println(
          "\n\n*******************************************************\n" +
          "              User Interface      	               \n" +
          "*******************************************************\n");
@@ -328,42 +1254,79 @@ executeUpdate
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
+         out.print("Please make your choice: ");
+         String line;
+         try {
+            line = in.readLine();
+         }catch (IOException e) {
+            line = null;
+         }//end try
+         // the user hung up, nothing more will come
+         if (line == null)
+            throw new IllegalStateException("Input closed");
          try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+            input = Integer.parseInt(line.trim());
             break;
          }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+            out.println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
       return input;
    }//end readChoice
 
+   /*
+    * Reports a failure a menu handler caught: records it on the session
+    * and tells the user what went wrong.  A failure to read the user's
+    * input, e.g. the idle timeout of a network session, ends the session
+    * the way readChoice does when the input closes.
+    **/
+   private static void failed(Exception e) {
+      if (e instanceof IOException)
+         throw new IllegalStateException("Input closed", e);
+      Session.current().error(e);
+      out.println(e.getMessage() != null ? e.getMessage() : e.toString());
+   }//end failed
+
    /*
     * Creates a new user with privided login, passowrd and email
     * An empty block and contact list would be generated and associated with a user
     **/
    public static void CreateUser(ProfNetwork esql){
       try{
-         System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
+         out.print("\tEnter user login: ");
+         final String login = in.readLine();
+         out.print("\tEnter user password: ");
          String password = in.readLine();
-         System.out.print("\tEnter user email: ");
-         String email = in.readLine();
-         System.out.print("\tEnter user name: ");
-         String name = in.readLine();
-         System.out.print("\tEnter user date of birth: ");
-         String dob = in.readLine();
+         out.print("\tEnter user email: ");
+         final String email = in.readLine();
+         out.print("\tEnter user name: ");
+         final String name = in.readLine();
+         out.print("\tEnter user date of birth: ");
+         final String dob = in.readLine();
 
 	 //Creating empty contact\block lists for a user
-	 String query = String.format("INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES ('%s','%s','%s','%s','%s')", login, password, email, name, dob);
+	 final String query = "INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES (?,?,?,?,CAST(? AS date)) RETURNING uid";
+	 final String hash = esql.getCredentials().hash(password);
+	 final UserSearchIndex search = esql.getSearch();
+	 final UserDirectory users = esql.getUsers();
 
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created!");
+         esql.inTransaction(new Work<Void>() {
+            public Void run(UnitOfWork tx) throws SQLException {
+               final long uid = Long.parseLong(tx.executeQueryAndReturnResult(query, login, hash, email, name, dob).get(0).get(0).trim());
+               tx.afterCommit(new Runnable() {
+                  public void run() {
+                     users.add(uid, login);
+                     if (search != null)
+                        search.addUser(login, name);
+                  }
+               });
+               return null;
+            }
+         });
+         out.println ("User successfully created!");
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         failed(e);
       }
    }//end
 
@@ -373,48 +1336,82 @@ executeUpdate
     **/
    public static String LogIn(ProfNetwork esql){
       try{
-         System.out.print("\tEnter user login: ");
+         out.print("\tEnter user login: ");
          String login = in.readLine();
-         System.out.print("\tEnter user password: ");
+         out.print("\tEnter user password: ");
          String password = in.readLine();
 
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
-	 if (userNum > 0)
+	 if (esql.getCredentials().verify(login, password))
 		return login;
          return null;
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         failed(e);
          return null;
       }
    }//end
 
 // Rest of the functions definition go in here
+  // number of search results shown per page
+  private static final int SEARCH_PAGE_SIZE = 10;
+
   public static void SearchUser(ProfNetwork esql){
     try{
-         System.out.print("\tLook for user by name: ");
+         out.print("\tSearch users by name, login, company or school: ");
          String search_name = in.readLine();
-         String query = String.format("SELECT * FROM USR WHERE name = '%s'", search_name);
-         int userNum = esql.executeQuery(query);
-         if (userNum > 0){
-           System.out.print("\tUser exists!\n");
+         int offset = 0;
+         while(true){
+           UserSearchIndex.Page page = searchPage(esql, search_name, offset);
+           if (page.total == 0){
+             out.print("\tNo matching users!\n");
+             return;
+           }
+           if (offset == 0)
+             out.println(page.total + " matching users");
+           for (int i = 0; i < page.hits.size(); ++i)
+             out.println((offset + i + 1) + ".\t" + page.hits.get(i).userId + "\t" + page.hits.get(i).name);
+           offset += page.hits.size();
+           if (offset >= page.total || page.hits.isEmpty())
+             return;
+           out.print("\t1.Next page?\n");
+           out.print("\t  Any other key to return to Main Menu\n");
+           if (!in.readLine().equals("1"))
+             return;
          }
-         else System.out.print("\tInvalid user!\n");
-      }catch(Exception e){}
+      }catch(Exception e){
+         failed(e);
+      }
+  }
+
+  /**
+   * Returns one page of SearchUser results, from the search index when it
+   * is loaded and otherwise from a case-insensitive prefix query on USR.
+   * */
+  private static UserSearchIndex.Page searchPage(ProfNetwork esql, String text, int offset) throws SQLException {
+    if (esql.getSearch() != null)
+      return esql.getSearch().search(text, offset, SEARCH_PAGE_SIZE);
+    String prefix = text.trim().toLowerCase().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    List<List<String>> count = esql.executeQueryAndReturnResult(
+      "SELECT COUNT(*) FROM USR WHERE lower(name) LIKE ? OR lower(userId) LIKE ?", prefix, prefix);
+    List<List<String>> rows = esql.executeQueryAndReturnResult(
+      "SELECT userId, name FROM USR WHERE lower(name) LIKE ? OR lower(userId) LIKE ? ORDER BY userId LIMIT ? OFFSET ?",
+      prefix, prefix, SEARCH_PAGE_SIZE, offset);
+    List<UserSearchIndex.Hit> hits = new ArrayList<UserSearchIndex.Hit>();
+    for (List<String> row : rows)
+      hits.add(new UserSearchIndex.Hit(row.get(0), row.get(1) == null ? "" : row.get(1).trim(), 0f));
+    return new UserSearchIndex.Page(hits, Integer.parseInt(count.get(0).get(0)));
   }
+
   /**
-   * 0 - no delete
-   * 1 - delete from sender
-   * 2 - delete from receiver
-   * 3 - delete by both
+   * Shows the inbox or outbox a page of headers at a time and lets the
+   * user read or delete messages.
    * */
   public static void ViewMessage(ProfNetwork esql, String curUser){
     try{
       boolean in_or_out = false;
       int mode = 0;
       while(!in_or_out){
-        System.out.print("\t1.View Inbox?\n");
-        System.out.print("\t2.View Outbox?\n");
+        out.print("\t1.View Inbox?\n");
+        out.print("\t2.View Outbox?\n");
         String answer = in.readLine();
         if(answer.equals("1")){
           mode =1;
@@ -425,243 +1422,292 @@ executeUpdate
           in_or_out = true;
         }
       }
-      if(mode == 1){
-        String query = String.format("SELECT * FROM MESSAGE WHERE receiverId = '%s' AND deleteStatus = 0", curUser);
-        String query2 = String.format("SELECT * FROM MESSAGE WHERE receiverId = '%s' AND deleteStatus = 1", curUser);
-        esql.executeQueryAndPrintResult(query);
-        esql.executeQueryAndPrintResult(query2);
-      }
-      else{
-        String query = String.format("SELECT * FROM MESSAGE WHERE senderId = '%s' AND deleteStatus = 0", curUser);
-        String query2 = String.format("SELECT * FROM MESSAGE WHERE senderId = '%s' AND deleteStatus = 2", curUser);
-        esql.executeQueryAndPrintResult(query);
-        esql.executeQueryAndPrintResult(query2);
-      }
-      boolean delete_yn = false;
-      int d = 0;
-      while(!delete_yn){
-        System.out.print("\t1.Delete message?\n");
-        System.out.print("\t2.Do not delete message?\n");
+      //page through the mailbox, newest first, starting past the newest possible key
+      MessagePage page = new MessagePage(mode == 1 ? INBOX_PAGE : OUTBOX_PAGE);
+      boolean browsing = true;
+      while(browsing){
+        int shown = page.fetch(esql, curUser);
+        if(shown == 0)
+          out.println("No messages.");
+        out.print("\t1.Read message?\n");
+        out.print("\t2.Delete message?\n");
+        out.print("\t4.Delete all messages older than some days?\n");
+        if(page.hasMore())
+          out.print("\t3.Next page?\n");
+        out.print("\t  Any other key to return to Main Menu\n");
         String answer = in.readLine();
         if(answer.equals("1")){
-          d =1;
-          delete_yn = true;
+          out.print("\tRead which message? Type the messageId.\n");
+          int msgId = Integer.parseInt(in.readLine());
+          //read and marked read in one transaction
+          String body = esql.readMessage(curUser, msgId, mode == 1);
+          if(body == null)
+            out.println("No such message.");
+          else
+            out.println(body);
         }
-        else if (answer.equals("2")){
-          d =2;
-          delete_yn = true;
+        else if(answer.equals("2")){
+          DeleteMessage(esql, curUser, mode);
         }
-      }
-      if(d == 1){
-          System.out.print("\tDelete which message? Type the messageId.\n");
-          String answer = in.readLine();
-          String query = String.format("SELECT * FROM MESSAGE WHERE senderId = '%s' AND msgId = %s" , curUser, answer);
-          int check = esql.executeQueryAndPrintResult(query);
-          if (check == 0)return;
-          else{
-            System.out.print("Would you like to delete messageId?\n");
-            System.out.print("1.Yes?\n");
-            System.out.print("2.No?\n");
-            String confirm = in.readLine();
-            if(confirm.equals("1")){
-              String q = String.format("SELECT deleteStatus FROM MESSAGE WHERE msgId = '%s'", answer);
-              List<List<String>> check_del = esql.executeQueryAndReturnResult(q);
-              int c = Integer.parseInt(check_del.get(0).get(0));
-              if(c ==0 ){
-                if (mode == 1){
-                  String query_f = String.format("UPDATE MESSAGE SET deleteStatus = 2 WHERE msgId = '%s'", answer);
-                  esql.executeUpdate(query_f);
-                }
-                else if (mode == 2){
-                  String query_f = String.format("UPDATE MESSAGE SET deleteStatus = 1 WHERE msgId = '%s'", answer);
-                  esql.executeUpdate(query_f);
-                }
-              }
-              else if (c == 1 || c == 2){
-                String query_f = String.format("UPDATE MESSAGE SET deleteStatus = 3 WHERE msgId = '%s'", answer);
-                esql.executeUpdate(query_f);
-              }
-            }
-          }
+        else if(answer.equals("3") && page.hasMore()){
+          page.next();
+        }
+        else if(answer.equals("4")){
+          out.print("\tDelete messages older than how many days?\n");
+          int days = Integer.parseInt(in.readLine());
+          Timestamp before = new Timestamp(System.currentTimeMillis() - days * 24L * 60 * 60 * 1000);
+          int n = esql.deleteMessagesBefore(curUser, before, mode == 1);
+          out.println(n + " messages deleted.");
+          page = new MessagePage(mode == 1 ? INBOX_PAGE : OUTBOX_PAGE);
         }
-      }catch(Exception e){}
+        else browsing = false;
+      }
+    }catch(Exception e){
+       failed(e);
+    }
   }
 
+  // mailbox headers ordered newest first; (sendTime, msgId) of the last row shown is the cursor.
+  // A message without a sendTime sorts as the oldest, so paging does not stop at it; the
+  // expression matches the mailbox indexes of create_indexes.sql.  The key goes back as the
+  // server's own text, cast to timestamp, so no JVM time zone comes in between.
+  // The other party is a uid, shown as a login through UserDirectory.
+  private static final String MAILBOX_KEY = "COALESCE(sendTime, CAST('-infinity' AS timestamp))";
+  private static final String INBOX_PAGE = "SELECT msgId, senderUid, sendTime, status, " + MAILBOX_KEY + " FROM MESSAGE WHERE receiverUid = ? AND deleteStatus IN (0,1) AND (" + MAILBOX_KEY + ", msgId) < (CAST(? AS timestamp), ?) ORDER BY " + MAILBOX_KEY + " DESC, msgId DESC LIMIT ?";
+  private static final String OUTBOX_PAGE = "SELECT msgId, receiverUid, sendTime, status, " + MAILBOX_KEY + " FROM MESSAGE WHERE senderUid = ? AND deleteStatus IN (0,2) AND (" + MAILBOX_KEY + ", msgId) < (CAST(? AS timestamp), ?) ORDER BY " + MAILBOX_KEY + " DESC, msgId DESC LIMIT ?";
+
+  // number of message headers shown per page
+  private static final int MESSAGE_PAGE_SIZE = 10;
+
+  /**
+   * Keyset pagination state of one mailbox view.  Each page starts right
+   * after the (sendTime, msgId) of the last message of the previous page,
+   * so paging stays cheap and stable while messages arrive.
+   * */
+  private static class MessagePage {
+    private static final String NEWEST = "infinity";
+
+    private final String query;
+    // key the current page starts after
+    private String startTime = NEWEST;
+    private int startId = Integer.MAX_VALUE;
+    // key of the last row of the current page
+    private String lastTime;
+    private int lastId;
+    private boolean more;
+
+    MessagePage(String query){
+      this.query = query;
+    }
+
+    /**
+     * Prints the headers of the current page.  The first page of the
+     * outbox starts with the messages still queued in the outbox, which
+     * are not in MESSAGE yet.
+     * @return the number of messages shown
+     * */
+    int fetch(ProfNetwork esql, String curUser) throws SQLException {
+      long uid = esql.getUsers().uid(curUser);
+      List<MessageOutbox.Message> queued = Collections.emptyList();
+      if(query == OUTBOX_PAGE && startId == Integer.MAX_VALUE && esql.getOutbox() != null)
+        queued = esql.getOutbox().queuedBy(uid);
+      //the LIMIT caps the page at one row beyond it, which only tells that there is a next page
+      List<List<String>> rows = esql.executeQueryAndReturnResult(query, uid, startTime, startId, MESSAGE_PAGE_SIZE + 1);
+      more = rows.size() > MESSAGE_PAGE_SIZE;
+      int shown = Math.min(rows.size(), MESSAGE_PAGE_SIZE);
+      if(shown + queued.size() > 0)
+        out.println("msgId\tuser\tsendTime\tstatus");
+      for(MessageOutbox.Message m : queued){
+        String login = m.receiverUid < 0 ? null : esql.getUsers().login(m.receiverUid);
+        out.println(m.msgId + "\t" + (login == null ? "(unknown)" : login) + "\t" + m.sendTime + "\t" + m.getStatus());
+      }
+      for(int i = 0; i < shown; ++i){
+        List<String> row = rows.get(i);
+        lastId = Integer.parseInt(row.get(0).trim());
+        lastTime = row.get(4).trim();
+        String login = row.get(1) == null ? null : esql.getUsers().login(Long.parseLong(row.get(1).trim()));
+        String sendTime = row.get(2) == null ? "(unknown)" : row.get(2).trim();
+        out.println(lastId + "\t" + (login == null ? "(unknown)" : login) + "\t" + sendTime + "\t" + row.get(3).trim());
+      }
+      return queued.size() + shown;
+    }
+
+    boolean hasMore(){
+      return more;
+    }
+
+    /** Moves the cursor past the current page. */
+    void next(){
+      startTime = lastTime;
+      startId = lastId;
+    }
+  }
+
+  /**
+   * MESSAGE.deleteStatus holds one bit per side:
+   * 0 - no delete
+   * 1 - delete from sender
+   * 2 - delete from receiver
+   * 3 - delete by both, removed later by MessagePurger
+   * */
+  public static void DeleteMessage(ProfNetwork esql, String curUser, int mode) throws IOException, SQLException {
+          out.print("\tDelete which message? Type the messageId.\n");
+          int msgId = Integer.parseInt(in.readLine());
+          out.print("Would you like to delete messageId?\n");
+          out.print("1.Yes?\n");
+          out.print("2.No?\n");
+          String confirm = in.readLine();
+          if(confirm.equals("1")){
+            if(esql.deleteMessage(curUser, msgId, mode == 1) < 0)
+              out.println("No such message.");
+            else
+              out.println("Message deleted.");
+          }
+  }
 
-  public static void NewMessage(ProfNetwork esql, String sender){
+  public static void NewMessage(ProfNetwork esql, final String sender){
        try{
-         //assign msgId by number of messages
-         System.out.print("\tSend message to: ");
-         String recipient = in.readLine();
-         //check if user exists
-         String query = String.format("SELECT * FROM USR WHERE userId = '%s'", recipient);
-         int userNum = esql.executeQuery(query);
-         System.out.print("\tEnter message. Finish message by pressing ENTER : ");
-         String message= in.readLine();
-         String m;
-         String q = "SELECT COUNT(*) FROM MESSAGE";
-         List<List<String>> count = esql.executeQueryAndReturnResult(q);
-         int c = Integer.parseInt(count.get(0).get(0)) + 1;
-         System.out.println(c);
-         
-         DateFormat df = new SimpleDateFormat("MM/dd/yyyy HH:mm");
-         Date today = Calendar.getInstance().getTime();
-         String sendDate = df.format(today);        
-         if(userNum > 0){
-           m = String.format("INSERT INTO MESSAGE(msgId,senderId,receiverId,contents,sendTime,deleteStatus,status) VALUES (%s,'%s','%s','%s','%s',0,'sent')",c, sender, recipient, message, sendDate);
-           System.out.println ("Message sent. \n");
-           esql.executeUpdate(m);
+         out.print("\tSend message to: ");
+         final String recipient = in.readLine();
+         out.print("\tEnter message. Finish message by pressing ENTER : ");
+         final String message= in.readLine();
+         //the directory tells whether the recipient exists; the outbox inserts the message shortly after
+         MessageOutbox.Message sent = esql.sendMessage(sender, recipient, message);
+         if(sent.receiverUid < 0){
+           out.println ("Message not sent. Recipient does not exist. \n");
+         }
+         else if(sent.getStatus().equals(MESSAGE_QUEUED)){
+           out.println ("Message queued for delivery. \n");
          }
          else{
-           m = String.format("INSERT INTO MESSAGE(msgId,senderId,receiverId,contents,sendTime,deleteStatus,status) VALUES (%s,'%s','%s','%s','%s',0,'Failed to Deliver')",c, sender, recipient, message, sendDate);
-           System.out.println ("Message not sent. Recipient does not exist. \n");
-           esql.executeUpdate(m);
+           out.println ("Message sent. \n");
          }
-         //System.out.println ("Message sent");
+         //out.println ("Message sent");
       }catch(Exception e){
-         //System.err.println (e.getMessage ());
+         failed(e);
       }
    }
    public static void FriendList(ProfNetwork esql, String user){
        //print friends list
        //executeQueryAndPrintResult(" ");
        try{
-	System.out.println("List of Friends:");
-	String query = String.format("SELECT U.userId FROM USR U, CONNECTION_USR C WHERE U.userId != '%s' AND ((C.connectionId = U.userId AND C.userId = '%s')  OR (C.connectionId = '%s' AND C.userId = U.userId)) AND C.status = 'Accept')) ;", user,user,user);
-	esql.executeQueryAndPrintResult(query);
+	out.println("List of Friends:");
+	//with FRIEND, one range scan of its primary key
+	List<String> friends = esql.friendsOf(user);
+	out.println("userid\t");
+	for (String f : friends)
+		out.println(f + "\t");
 	String c;
 	String friend = "";
 	boolean valid_choice = false;
 	int userNum;
 	//show friend list, then provide option 
-		System.out.println("\t1. Select a Friend Profile to View");
-		System.out.println("\t2. Return to Main Menu");	
+		out.println("\t1. Select a Friend Profile to View");
+		out.println("\t2. Return to Main Menu");	
 		c = in.readLine();
-		if (c == "1") {
-			System.out.println("Enter Username of Friend");
+		if (c.equals("1")) {
+			out.println("Enter Username of Friend");
 			friend = in.readLine();
 			//check if user is actually a friend
-		        String query2 = String.format("SELECT * FROM CONNECTION_USR WHERE status = 'Accept' AND ((userId = '%s' AND connectionID = '%s') OR (userId = '%s' AND connectionID = '%s'));", friend, user, user, friend);
-		        userNum = esql.executeQuery(query2);
+			long me = esql.getUsers().uid(user);
+			long them = esql.getUsers().uid(friend);
+		        if(me < 0 || them < 0)
+		          userNum = 0;
+		        else if(esql.hasFriendEdges())
+		          userNum = esql.executeQuery("SELECT friendUid FROM FRIEND WHERE uid = ? AND friendUid = ?", me, them);
+		        else{
+		          String query2 = "SELECT uid FROM CONNECTION_USR WHERE status = 'Accept' AND ((uid = ? AND connectionUid = ?) OR (uid = ? AND connectionUid = ?))";
+		          userNum = esql.executeQuery(query2, them, me, me, them);
+		        }
 			if(userNum > 0){	
 				//user is actually a friend so view profile
-				query2 = String.format("SELECT U.userId, U.email, U.name, U.dateOfBirth, W.company, w.role, w.location, E.institutionName, E.major, E.degree FROM USR U, WORK_EXPR W, EDUCATIONAL_DETAILS E WHERE U.userId = '%s' and W. userId = '%s' and E.userId = '%s';",friend,friend,friend);
-				esql.executeQueryAndPrintResult(query2);
-				valid_choice = true;
+				ProfileCache.Profile profile = esql.getProfiles().get(friend);
+				if(profile != null){
+					profile.print(out);
+					valid_choice = true;
+				}
 			}
 			if(userNum <= 0){
-				System.out.println("Invalid Friend. Returning to Main Menu"); 
+				out.println("Invalid Friend. Returning to Main Menu"); 
 			}
 		} 
-		else if (c == "2")
+		else if (c.equals("2"))
 		{valid_choice = false;}
-		else System.out.println("Invalid Input!");
+		else out.println("Invalid Input!");
 		
 		
 		if(valid_choice){
-			System.out.println("\t1. Send a Message");
-			System.out.println("\t2. View Friend List");
-			System.out.println("\t	 Any other key to return to Main Menu");
+			out.println("\t1. Send a Message");
+			out.println("\t2. View Friend List");
+			out.println("\t	 Any other key to return to Main Menu");
 			c = in.readLine();
-			if (c == "1") 
+			if (c.equals("1")) 
 				NewMessage(esql,user);
-			else if (c == "2")
+			else if (c.equals("2"))
 				FriendList(esql,friend);
 			}
       }catch(Exception e){
-         //System.err.println (e.getMessage ());
+         failed(e);
       }
    }
 
    public static void UpdateRequest(ProfNetwork esql, String user){
      try{
-	System.out.println("\t1. View Connection Requests");  try{
-	System.out.println("\tAny other key to return to Main Menu");
-	String c;
-	int d;
-	int userNum;
-	c = in.readLine();
-	System.out.println("You entered: " + c);
+	out.println("\t1. View Connection Requests");
+	out.println("\tAny other key to return to Main Menu");
+	String c = in.readLine();
 
 	if (c.equals("1")) {
-		String query = String.format("SELECT * FROM CONNECTION_USR WHERE status = 'Request' AND connectionId = '%s';",user);
-		//String query = String.format("SELECT userId FROM CONNECTION_USR WHERE status = 'Request' AND connectionId = '%s';",user);
-		System.out.println("Users Awaiting Response");
-		d = esql.executeQueryAndPrintResult(query);
-    System.out.println(d);
-		if(d > 0)
+		//the counter answers "anything pending?" without scanning CONNECTION_USR
+		UserCounters counters = esql.getCounters(user);
+		if(counters != null && counters.pending == 0)
 		{
-			System.out.println("\t1. Accept Connection Requests");
-			System.out.println("\t2. Reject Connection Requests");
-			System.out.println("\t	 Any other key to return to Main Menu");
-			String e = in.readLine();
-			boolean finished = false;
-			String friend;
-			if(e.equals("1"))
-			{
-				while(!finished)
-				{
-					System.out.println("Enter Username of Connection to Accept");
-					friend = in.readLine();
-					query = String.format("SELECT userId FROM CONNECTION_USR WHERE status = 'Request' AND userId = '%s' AND connectionId = '%s';",friend,user);
-					userNum = esql.executeQuery(query);
-					if(userNum > 0)
-					{
-						query = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE status = 'Request' AND userId = '%s' AND connectionId = '%s';",friend,user);
-         					esql.executeUpdate(query);
-						System.out.println("User has been added to your friend list.");
-					}
-					else
-					{
-						System.out.println("User has not requested a connection, does not exist or has already been responded to");
-					}
-					System.out.println("Enter 1 to Accept More Connections");
-					System.out.println("\t	 Any other key to return to Main Menu");
-					c = in.readLine();
-					if(!c.equals("1"))
-					{
-						finished = true;
-					}
-					System.out.println();
-				}		
-			}
-			else if (e.equals("2"))
-			{
-				while(!finished)
-				{
-					System.out.println("Enter Username of Connection to Reject");
-					friend = in.readLine();
-					query = String.format("SELECT userId FROM CONNECTION_USR WHERE status = 'Request' AND userId = '%s' AND connectionId = '%s';",friend,user);
-					userNum = esql.executeQuery(query);
-					if(userNum > 0)
-					{
-						query = String.format("UPDATE CONNECTION_USR SET status = 'Accept' WHERE status = 'Request' AND userId = '%s' AND connectionId = '%s';",user,friend);
-         					esql.executeUpdate(query);
-						System.out.println("User has been added to your friend list.");
-					}
-					else
-					{
-						System.out.println("User has not requested a connection, does not exist, or has already been responded to");
-					}
-					System.out.println("Enter 1 to Reject More Connections");
-					System.out.println("\t	 Any other key to return to Main Menu");
-					c = in.readLine();
-					if(!c.equals("1"))
-					{
-						finished = true;
-					}
-					System.out.println();
-				}	
-			}
+			out.println("No Pending Connection Requests Found\n");
+			return;
 		}
+		String query = "SELECT uid FROM CONNECTION_USR WHERE status = 'Request' AND connectionUid = ?";
+		List<List<String>> rows = esql.executeQueryAndReturnResult(query, esql.getUsers().uid(user));
+		List<String> pending = new ArrayList<String>();
+		for (List<String> row : rows)
+			pending.add(esql.getUsers().login(Long.parseLong(row.get(0).trim())));
+		if(pending.isEmpty())
+		{
+			out.println("No Pending Connection Requests Found\n");
+			return;
+		}
+		out.println("Users Awaiting Response");
+		for (String requester : pending)
+			out.println("\t" + requester);
+		out.println("\t1. Accept Connection Requests");
+		out.println("\t2. Reject Connection Requests");
+		out.println("\t	 Any other key to return to Main Menu");
+		String e = in.readLine();
+		if(!e.equals("1") && !e.equals("2"))
+			return;
+		boolean accept = e.equals("1");
+		out.println("Enter the usernames to " + (accept ? "accept" : "reject") + ", separated by spaces or commas, or * for all");
+		String line = in.readLine().trim();
+		List<String> chosen = new ArrayList<String>();
+		if(line.equals("*"))
+			chosen.addAll(pending);
 		else
 		{
-			System.out.println("No Pending Connection Requests Found\n");
+			for (String friend : line.split("[\\s,]+"))
+				if(friend.length() > 0 && !chosen.contains(friend))
+					chosen.add(friend);
 		}
-    }
+		List<String> answered = esql.respondToRequests(user, chosen, accept);
+		for (String friend : chosen)
+		{
+			if(answered.contains(friend))
+				out.println(friend + ": " + (accept ? "added to your friend list" : "request rejected"));
+			else
+				out.println(friend + ": has not requested a connection, does not exist or has already been responded to");
+		}
+		out.println();
+	}
     }catch(Exception e){
-         //System.err.println (e.getMessage ());
-		 System.out.println("Error");
+         failed(e);
       }
 	}
    public static void UpdatePassword(ProfNetwork esql, String user){
@@ -673,141 +1719,60 @@ executeUpdate
          boolean confirm = false;
          String choice;
          while(!confirm){
-           System.out.print("\tAre you sure you want to edit the password?\n");
-           System.out.print("\t1.Yes\n");
-           System.out.print("\t2.No\n");
+           out.print("\tAre you sure you want to edit the password?\n");
+           out.print("\t1.Yes\n");
+           out.print("\t2.No\n");
            choice = in.readLine();
            int c = Integer.parseInt(choice);
            if(c == 1) confirm = true;
            else if (c == 2) break;
-           else System.out.println("Invalid Input!");
+           else out.println("Invalid Input!");
          }
          String newP = null;
          if(confirm){
-           System.out.print("\tpassword: ");
+           out.print("\tpassword: ");
            newP = in.readLine();
          }
-         if(newP != "\n"){
-           String query = String.format("UPDATE usr SET password = '%s' WHERE userId = '%s';", newP, user);
-           esql.executeUpdate(query);
+         if(newP != null && newP.length() > 0){
+           esql.getCredentials().setPassword(user, newP);
+           esql.getProfiles().invalidate(user);
          }
        }catch(Exception e){
-         System.err.println (e.getMessage ());
+         failed(e);
       }
        //run executeUpdate(" ")
    }
    
-   public static void SendRequest(ProfNetwork esql, String user){
+   public static void SendRequest(ProfNetwork esql, final String user){
    	try{
-		System.out.println("\Enter user to send connection request");
-		String connection_id = in.readline();
-		boolean valid_request = false;
-		//check to see if connection has been previously sent or made
-		String quick_q = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s';",user,connection_id);
-		String quick_q2 = String.format("SELECT * FROM CONNECTION_USR WHERE userId = '%s' AND connectionId = '%s';",connection_id,user);
-		if(esql.executeQuery(quick_q) >0 || esql.executeQuery(quick_q2) >0)
-		{
-			System.println("Request already exists or has already been responded to.");
-		}
-		else
-		{
-			String query = String.format("SELECT C2.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.userId ;",user);
-			int level_2_conn = executeQuery(query);
-			if(level_2_conn > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C2.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.connectionId ;",user);
-			level_2_conn = executeQuery(query);
-			if(level_2_conn > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C2.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.connectionId ;",user);
-			int level_2_user = executeQuery(query);
-			if(level_2_user > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C2.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.userId ;",user);
-			level_2_user executeQuery(query);
-			if(level_2_user > 0)
-			{	
-				valid_request = true;
-			}
-			
-
-			
-
-
-
-
-
-
-//3rd level connection
-
-String query = String.format("SELECT C3.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.userId AND C3.status = 'Accept' AND C3.userID = C2.connectionId;",user);
-			int level_3_conn = executeQuery(query);
-			if(level_3_conn > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2, CONNECTION_USR C3 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.userId AND C3.status = 'Accept' AND C3.userID = C2.userId;",user);
-			level_3_conn = executeQuery(query);
-			if(level_3_conn > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.connectionId AND C3.status = 'Accept' AND C3.connectionID = C2.connectionId;",user);
-			level_3_conn = executeQuery(query);
-			if(level_2_conn > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.connectionId AND C3.status = 'Accept' AND C3.connectionID = C2.userId;",user);
-			level_3_conn = executeQuery(query);
-			if(level_2_conn > 0)
-			{	
-				valid_request = true;
+		out.println("\tEnter user to send connection request");
+		final String connection_id = in.readLine();
+		final long from = esql.getUsers().uid(user);
+		final long to = esql.getUsers().uid(connection_id);
+		//only users within 3 levels of connection can be sent a request
+		int level = to < 0 ? -1
+		          : esql.getGraph() != null ? esql.getGraph().distance(from, to, 3)
+		                                    : esql.connectionDistance(from, to, 3);
+		final boolean valid_request = level > 0;
+		//the check for an earlier request and the insert must not interleave with
+		//a request sent the other way, so run them serializably
+		String result = esql.inTransaction(Connection.TRANSACTION_SERIALIZABLE, new Work<String>() {
+			public String run(UnitOfWork tx) throws SQLException {
+				//check to see if connection has been previously sent or made
+				String quick_q = "SELECT uid FROM CONNECTION_USR WHERE uid = ? AND connectionUid = ?";
+				if(tx.executeQuery(quick_q, from, to) >0 || tx.executeQuery(quick_q, to, from) >0)
+					return "Request already exists or has already been responded to.";
+				if(!valid_request)
+					return "User is not within 3 levels of connection.";
+				String query = "INSERT INTO CONNECTION_USR(uid,connectionUid,status) VALUES (?,?,'Request')";
+				tx.executeUpdate(query, from, to);
+				return "Connection request sent.";
 			}
-
-//halfway point
-			query = String.format("SELECT C3.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.connectionId AND C3.status = 'Accept' AND C3.userID = C2.userId ;",user);
-			int level_3_user = executeQuery(query);
-			if(level_3_user > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.connectionId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.userId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.connectionId AND C3.status = 'Accept' AND C3.userID = C2.connectionId ;",user);
-			level_3_user = executeQuery(query);
-			if(level_3_user > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.connectionId = C1.userId  AND C3.status = 'Accept' AND C3.connectionID = C2.userId;",user);
-			level_3_user = executeQuery(query);
-			if(level_3_user > 0)
-			{	
-				valid_request = true;
-			}
-			query = String.format("SELECT C3.userId FROM CONNECTION_USR C1, CONNECTION_USR C2 WHERE C1.status = 'Accept' AND C1.connectionId = '%s' AND C2.status = 'Accept' AND C2.userId = C1.userId  AND C3.status = 'Accept' AND C3.connectionID = C2.connectionId;",user);
-			level_3_user = executeQuery(query);
-			if(level_3_user > 0)
-			{	
-				valid_request = true;
-			}
-
-
-
-			if(valid_request)
-			{
-				query = String.format("INSERT INTO CONNECTION_USR(userId,connectionId,Request)VALUES ;",user, friend);
-				esql.executeUpdate(query)
-			}
-		}
+		});
+		out.println(result);
 		
 	}catch(Exception e){
-		System.err.println (e.getMessage ());
+		failed(e);
 	}
    }
 
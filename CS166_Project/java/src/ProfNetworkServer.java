@@ -0,0 +1,192 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the ProfNetwork menus to many concurrent users over a line based
+ * TCP protocol on the loopback interface.  Every connected client gets its
+ * own Session: the server writes the same prompts the console shows and
+ * reads one answer per line, so any line client (telnet, nc, a load
+ * generator) can drive it.  All sessions share one ProfNetwork and its
+ * connection pool.
+ *
+ */
+public class ProfNetworkServer {
+
+   // stack size for session threads; handlers only need shallow stacks
+   private static final long SESSION_STACK_SIZE = 256 * 1024;
+
+   private final ProfNetwork _esql;
+   private final ServerSocket _server;
+   private final ThreadPoolExecutor _sessions;
+   private final int _idleTimeoutMs;
+
+   // number of sessions currently connected
+   private final AtomicInteger _active = new AtomicInteger();
+
+   /**
+    * Creates a new server listening on the loopback interface.
+    *
+    * @param esql the database access object shared by all sessions
+    * @param port the TCP port to listen on
+    * @param maxSessions the maximum number of simultaneous sessions
+    * @param idleTimeoutMs a session is closed after this long without input
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public ProfNetworkServer (ProfNetwork esql, int port, int maxSessions, int idleTimeoutMs) throws IOException {
+      this._esql = esql;
+      this._idleTimeoutMs = idleTimeoutMs;
+      this._server = new ServerSocket(port, maxSessions, InetAddress.getByName("127.0.0.1"));
+      this._sessions = new ThreadPoolExecutor(0, maxSessions, 60, TimeUnit.SECONDS,
+                                              new SynchronousQueue<Runnable>(), new ThreadFactory() {
+         private final AtomicInteger _count = new AtomicInteger();
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread(null, r, "ProfNetwork-session-" + _count.incrementAndGet(), SESSION_STACK_SIZE);
+            t.setDaemon(true);
+            return t;
+         }
+      });
+   }//end ProfNetworkServer
+
+   /**
+    * Accepts clients until the server socket is closed.
+    */
+   public void serve () {
+      System.out.println("Listening on " + this._server.getLocalSocketAddress());
+      while (!this._server.isClosed()){
+         final Socket client;
+         try{
+            client = this._server.accept();
+         }catch (IOException e){
+            if (!this._server.isClosed())
+               System.err.println("Accept failed: " + e.getMessage());
+            continue;
+         }//end try
+         try{
+            this._sessions.execute(new Runnable() {
+               public void run () {
+                  handle(client);
+               }
+            });
+         }catch (RejectedExecutionException e){
+            reject(client);
+         }//end try
+      }//end while
+   }//end serve
+
+   /**
+    * Runs the menus for one client on the calling thread.
+    */
+   private void handle (Socket client) {
+      this._active.incrementAndGet();
+      try{
+         client.setSoTimeout(this._idleTimeoutMs);
+         client.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+         PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+         Session.bind(new Session(in, out));
+         ProfNetwork.Greeting();
+         ProfNetwork.runSession(this._esql);
+         out.println("Bye !");
+      }catch (IllegalStateException e){
+         // the client hung up or timed out
+      }catch (IOException e){
+         System.err.println("Session failed: " + e.getMessage());
+      }finally{
+         Session.unbind();
+         this._active.decrementAndGet();
+         try{
+            client.close();
+         }catch (IOException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end handle
+
+   private void reject (Socket client) {
+      try{
+         PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+         out.println("Server busy, please try again later.");
+         client.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+   }//end reject
+
+   /**
+    * @return the number of sessions currently connected
+    */
+   public int getActiveSessions () {
+      return this._active.get();
+   }//end getActiveSessions
+
+   /**
+    * Stops accepting clients and disconnects every session.
+    */
+   public void close () {
+      try{
+         this._server.close();
+      }catch (IOException e){
+         // ignored.
+      }//end try
+      this._sessions.shutdownNow();
+   }//end close
+
+   /**
+    * The server entry point
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;listen port&gt; [max sessions]
+    */
+   public static void main (String[] args) {
+      if (args.length != 4 && args.length != 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ProfNetworkServer.class.getName () +
+            " <dbname> <port> <user> <listen port> [max sessions]");
+         return;
+      }//end if
+
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         final ProfNetwork esql = new ProfNetwork (args[0], args[1], args[2], "");
+         int maxSessions = args.length == 5 ? Integer.parseInt(args[4]) : 1000;
+         int idleTimeoutMs = Integer.getInteger("profnetwork.server.idleTimeoutMs", 15 * 60 * 1000);
+         final ProfNetworkServer server = new ProfNetworkServer(esql, Integer.parseInt(args[3]), maxSessions, idleTimeoutMs);
+         Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run () {
+               server.close();
+               esql.cleanup();
+            }
+         });
+         server.serve();
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+}//end ProfNetworkServer
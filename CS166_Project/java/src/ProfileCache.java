@@ -0,0 +1,227 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-through cache of user profiles as shown by FriendList.  A profile
+ * is assembled from three keyed lookups (the USR row, the WORK_EXPR rows
+ * and the EDUCATIONAL_DETAILS rows of one user) instead of their cross
+ * product, and kept for a bounded time in a bounded LRU map so that
+ * repeat views need no round trip.  Handlers that change a user call
+ * invalidate() so the next view reloads it.
+ *
+ */
+public class ProfileCache {
+
+   /**
+    * One user's profile.
+    */
+   public static class Profile {
+      public final String userId;
+      public final String email;
+      public final String name;
+      public final String dateOfBirth;
+      // company, role, location, startDate, endDate
+      public final List<List<String>> work;
+      // institutionName, major, degree, startdate, enddate
+      public final List<List<String>> education;
+
+      Profile (List<String> user, List<List<String>> work, List<List<String>> education) {
+         this.userId = trim(user.get(0));
+         this.email = trim(user.get(1));
+         this.name = trim(user.get(2));
+         this.dateOfBirth = user.get(3);
+         this.work = trimAll(work);
+         this.education = trimAll(education);
+      }//end Profile
+
+      /**
+       * Prints the profile, one section per table.
+       *
+       * @param out the stream to print to
+       */
+      public void print (PrintStream out) {
+         out.println("userId:\t" + this.userId);
+         out.println("name:\t" + this.name);
+         out.println("email:\t" + this.email);
+         out.println("born:\t" + this.dateOfBirth);
+         out.println("Work experience:");
+         for (List<String> w : this.work)
+            out.println("\t" + w.get(1) + " at " + w.get(0) + ", " + w.get(2) + " (" + w.get(3) + " - " + w.get(4) + ")");
+         out.println("Education:");
+         for (List<String> e : this.education)
+            out.println("\t" + e.get(2) + " in " + e.get(1) + ", " + e.get(0) + " (" + e.get(3) + " - " + e.get(4) + ")");
+      }//end print
+
+      private static String trim (String value) {
+         return value == null ? null : value.trim();
+      }//end trim
+
+      // the columns are varchar, but a database not yet converted by
+      // ColumnMigration still has char(n) columns, which come back blank
+      // padded
+      private static List<List<String>> trimAll (List<List<String>> rows) {
+         List<List<String>> result = new ArrayList<List<String>>(rows.size());
+         for (List<String> row : rows){
+            List<String> trimmed = new ArrayList<String>(row.size());
+            for (String value : row)
+               trimmed.add(trim(value));
+            result.add(trimmed);
+         }//end for
+         return result;
+      }//end trimAll
+   }//end Profile
+
+   private static class Cached {
+      final Profile profile;
+      final long expiresAt;
+
+      Cached (Profile profile, long expiresAt) {
+         this.profile = profile;
+         this.expiresAt = expiresAt;
+      }//end Cached
+   }//end Cached
+
+   private final ProfNetwork _esql;
+   private final int _maxSize;
+   private final long _ttlNanos;
+
+   // most recently viewed last
+   private final LinkedHashMap<String, Cached> _entries;
+
+   // bumped by every invalidation so that loads racing with one are dropped
+   private long _generation = 0;
+
+   private long _hits = 0;
+   private long _misses = 0;
+
+   /**
+    * Creates a new cache sized from the profnetwork.profiles.maxSize and
+    * profnetwork.profiles.ttlMs system properties.
+    *
+    * @param esql the database access object profiles are loaded through
+    */
+   public ProfileCache (ProfNetwork esql) {
+      this(esql, Integer.getInteger("profnetwork.profiles.maxSize", 1000),
+           Long.getLong("profnetwork.profiles.ttlMs", 5 * 60 * 1000L));
+   }//end ProfileCache
+
+   /**
+    * Creates a new cache
+    *
+    * @param esql the database access object profiles are loaded through
+    * @param maxSize the most profiles kept; the least recently viewed go first
+    * @param ttlMs how long a loaded profile is served before reloading it
+    */
+   public ProfileCache (ProfNetwork esql, final int maxSize, long ttlMs) {
+      this._esql = esql;
+      this._maxSize = maxSize;
+      this._ttlNanos = ttlMs * 1000000L;
+      this._entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, Cached> eldest) {
+            return size() > maxSize;
+         }
+      };
+   }//end ProfileCache
+
+   /**
+    * Returns the profile of a user, loading it on a miss.
+    *
+    * @param userId the user whose profile is wanted
+    * @return the profile, or null when there is no such user
+    * @throws java.sql.SQLException when the profile cannot be loaded
+    */
+   public Profile get (String userId) throws SQLException {
+      long generation;
+      synchronized (this){
+         Cached entry = this._entries.get(userId);
+         if (entry != null && entry.expiresAt - System.nanoTime() > 0){
+            ++this._hits;
+            return entry.profile;
+         }//end if
+         ++this._misses;
+         generation = this._generation;
+      }//end synchronized
+      Profile profile = load(userId);
+      synchronized (this){
+         if (profile != null && this._maxSize > 0 && generation == this._generation)
+            this._entries.put(userId, new Cached(profile, System.nanoTime() + this._ttlNanos));
+      }//end synchronized
+      return profile;
+   }//end get
+
+   /**
+    * Drops the cached profile of a user after it was changed.
+    *
+    * @param userId the user that changed
+    */
+   public synchronized void invalidate (String userId) {
+      ++this._generation;
+      this._entries.remove(userId);
+   }//end invalidate
+
+   /**
+    * Drops every cached profile.
+    */
+   public synchronized void clear () {
+      ++this._generation;
+      this._entries.clear();
+   }//end clear
+
+   /**
+    * @return the number of profiles cached
+    */
+   public synchronized int size () {
+      return this._entries.size();
+   }//end size
+
+   /**
+    * @return the number of views answered from the cache
+    */
+   public synchronized long getHitCount () {
+      return this._hits;
+   }//end getHitCount
+
+   /**
+    * @return the number of views that had to load the profile
+    */
+   public synchronized long getMissCount () {
+      return this._misses;
+   }//end getMissCount
+
+   // the three lookups run in one transaction on one pooled connection
+   private Profile load (final String userId) throws SQLException {
+      return this._esql.inTransaction(new Work<Profile>() {
+         public Profile run (UnitOfWork tx) throws SQLException {
+            List<List<String>> user = tx.executeQueryAndReturnResult(
+               "SELECT userId, email, name, dateOfBirth, uid FROM USR WHERE userId = ?", userId);
+            if (user.isEmpty())
+               return null;
+            // the rest of the profile is keyed by uid
+            long uid = Long.parseLong(user.get(0).get(4).trim());
+            List<List<String>> work = tx.executeQueryAndReturnResult(
+               "SELECT company, role, location, startDate, endDate FROM WORK_EXPR WHERE uid = ? ORDER BY startDate", uid);
+            List<List<String>> education = tx.executeQueryAndReturnResult(
+               "SELECT institutionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS WHERE uid = ? ORDER BY startdate", uid);
+            return new Profile(user.get(0), work, education);
+         }
+      });
+   }//end load
+
+}//end ProfileCache
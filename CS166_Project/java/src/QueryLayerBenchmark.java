@@ -0,0 +1,311 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput and latency benchmark of the query layer, run against a
+ * scratch database seeded with the shipped data (scripts/benchmark.sh
+ * creates one, seeds it and drops it afterwards).
+ *
+ * Each benchmark drives the real menu handler through a Session fed with
+ * scripted answers, so it measures everything a user's action costs:
+ *
+ *   LogIn        log in as a random seed user, forgetting the login
+ *                first so that every one checks the stored hash
+ *   LogIn (session cache)
+ *                log in again, answered by the CredentialStore session
+ *                cache without a query
+ *   NewMessage   send a message to a random user
+ *   inbox        open the first inbox page of a random user
+ *   FriendList   list the friends of a random user
+ *   SendRequest  the 3-level check, both in memory and as a recursive
+ *                query (the handler itself would insert a request)
+ *
+ * Every benchmark warms up, then runs for a fixed time on a number of
+ * client threads; operations per second, latency percentiles and failed
+ * operations are printed, one line per benchmark.  An operation fails
+ * when it throws, when the handler records an error on its session or,
+ * for LogIn, when the login is refused.  The run exits with status 1 if
+ * any operation failed, since its latencies are then not those of the
+ * work it meant to measure.
+ *
+ */
+public class QueryLayerBenchmark {
+
+   /**
+    * One benchmarked operation.
+    */
+   private interface Operation {
+      /**
+       * @param random the calling thread's random numbers
+       * @return false if the operation did not do its work
+       * @throws java.lang.Exception when the operation fails
+       */
+      boolean run (Random random) throws Exception;
+   }//end Operation
+
+   // discards handler output
+   private static final PrintStream NOWHERE = new PrintStream(new OutputStream() {
+      public void write (int b) {
+      }
+      public void write (byte[] b, int off, int len) {
+      }
+   });
+
+   private final ProfNetwork _esql;
+   private final List<String> _users = new ArrayList<String>();
+   private final List<String> _passwords = new ArrayList<String>();
+   private final long _warmupMs;
+   private final long _measureMs;
+   private final int _threads;
+
+   // failed operations of all benchmarks, and the last failure recorded
+   private long _errors = 0;
+   private Exception _lastError = null;
+
+   private QueryLayerBenchmark (ProfNetwork esql, long warmupMs, long measureMs, int threads) {
+      this._esql = esql;
+      this._warmupMs = warmupMs;
+      this._measureMs = measureMs;
+      this._threads = threads;
+   }//end QueryLayerBenchmark
+
+   /**
+    * The benchmark entry point
+    *
+    * @param args &lt;dbname&gt; &lt;port&gt; &lt;user&gt; [seconds per benchmark] [threads]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            QueryLayerBenchmark.class.getName () +
+            " <dbname> <port> <user> [seconds per benchmark] [threads]");
+         return;
+      }//end if
+
+      ProfNetwork esql = null;
+      boolean failed = false;
+      try{
+         // use postgres JDBC driver.
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         esql = new ProfNetwork (args[0], args[1], args[2], "");
+         long seconds = args.length > 3 ? Long.parseLong(args[3]) : 10;
+         int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+         QueryLayerBenchmark bench = new QueryLayerBenchmark(esql, seconds * 500, seconds * 1000, threads);
+         bench.sampleUsers(1000);
+         System.out.println(bench._users.size() + " sample users, " + threads + " threads, "
+                            + seconds + "s per benchmark\n");
+         bench.runAll();
+         if (bench._errors > 0){
+            System.err.println (bench._errors + " operations failed"
+                                + (bench._lastError != null ? ", last: " + bench._lastError : ""));
+            failed = true;
+         }//end if
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+         failed = true;
+      }finally{
+         if (esql != null)
+            esql.cleanup ();
+      }//end try
+      if (failed)
+         System.exit(1);
+   }//end main
+
+   // seed users whose password is still the plaintext one from the data files
+   private void sampleUsers (int count) throws Exception {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+         "SELECT userId, password FROM USR WHERE password NOT LIKE ? ORDER BY random() LIMIT ?",
+         CredentialStore.SCHEME + "$%", count);
+      for (List<String> row : rows){
+         this._users.add(row.get(0));
+         this._passwords.add(row.get(1));
+      }//end for
+      if (this._users.isEmpty())
+         throw new IllegalStateException("No seed users found; run the benchmark on a freshly seeded database");
+   }//end sampleUsers
+
+   private void runAll () throws Exception {
+      final ProfNetwork esql = this._esql;
+      run("LogIn", new Operation() {
+         public boolean run (Random random) throws Exception {
+            int i = random.nextInt(_users.size());
+            // forget the last login so that the stored hash is checked
+            esql.getCredentials().invalidate(_users.get(i));
+            drive(_users.get(i) + "\n" + _passwords.get(i) + "\n");
+            return _users.get(i).equals(ProfNetwork.LogIn(esql));
+         }
+      });
+      run("LogIn (session cache)", new Operation() {
+         public boolean run (Random random) throws Exception {
+            int i = random.nextInt(_users.size());
+            drive(_users.get(i) + "\n" + _passwords.get(i) + "\n");
+            return _users.get(i).equals(ProfNetwork.LogIn(esql));
+         }
+      });
+      run("NewMessage", new Operation() {
+         public boolean run (Random random) throws Exception {
+            drive(pick(random) + "\nbenchmark message\n");
+            ProfNetwork.NewMessage(esql, pick(random));
+            return true;
+         }
+      });
+      run("inbox", new Operation() {
+         public boolean run (Random random) throws Exception {
+            // open the inbox, then leave after the first page
+            drive("1\n0\n");
+            ProfNetwork.ViewMessage(esql, pick(random));
+            return true;
+         }
+      });
+      run("FriendList", new Operation() {
+         public boolean run (Random random) throws Exception {
+            // list the friends, then return to the menu
+            drive("2\n");
+            ProfNetwork.FriendList(esql, pick(random));
+            return true;
+         }
+      });
+      if (esql.getGraph() != null){
+         run("SendRequest level (in memory)", new Operation() {
+            public boolean run (Random random) throws Exception {
+               // as SendRequest does, logins go through the directory first
+               UserDirectory users = esql.getUsers();
+               esql.getGraph().distance(users.uid(pick(random)), users.uid(pick(random)), 3);
+               return true;
+            }
+         });
+      }//end if
+      run("SendRequest level (query)", new Operation() {
+         public boolean run (Random random) throws Exception {
+            esql.connectionDistance(pick(random), pick(random), 3);
+            return true;
+         }
+      });
+   }//end runAll
+
+   private String pick (Random random) {
+      return this._users.get(random.nextInt(this._users.size()));
+   }//end pick
+
+   // binds a session answering the handler's prompts with the given lines
+   private static void drive (String answers) {
+      Session.bind(new Session(new BufferedReader(new StringReader(answers)), NOWHERE));
+   }//end drive
+
+   /**
+    * Runs one benchmark on all client threads and prints its results.
+    */
+   private void run (String name, final Operation op) throws Exception {
+      final long[][] latencies = new long[this._threads][];
+      final int[] counts = new int[this._threads];
+      final long[] errors = new long[this._threads];
+      final Exception[] lastErrors = new Exception[this._threads];
+      final Exception[] failure = new Exception[1];
+      final CountDownLatch done = new CountDownLatch(this._threads);
+      final long warmupEnd = System.nanoTime() + this._warmupMs * 1000000L;
+      final long measureEnd = warmupEnd + this._measureMs * 1000000L;
+      for (int t = 0; t < this._threads; ++t){
+         final int thread = t;
+         new Thread("benchmark-" + t) {
+            public void run () {
+               Random random = new Random(166 + thread);
+               long[] nanos = new long[1024];
+               int n = 0;
+               try{
+                  long now = System.nanoTime();
+                  while (now < measureEnd){
+                     long t0 = now;
+                     // start from the console so that only a session the
+                     // operation drives is checked for errors
+                     Session.unbind();
+                     Session console = Session.current();
+                     boolean ok = op.run(random);
+                     now = System.nanoTime();
+                     Session session = Session.current();
+                     if (session != console && session.getErrorCount() > 0){
+                        lastErrors[thread] = session.getLastError();
+                        ok = false;
+                     }//end if
+                     if (!ok)
+                        ++errors[thread];
+                     if (t0 < warmupEnd)
+                        continue;
+                     if (n == nanos.length)
+                        nanos = Arrays.copyOf(nanos, n * 2);
+                     nanos[n++] = now - t0;
+                  }//end while
+               }catch (Exception e){
+                  failure[0] = e;
+               }finally{
+                  Session.unbind();
+                  latencies[thread] = nanos;
+                  counts[thread] = n;
+                  done.countDown();
+               }//end try
+            }
+         }.start();
+      }//end for
+      done.await();
+      if (failure[0] != null)
+         throw failure[0];
+
+      int total = 0;
+      for (int c : counts)
+         total += c;
+      long failed = 0;
+      for (int t = 0; t < this._threads; ++t){
+         failed += errors[t];
+         if (lastErrors[t] != null)
+            this._lastError = lastErrors[t];
+      }//end for
+      this._errors += failed;
+      long[] all = new long[total];
+      int k = 0;
+      for (int t = 0; t < this._threads; ++t){
+         System.arraycopy(latencies[t], 0, all, k, counts[t]);
+         k += counts[t];
+      }//end for
+      report(name, all, failed, this._measureMs);
+   }//end run
+
+   private static void report (String name, long[] nanos, long errors, long measureMs) {
+      if (nanos.length == 0){
+         System.out.println(String.format("%-32s no operations completed  errors %d", name, errors));
+         return;
+      }//end if
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      System.out.println(String.format("%-32s %9.1f ops/s  p50 %9.1fus  p90 %9.1fus  p99 %9.1fus  p99.9 %9.1fus  max %9.1fus  errors %d",
+                                       name, sorted.length * 1000.0 / measureMs,
+                                       percentile(sorted, 0.50), percentile(sorted, 0.90),
+                                       percentile(sorted, 0.99), percentile(sorted, 0.999),
+                                       sorted[sorted.length - 1] / 1000.0, errors));
+   }//end report
+
+   private static double percentile (long[] sorted, double p) {
+      return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000.0;
+   }//end percentile
+
+}//end QueryLayerBenchmark
@@ -0,0 +1,408 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency, row and error statistics of every SQL template run through
+ * ProfNetwork and UnitOfWork.  Each template gets a LatencyHistogram of
+ * its execution times, so the queries that dominate under load can be
+ * told apart; statements built by string concatenation are folded into
+ * one template by replacing their literals with ?.
+ *
+ * Statements slower than profnetwork.metrics.slowQueryMs (default 500,
+ * negative disables) are logged to standard error and the latest of
+ * them kept for inspection.  The totals and one bean per template are
+ * registered with the platform MBean server under the profnetwork domain
+ * unless -Dprofnetwork.metrics.jmx=false; dump() renders everything as
+ * a text table.
+ *
+ */
+public class QueryMetrics {
+
+   // slow statements kept for getSlowQueries()
+   private static final int SLOW_QUERIES_KEPT = 50;
+
+   // string and number literals of a statement built without bind parameters
+   private static final Pattern LITERALS = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+   // distinguishes the beans of several instances in one JVM
+   private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+   /**
+    * The management interface of the totals.
+    */
+   public interface TotalsMBean {
+      long getCalls ();
+      long getErrors ();
+      long getRows ();
+      long getSlowQueryCount ();
+      int getTemplateCount ();
+      long getSlowQueryMs ();
+      void setSlowQueryMs (long ms);
+      String[] getSlowQueries ();
+      String dump ();
+      void reset ();
+   }//end TotalsMBean
+
+   /**
+    * The management interface of one SQL template.
+    */
+   public interface TemplateMBean {
+      String getSql ();
+      long getCalls ();
+      long getErrors ();
+      long getRows ();
+      double getTotalMillis ();
+      double getMeanMicros ();
+      long getP50Micros ();
+      long getP90Micros ();
+      long getP99Micros ();
+      long getP999Micros ();
+      long getMaxMicros ();
+      String getLastError ();
+   }//end TemplateMBean
+
+   /**
+    * Statistics of one SQL template.
+    */
+   public static class Template implements TemplateMBean {
+      private final String _sql;
+      private final LatencyHistogram _latency = new LatencyHistogram();
+      private final AtomicLong _rows = new AtomicLong();
+      private final AtomicLong _errors = new AtomicLong();
+      private volatile String _lastError = null;
+
+      Template (String sql) {
+         this._sql = sql;
+      }//end Template
+
+      public String getSql () {
+         return this._sql;
+      }//end getSql
+
+      public long getCalls () {
+         return this._latency.getCount();
+      }//end getCalls
+
+      public long getErrors () {
+         return this._errors.get();
+      }//end getErrors
+
+      public long getRows () {
+         return this._rows.get();
+      }//end getRows
+
+      public double getTotalMillis () {
+         return this._latency.getSum() / 1000000.0;
+      }//end getTotalMillis
+
+      public double getMeanMicros () {
+         return this._latency.getMean() / 1000.0;
+      }//end getMeanMicros
+
+      public long getP50Micros () {
+         return this._latency.getValueAtPercentile(0.50) / 1000;
+      }//end getP50Micros
+
+      public long getP90Micros () {
+         return this._latency.getValueAtPercentile(0.90) / 1000;
+      }//end getP90Micros
+
+      public long getP99Micros () {
+         return this._latency.getValueAtPercentile(0.99) / 1000;
+      }//end getP99Micros
+
+      public long getP999Micros () {
+         return this._latency.getValueAtPercentile(0.999) / 1000;
+      }//end getP999Micros
+
+      public long getMaxMicros () {
+         return this._latency.getMax() / 1000;
+      }//end getMaxMicros
+
+      public String getLastError () {
+         return this._lastError;
+      }//end getLastError
+
+      void reset () {
+         this._latency.reset();
+         this._rows.set(0);
+         this._errors.set(0);
+         this._lastError = null;
+      }//end reset
+   }//end Template
+
+   private final ConcurrentHashMap<String, Template> _templates = new ConcurrentHashMap<String, Template>();
+   private final ArrayDeque<String> _slowQueries = new ArrayDeque<String>();
+   private final AtomicLong _slowCount = new AtomicLong();
+   private volatile long _slowNanos;
+
+   // where the beans are registered, or null when JMX is off
+   private final MBeanServer _server;
+   private final String _domain;
+   private final AtomicInteger _nextId = new AtomicInteger();
+
+   /**
+    * Creates a new metrics registry configured from the
+    * profnetwork.metrics.slowQueryMs and profnetwork.metrics.jmx system
+    * properties.
+    *
+    * @return the registry
+    */
+   public static QueryMetrics fromSystemProperties () {
+      return new QueryMetrics(Long.getLong("profnetwork.metrics.slowQueryMs", 500),
+                              !"false".equals(System.getProperty("profnetwork.metrics.jmx")));
+   }//end fromSystemProperties
+
+   /**
+    * Creates a new metrics registry.
+    *
+    * @param slowQueryMs statements at least this slow are logged; negative disables
+    * @param jmx whether to register MBeans with the platform MBean server
+    */
+   public QueryMetrics (long slowQueryMs, boolean jmx) {
+      setSlowQueryMs(slowQueryMs);
+      MBeanServer server = null;
+      String domain = null;
+      if (jmx){
+         int instance = INSTANCES.incrementAndGet();
+         domain = "profnetwork:" + (instance > 1 ? "instance=" + instance + "," : "");
+         try{
+            server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(new Totals(), TotalsMBean.class),
+                                 new ObjectName(domain + "type=QueryMetrics"));
+         }catch (Exception e){
+            System.err.println("Query metrics not registered with JMX: " + e.getMessage());
+            server = null;
+         }//end try
+      }//end if
+      this._server = server;
+      this._domain = domain;
+   }//end QueryMetrics
+
+   /**
+    * Marks the start of a statement.
+    *
+    * @return the value to pass to record() or failed()
+    */
+   public long start () {
+      return System.nanoTime();
+   }//end start
+
+   /**
+    * Records a statement that completed.
+    *
+    * @param sql the SQL template
+    * @param start the value returned by start()
+    * @param rows the rows returned or affected
+    */
+   public void record (String sql, long start, long rows) {
+      long nanos = System.nanoTime() - start;
+      Template t = template(sql);
+      t._latency.record(nanos);
+      t._rows.addAndGet(rows);
+      if (this._slowNanos >= 0 && nanos >= this._slowNanos)
+         slow(t, nanos, rows + " rows");
+   }//end record
+
+   /**
+    * Records a statement that failed.
+    *
+    * @param sql the SQL template
+    * @param start the value returned by start()
+    * @param e the failure
+    */
+   public void failed (String sql, long start, SQLException e) {
+      long nanos = System.nanoTime() - start;
+      Template t = template(sql);
+      t._latency.record(nanos);
+      t._errors.incrementAndGet();
+      t._lastError = e.getMessage();
+      if (this._slowNanos >= 0 && nanos >= this._slowNanos)
+         slow(t, nanos, "failed");
+   }//end failed
+
+   /**
+    * Folds a statement built without bind parameters into a template by
+    * replacing its literals with ?.
+    *
+    * @param sql the statement
+    * @return its template
+    */
+   public static String normalize (String sql) {
+      return LITERALS.matcher(sql).replaceAll("?");
+   }//end normalize
+
+   private Template template (String sql) {
+      Template t = this._templates.get(sql);
+      if (t != null)
+         return t;
+      t = new Template(sql);
+      Template raced = this._templates.putIfAbsent(sql, t);
+      if (raced != null)
+         return raced;
+      if (this._server != null){
+         try{
+            this._server.registerMBean(new StandardMBean(t, TemplateMBean.class),
+                                       new ObjectName(this._domain + "type=QueryTemplate,id=" + this._nextId.incrementAndGet()));
+         }catch (Exception e){
+            // the template is still counted, only not visible through JMX
+         }//end try
+      }//end if
+      return t;
+   }//end template
+
+   private void slow (Template t, long nanos, String outcome) {
+      String line = String.format("%.1fms, %s: %s", nanos / 1000000.0, outcome, t._sql);
+      this._slowCount.incrementAndGet();
+      synchronized (this._slowQueries){
+         if (this._slowQueries.size() == SLOW_QUERIES_KEPT)
+            this._slowQueries.removeFirst();
+         this._slowQueries.addLast(line);
+      }//end synchronized
+      System.err.println("Slow query " + line);
+   }//end slow
+
+   /**
+    * @return the statistics of every template seen, in no particular order
+    */
+   public List<Template> getTemplates () {
+      return new ArrayList<Template>(this._templates.values());
+   }//end getTemplates
+
+   /**
+    * @param ms statements at least this slow are logged; negative disables
+    */
+   public void setSlowQueryMs (long ms) {
+      this._slowNanos = ms < 0 ? -1 : ms * 1000000L;
+   }//end setSlowQueryMs
+
+   /**
+    * @return the latest slow statements, oldest first
+    */
+   public List<String> getSlowQueries () {
+      synchronized (this._slowQueries){
+         return new ArrayList<String>(this._slowQueries);
+      }//end synchronized
+   }//end getSlowQueries
+
+   /**
+    * Forgets all statistics; templates stay registered.
+    */
+   public void reset () {
+      for (Template t : this._templates.values())
+         t.reset();
+      this._slowCount.set(0);
+      synchronized (this._slowQueries){
+         this._slowQueries.clear();
+      }//end synchronized
+   }//end reset
+
+   /**
+    * Renders the statistics of every template as a text table, the
+    * templates taking the most total time first.
+    *
+    * @return the table
+    */
+   public String dump () {
+      List<Template> templates = getTemplates();
+      Collections.sort(templates, new Comparator<Template>() {
+         public int compare (Template a, Template b) {
+            return Double.compare(b.getTotalMillis(), a.getTotalMillis());
+         }
+      });
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("%9s %7s %10s %11s %9s %9s %9s %9s %9s  %s%n",
+                              "calls", "errors", "rows", "total ms", "mean us", "p50 us",
+                              "p99 us", "p99.9 us", "max us", "template"));
+      for (Template t : templates){
+         sb.append(String.format("%9d %7d %10d %11.1f %9.1f %9d %9d %9d %9d  %s%n",
+                                 t.getCalls(), t.getErrors(), t.getRows(), t.getTotalMillis(),
+                                 t.getMeanMicros(), t.getP50Micros(), t.getP99Micros(),
+                                 t.getP999Micros(), t.getMaxMicros(), t.getSql()));
+      }//end for
+      sb.append(String.format("%d slow statements (>= %dms)%n", this._slowCount.get(),
+                              this._slowNanos < 0 ? -1 : this._slowNanos / 1000000L));
+      return sb.toString();
+   }//end dump
+
+   /**
+    * The totals bean, summing over all templates.
+    */
+   private class Totals implements TotalsMBean {
+      public long getCalls () {
+         long n = 0;
+         for (Template t : _templates.values())
+            n += t.getCalls();
+         return n;
+      }//end getCalls
+
+      public long getErrors () {
+         long n = 0;
+         for (Template t : _templates.values())
+            n += t.getErrors();
+         return n;
+      }//end getErrors
+
+      public long getRows () {
+         long n = 0;
+         for (Template t : _templates.values())
+            n += t.getRows();
+         return n;
+      }//end getRows
+
+      public long getSlowQueryCount () {
+         return _slowCount.get();
+      }//end getSlowQueryCount
+
+      public int getTemplateCount () {
+         return _templates.size();
+      }//end getTemplateCount
+
+      public long getSlowQueryMs () {
+         return _slowNanos < 0 ? -1 : _slowNanos / 1000000L;
+      }//end getSlowQueryMs
+
+      public void setSlowQueryMs (long ms) {
+         QueryMetrics.this.setSlowQueryMs(ms);
+      }//end setSlowQueryMs
+
+      public String[] getSlowQueries () {
+         return QueryMetrics.this.getSlowQueries().toArray(new String[0]);
+      }//end getSlowQueries
+
+      public String dump () {
+         return QueryMetrics.this.dump();
+      }//end dump
+
+      public void reset () {
+         QueryMetrics.this.reset();
+      }//end reset
+   }//end Totals
+
+}//end QueryMetrics
@@ -0,0 +1,34 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Receives the rows of a streamed query one at a time, see
+ * ProfNetwork.executeQueryAndStream().
+ *
+ */
+public interface RowHandler {
+
+   /**
+    * Called once per row.  The result set is positioned on the row; read
+    * its columns with the typed getters but do not move the cursor.
+    *
+    * @param row the result set positioned on the current row
+    * @return true to continue with the next row, false to stop reading
+    * @throws java.sql.SQLException when a column cannot be read
+    */
+   boolean row (ResultSet row) throws SQLException;
+
+}//end RowHandler
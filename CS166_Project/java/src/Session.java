@@ -0,0 +1,160 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+/**
+ * The input and output streams of one interactive user.  Each thread runs
+ * at most one session at a time; the static ProfNetwork.in and
+ * ProfNetwork.out streams forward to the session bound to the calling
+ * thread, so the menu handlers work unchanged for the console and for
+ * network clients.
+ *
+ */
+public class Session {
+
+   // the keyboard session used by the console front-end
+   private static final Session CONSOLE = new Session(
+      new BufferedReader(new InputStreamReader(System.in)), System.out);
+
+   // session bound to each thread, the console unless bound otherwise
+   private static final ThreadLocal<Session> CURRENT = new ThreadLocal<Session>() {
+      protected Session initialValue () {
+         return CONSOLE;
+      }
+   };
+
+   private final BufferedReader _in;
+   private final PrintStream _out;
+
+   // failures the menu handlers caught and reported to the user
+   private volatile long _errors = 0;
+   private volatile Exception _lastError = null;
+
+   /**
+    * Creates a new session reading user input from in and writing
+    * prompts and results to out.
+    *
+    * @param in the user input, one answer per line
+    * @param out the stream prompts and results are printed to
+    */
+   public Session (BufferedReader in, PrintStream out) {
+      this._in = in;
+      this._out = out;
+   }//end Session
+
+   /**
+    * @return the session bound to the calling thread
+    */
+   public static Session current () {
+      return CURRENT.get();
+   }//end current
+
+   /**
+    * Binds a session to the calling thread until unbind() is called.
+    *
+    * @param session the session to bind
+    */
+   public static void bind (Session session) {
+      CURRENT.set(session);
+   }//end bind
+
+   /**
+    * Restores the console session on the calling thread.
+    */
+   public static void unbind () {
+      CURRENT.remove();
+   }//end unbind
+
+   /**
+    * @return the user input of this session
+    */
+   public BufferedReader getIn () {
+      return this._in;
+   }//end getIn
+
+   /**
+    * @return the output of this session
+    */
+   public PrintStream getOut () {
+      return this._out;
+   }//end getOut
+
+   /**
+    * Records a failure a menu handler caught instead of passing on, so
+    * that drivers can tell failed actions from successful ones.
+    *
+    * @param e the failure
+    */
+   public void error (Exception e) {
+      this._lastError = e;
+      ++this._errors;
+   }//end error
+
+   /**
+    * @return the number of failures recorded on this session
+    */
+   public long getErrorCount () {
+      return this._errors;
+   }//end getErrorCount
+
+   /**
+    * @return the last failure recorded on this session, or null
+    */
+   public Exception getLastError () {
+      return this._lastError;
+   }//end getLastError
+
+   /**
+    * @return a reader whose readLine() reads from the calling thread's session
+    */
+   static BufferedReader input () {
+      return new BufferedReader(new StringReader("")) {
+         public String readLine () throws IOException {
+            return current().getIn().readLine();
+         }
+         public int read () throws IOException {
+            return current().getIn().read();
+         }
+         public int read (char[] cbuf, int off, int len) throws IOException {
+            return current().getIn().read(cbuf, off, len);
+         }
+         public boolean ready () throws IOException {
+            return current().getIn().ready();
+         }
+      };
+   }//end input
+
+   /**
+    * @return a print stream that writes to the calling thread's session
+    */
+   static PrintStream output () {
+      return new PrintStream(new OutputStream() {
+         public void write (int b) {
+            current().getOut().write(b);
+         }
+         public void write (byte[] b, int off, int len) {
+            current().getOut().write(b, off, len);
+         }
+         public void flush () {
+            current().getOut().flush();
+         }
+      }, true);
+   }//end output
+
+}//end Session
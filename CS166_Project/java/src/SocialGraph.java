@@ -0,0 +1,346 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory index of accepted connections, used to answer "how many
+ * levels apart are these users" without querying CONNECTION_USR.
+ *
+ * Nodes are USR.uid values, which USR_UID_SEQ hands out densely, so the
+ * graph needs no map from users to nodes and every structure is a
+ * primitive array indexed by uid.  The undirected adjacency is kept in
+ * compressed sparse row form: the neighbours of node v are
+ * targets[offsets[v] .. offsets[v+1]).  Connections accepted after the
+ * index was built go to small per-node overflow arrays, which are folded
+ * back into the CSR arrays once they grow large, so the index never
+ * needs to be reloaded from the database.
+ *
+ */
+public class SocialGraph {
+
+   // one more than the largest uid seen
+   private int _nodes = 0;
+
+   // CSR adjacency of the first _baseNodes nodes
+   private int _baseNodes = 0;
+   private int[] _offsets = new int[1];
+   private int[] _targets = new int[0];
+
+   // adjacency added since the last compaction, per node
+   private int[][] _extra = new int[0][];
+   private int[] _extraCount = new int[0];
+   private int _extraEdges = 0;
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // per-thread BFS scratch space
+   private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+      protected Scratch initialValue () {
+         return new Scratch();
+      }
+   };
+
+   /**
+    * Builds the index from the accepted rows of CONNECTION_USR.
+    *
+    * @param esql the database access object
+    * @return the populated graph
+    * @throws java.sql.SQLException when the connections cannot be read
+    */
+   public static SocialGraph load (ProfNetwork esql) throws SQLException {
+      final SocialGraph graph = new SocialGraph();
+      // edge list as two parallel int arrays, grown as rows stream in
+      final int[][] edges = { new int[1024], new int[1024] };
+      final int[] count = { 0 };
+      esql.executeQueryAndStream(
+         "SELECT uid, connectionUid FROM CONNECTION_USR WHERE status = 'Accept'",
+         4096, new RowHandler() {
+            public boolean row (ResultSet rs) throws SQLException {
+               if (count[0] == edges[0].length){
+                  edges[0] = Arrays.copyOf(edges[0], count[0] * 2);
+                  edges[1] = Arrays.copyOf(edges[1], count[0] * 2);
+               }//end if
+               edges[0][count[0]] = graph.idOf(rs.getLong(1));
+               edges[1][count[0]] = graph.idOf(rs.getLong(2));
+               ++count[0];
+               return true;
+            }
+         });
+      graph.build(edges[0], edges[1], count[0]);
+      return graph;
+   }//end load
+
+   /**
+    * Records a newly accepted connection.
+    *
+    * @param a the uid of one end of the connection
+    * @param b the uid of the other end
+    */
+   public void addConnection (long a, long b) {
+      this._lock.writeLock().lock();
+      try{
+         int u = idOf(a);
+         int v = idOf(b);
+         if (u == v || isAdjacent(u, v))
+            return;
+         append(u, v);
+         append(v, u);
+         this._extraEdges += 2;
+         // keep the overflow small relative to the CSR arrays
+         if (this._extraEdges > Math.max(1024, this._targets.length / 4))
+            compact();
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addConnection
+
+   /**
+    * Returns how many levels of connection separate two users, found with
+    * a breadth first search from both ends that gives up past maxDepth.
+    *
+    * @param from the uid of the first user
+    * @param to the uid of the second user
+    * @param maxDepth the largest distance of interest
+    * @return the distance (0 for the same user), or -1 if it exceeds maxDepth
+    */
+   public int distance (long from, long to, int maxDepth) {
+      if (from == to)
+         return 0;
+      this._lock.readLock().lock();
+      try{
+         if (from < 0 || to < 0 || from >= this._nodes || to >= this._nodes)
+            return -1;
+         return search((int) from, (int) to, maxDepth);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end distance
+
+   /**
+    * @return the number of node slots, one more than the largest uid
+    *         with a connection
+    */
+   public int getNodeCount () {
+      this._lock.readLock().lock();
+      try{
+         return this._nodes;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end getNodeCount
+
+   /**
+    * @return the number of undirected connections in the index
+    */
+   public int getConnectionCount () {
+      this._lock.readLock().lock();
+      try{
+         return (this._targets.length + this._extraEdges) / 2;
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end getConnectionCount
+
+   private int idOf (long uid) {
+      if (uid < 0 || uid >= Integer.MAX_VALUE)
+         throw new IllegalArgumentException("uid out of range: " + uid);
+      int v = (int) uid;
+      if (v < this._nodes)
+         return v;
+      this._nodes = v + 1;
+      if (v >= this._extraCount.length){
+         int capacity = Math.max(v + 1, Math.max(16, this._extraCount.length * 2));
+         this._extraCount = Arrays.copyOf(this._extraCount, capacity);
+         this._extra = Arrays.copyOf(this._extra, capacity);
+      }//end if
+      return v;
+   }//end idOf
+
+   /**
+    * Builds the CSR arrays for all known nodes from an edge list, treating
+    * every edge as undirected.
+    */
+   private void build (int[] from, int[] to, int edges) {
+      int n = this._nodes;
+      int[] offsets = new int[n + 1];
+      for (int i = 0; i < edges; ++i){
+         ++offsets[from[i] + 1];
+         ++offsets[to[i] + 1];
+      }//end for
+      for (int v = 0; v < n; ++v)
+         offsets[v + 1] += offsets[v];
+      int[] fill = Arrays.copyOf(offsets, n);
+      int[] targets = new int[offsets[n]];
+      for (int i = 0; i < edges; ++i){
+         targets[fill[from[i]]++] = to[i];
+         targets[fill[to[i]]++] = from[i];
+      }//end for
+      this._baseNodes = n;
+      this._offsets = offsets;
+      this._targets = targets;
+      Arrays.fill(this._extra, null);
+      Arrays.fill(this._extraCount, 0);
+      this._extraEdges = 0;
+   }//end build
+
+   /**
+    * Folds the overflow adjacency back into fresh CSR arrays.
+    */
+   private void compact () {
+      int edges = (this._targets.length + this._extraEdges) / 2;
+      int[] from = new int[edges];
+      int[] to = new int[edges];
+      int e = 0;
+      for (int v = 0; v < this._nodes; ++v){
+         if (v < this._baseNodes){
+            for (int i = this._offsets[v]; i < this._offsets[v + 1]; ++i){
+               if (v < this._targets[i]){
+                  from[e] = v;
+                  to[e++] = this._targets[i];
+               }//end if
+            }//end for
+         }//end if
+         for (int i = 0; i < this._extraCount[v]; ++i){
+            if (v < this._extra[v][i]){
+               from[e] = v;
+               to[e++] = this._extra[v][i];
+            }//end if
+         }//end for
+      }//end for
+      build(from, to, e);
+   }//end compact
+
+   private void append (int u, int v) {
+      int[] list = this._extra[u];
+      if (list == null){
+         list = new int[4];
+      }else if (this._extraCount[u] == list.length){
+         list = Arrays.copyOf(list, list.length * 2);
+      }//end if
+      list[this._extraCount[u]++] = v;
+      this._extra[u] = list;
+   }//end append
+
+   private boolean isAdjacent (int u, int v) {
+      if (u < this._baseNodes){
+         for (int i = this._offsets[u]; i < this._offsets[u + 1]; ++i)
+            if (this._targets[i] == v)
+               return true;
+      }//end if
+      for (int i = 0; i < this._extraCount[u]; ++i)
+         if (this._extra[u][i] == v)
+            return true;
+      return false;
+   }//end isAdjacent
+
+   /**
+    * Level synchronised bidirectional BFS.  Each round expands the smaller
+    * frontier by one level; a finished level that touches the other side
+    * gives the shortest distance.
+    */
+   private int search (int a, int b, int maxDepth) {
+      Scratch s = this._scratch.get();
+      s.reset(this._nodes);
+      s.visit(0, a, 0);
+      s.visit(1, b, 0);
+      int[] depth = { 0, 0 };
+      int best = Integer.MAX_VALUE;
+
+      while (depth[0] + depth[1] < maxDepth && s.frontierSize[0] > 0 && s.frontierSize[1] > 0){
+         int side = s.frontierSize[0] <= s.frontierSize[1] ? 0 : 1;
+         int other = 1 - side;
+         int next = depth[side] + 1;
+         int[] frontier = s.takeFrontier(side);
+         int size = s.takenSize;
+         for (int f = 0; f < size; ++f){
+            int v = frontier[f];
+            if (v < this._baseNodes){
+               for (int i = this._offsets[v]; i < this._offsets[v + 1]; ++i)
+                  best = Math.min(best, expand(s, side, other, this._targets[i], next));
+            }//end if
+            for (int i = 0; i < this._extraCount[v]; ++i)
+               best = Math.min(best, expand(s, side, other, this._extra[v][i], next));
+         }//end for
+         depth[side] = next;
+         if (best <= maxDepth)
+            return best;
+      }//end while
+      return -1;
+   }//end search
+
+   private static int expand (Scratch s, int side, int other, int w, int depth) {
+      if (s.seen(other, w))
+         return depth + s.dist[other][w];
+      if (!s.seen(side, w))
+         s.visit(side, w, depth);
+      return Integer.MAX_VALUE;
+   }//end expand
+
+   /**
+    * Visited marks, distances and frontiers of one search.  Marks are
+    * generation stamps so that resetting between searches is O(1).
+    */
+   private static class Scratch {
+      int generation = 0;
+      int[][] stamp = new int[2][0];
+      int[][] dist = new int[2][0];
+      int[][] frontier = { new int[16], new int[16] };
+      int[] frontierSize = new int[2];
+      int[] taken = new int[16];
+      int takenSize = 0;
+
+      void reset (int nodes) {
+         if (this.stamp[0].length < nodes){
+            int capacity = Math.max(nodes, this.stamp[0].length * 2);
+            for (int side = 0; side < 2; ++side){
+               this.stamp[side] = new int[capacity];
+               this.dist[side] = new int[capacity];
+            }//end for
+            this.generation = 0;
+         }//end if
+         ++this.generation;
+         this.frontierSize[0] = 0;
+         this.frontierSize[1] = 0;
+      }//end reset
+
+      boolean seen (int side, int v) {
+         return this.stamp[side][v] == this.generation;
+      }//end seen
+
+      void visit (int side, int v, int depth) {
+         this.stamp[side][v] = this.generation;
+         this.dist[side][v] = depth;
+         if (this.frontierSize[side] == this.frontier[side].length)
+            this.frontier[side] = Arrays.copyOf(this.frontier[side], this.frontierSize[side] * 2);
+         this.frontier[side][this.frontierSize[side]++] = v;
+      }//end visit
+
+      /**
+       * Moves the current frontier of a side out so that visit() can
+       * collect the next level.
+       */
+      int[] takeFrontier (int side) {
+         int[] current = this.frontier[side];
+         this.takenSize = this.frontierSize[side];
+         this.frontier[side] = this.taken;
+         this.frontierSize[side] = 0;
+         this.taken = current;
+         return current;
+      }//end takeFrontier
+   }//end Scratch
+
+}//end SocialGraph
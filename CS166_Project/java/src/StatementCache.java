@@ -0,0 +1,119 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded, least-recently-used set of prepared statements
+ * for a single physical connection.  Statements are keyed by their SQL
+ * template so that repeated calls with different bind values reuse the
+ * same server side plan.
+ *
+ */
+public class StatementCache {
+
+   // default number of statements kept open per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   // the connection every cached statement belongs to
+   private final Connection _connection;
+
+   // SQL template -> prepared statement, ordered by last access
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   /**
+    * Creates a new statement cache for the given connection
+    *
+    * @param connection the physical connection statements are prepared on
+    * @param capacity the maximum number of statements to keep open
+    */
+   public StatementCache (Connection connection, final int capacity) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity)
+               return false;
+            closeQuietly(eldest.getValue());
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached prepared statement for an SQL template, preparing
+    * it on the connection the first time it is seen.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @return a prepared statement with cleared parameters
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null){
+         stmt = this._connection.prepareStatement(sql);
+         // ask the driver to keep a named plan on the server
+         if (stmt instanceof PGStatement)
+            ((PGStatement) stmt).setUseServerPrepare(true);
+         this._statements.put(sql, stmt);
+      }else{
+         stmt.clearParameters();
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed and may no
+    * longer be usable.
+    *
+    * @param sql the SQL template to evict
+    */
+   public synchronized void evict (String sql) {
+      closeQuietly(this._statements.remove(sql));
+   }//end evict
+
+   /**
+    * @return the number of statements currently cached
+    */
+   public synchronized int size () {
+      return this._statements.size();
+   }//end size
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void clear () {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()){
+         closeQuietly(it.next());
+         it.remove();
+      }//end while
+   }//end clear
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      if (stmt == null)
+         return;
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
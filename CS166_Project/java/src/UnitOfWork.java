@@ -0,0 +1,243 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One database transaction opened by ProfNetwork.inTransaction().  It
+ * offers the same statement methods as ProfNetwork, all running on the
+ * transaction's connection, plus JDBC batching and hooks that run once
+ * the transaction has committed.
+ *
+ */
+public class UnitOfWork {
+
+   private final PooledConnection _pc;
+
+   // where statement latencies are recorded
+   private final QueryMetrics _metrics;
+
+   // statements with batched parameter sets, in the order first batched
+   private final LinkedHashMap<String, PreparedStatement> _batches = new LinkedHashMap<String, PreparedStatement>();
+
+   // run after a successful commit
+   private final List<Runnable> _afterCommit = new ArrayList<Runnable>();
+
+   UnitOfWork (PooledConnection pc, QueryMetrics metrics) {
+      this._pc = pc;
+      this._metrics = metrics;
+   }//end UnitOfWork
+
+   /**
+    * Executes an update SQL template with bind parameters.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      long start = this._metrics.start ();
+      try{
+         int rowCount = ProfNetwork.prepare (this._pc, sql, params).executeUpdate ();
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         this._pc.getStatements ().evict (sql);
+         throw e;
+      }//end try
+   }//end executeUpdate
+
+   /**
+    * Executes a query SQL template with bind parameters and returns the
+    * results as a list of records.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String sql, Object... params) throws SQLException {
+      long start = this._metrics.start ();
+      try{
+         ResultSet rs = ProfNetwork.prepare (this._pc, sql, params).executeQuery ();
+         List<List<String>> result = ProfNetwork.collectResult (rs);
+         rs.close ();
+         this._metrics.record (sql, start, result.size ());
+         return result;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         this._pc.getStatements ().evict (sql);
+         throw e;
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Executes a query SQL template with bind parameters and returns
+    * whether it produced any row (1) or not (0).
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @return the number of rows returned, at most 1
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String sql, Object... params) throws SQLException {
+      long start = this._metrics.start ();
+      try{
+         ResultSet rs = ProfNetwork.prepare (this._pc, sql, params).executeQuery ();
+         int rowCount = rs.next () ? 1 : 0;
+         rs.close ();
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         this._pc.getStatements ().evict (sql);
+         throw e;
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Executes a query SQL template with bind parameters and hands the rows
+    * to a handler as they are fetched, fetchSize rows per round trip.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives each row
+    * @param params the values bound to the placeholders
+    * @return the number of rows handed to the handler
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStream (String sql, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+      long start = this._metrics.start ();
+      try{
+         int rowCount = ProfNetwork.streamThroughCursor (this._pc, sql, fetchSize, handler, params);
+         this._metrics.record (sql, start, rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         this._metrics.failed (sql, start, e);
+         throw e;
+      }//end try
+   }//end executeQueryAndStream
+
+   /**
+    * Queues one parameter set of an update SQL template.  Queued updates
+    * are sent by executeBatch(), or when the work returns.
+    *
+    * @param sql the SQL template using ? placeholders
+    * @param params the values bound to the placeholders
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public void addBatch (String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._batches.get (sql);
+      if (stmt == null){
+         stmt = this._pc.getStatements ().prepare (sql);
+         this._batches.put (sql, stmt);
+      }//end if
+      ProfNetwork.bind (stmt, params);
+      stmt.addBatch ();
+   }//end addBatch
+
+   /**
+    * Sends every queued update, one batch per SQL template in the order
+    * the templates were first queued.
+    *
+    * @return the update counts of all queued parameter sets, in order
+    * @throws java.sql.SQLException when an update fails
+    */
+   public int[] executeBatch () throws SQLException {
+      List<int[]> counts = new ArrayList<int[]>();
+      int total = 0;
+      try{
+         for (Map.Entry<String, PreparedStatement> e : this._batches.entrySet ()){
+            long start = this._metrics.start ();
+            int[] c;
+            try{
+               c = e.getValue ().executeBatch ();
+            }catch (SQLException failure){
+               this._metrics.failed (e.getKey (), start, failure);
+               throw failure;
+            }//end try
+            long rowCount = 0;
+            for (int n : c)
+               rowCount += Math.max (n, 0);
+            this._metrics.record (e.getKey (), start, rowCount);
+            counts.add (c);
+            total += c.length;
+         }//end for
+      }finally{
+         for (Map.Entry<String, PreparedStatement> e : this._batches.entrySet ()){
+            try{
+               e.getValue ().clearBatch ();
+            }catch (SQLException ignored){
+               this._pc.getStatements ().evict (e.getKey ());
+            }//end try
+         }//end for
+         this._batches.clear ();
+      }//end try
+      int[] result = new int[total];
+      int i = 0;
+      for (int[] c : counts){
+         System.arraycopy (c, 0, result, i, c.length);
+         i += c.length;
+      }//end for
+      return result;
+   }//end executeBatch
+
+   /**
+    * Registers an action to run once this transaction has committed, such
+    * as updating an in-memory cache.  Nothing runs if it rolls back.
+    *
+    * @param action the action
+    */
+   public void afterCommit (Runnable action) {
+      this._afterCommit.add (action);
+   }//end afterCommit
+
+   /**
+    * Sends queued batches; called before commit.
+    */
+   void flush () throws SQLException {
+      if (!this._batches.isEmpty ())
+         executeBatch ();
+   }//end flush
+
+   /**
+    * Runs the after-commit actions; called after commit.
+    */
+   void committed () {
+      for (Runnable action : this._afterCommit)
+         action.run ();
+   }//end committed
+
+   /**
+    * Drops queued batches after a failure.
+    */
+   void abandon () {
+      for (Map.Entry<String, PreparedStatement> e : this._batches.entrySet ()){
+         try{
+            e.getValue ().clearBatch ();
+         }catch (SQLException ignored){
+            this._pc.getStatements ().evict (e.getKey ());
+         }//end try
+      }//end for
+      this._batches.clear ();
+   }//end abandon
+
+}//end UnitOfWork
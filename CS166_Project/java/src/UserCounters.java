@@ -0,0 +1,46 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+
+/**
+ * One user's row of USR_COUNTERS: the badge counts the menus show.  The
+ * triggers of create_counters.sql keep them in step with CONNECTION_USR
+ * and MESSAGE in the same transaction as every write, so they are exact,
+ * not estimates.
+ *
+ */
+public class UserCounters {
+
+   // users connected to the user by an accepted request in either
+   // direction, each counted once as in FRIEND
+   public final int friends;
+
+   // connection requests addressed to the user and not answered yet
+   public final int pending;
+
+   // messages received, not yet read and not deleted
+   public final int unread;
+
+   /**
+    * Creates the counters from a friendCount, pendingCount, unreadCount row
+    *
+    * @param row the USR_COUNTERS columns in that order
+    */
+   UserCounters (List<String> row) {
+      this.friends = Integer.parseInt(row.get(0).trim());
+      this.pending = Integer.parseInt(row.get(1).trim());
+      this.unread = Integer.parseInt(row.get(2).trim());
+   }//end UserCounters
+
+}//end UserCounters
@@ -0,0 +1,135 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The two way mapping between logins and USR.uid.  Every table but USR
+ * refers to users by uid, so logins typed at the menus are turned into
+ * uids here on the way in and uids read back are turned into logins on
+ * the way out, without joining USR.
+ *
+ * Logins map to uids through a hash map; uids map back through an array
+ * indexed by uid, which USR_UID_SEQ hands out densely.  Both are filled
+ * from USR when the directory is loaded.  A user created by another
+ * process since then is looked up in USR once and remembered.
+ *
+ */
+public class UserDirectory {
+
+   // login -> uid
+   private final ConcurrentHashMap<String, Long> _uids = new ConcurrentHashMap<String, Long>();
+
+   // uid -> login; slots are only ever filled, and the array is copied
+   // to grow, so readers need no lock
+   private volatile String[] _logins = new String[0];
+
+   private final ProfNetwork _esql;
+
+   private UserDirectory (ProfNetwork esql) {
+      this._esql = esql;
+   }//end UserDirectory
+
+   /**
+    * Builds the directory from USR.
+    *
+    * @param esql the database access object
+    * @return the populated directory
+    * @throws java.sql.SQLException when the users cannot be read
+    */
+   public static UserDirectory load (ProfNetwork esql) throws SQLException {
+      final UserDirectory users = new UserDirectory(esql);
+      esql.executeQueryAndStream("SELECT uid, userId FROM USR", 4096, new RowHandler() {
+         public boolean row (ResultSet rs) throws SQLException {
+            users.add(rs.getLong(1), rs.getString(2));
+            return true;
+         }
+      });
+      return users;
+   }//end load
+
+   /**
+    * Returns the uid of a login.
+    *
+    * @param login the login
+    * @return the uid, or -1 when there is no such user
+    * @throws java.sql.SQLException when the login has to be looked up and
+    *         the lookup fails
+    */
+   public long uid (String login) throws SQLException {
+      if (login == null)
+         return -1;
+      Long uid = this._uids.get(login);
+      if (uid != null)
+         return uid;
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(
+         "SELECT uid FROM USR WHERE userId = ?", login);
+      if (result.isEmpty())
+         return -1;
+      long found = Long.parseLong(result.get(0).get(0).trim());
+      add(found, login);
+      return found;
+   }//end uid
+
+   /**
+    * Returns the login of a uid.
+    *
+    * @param uid the uid
+    * @return the login, or null when there is no such user
+    * @throws java.sql.SQLException when the uid has to be looked up and
+    *         the lookup fails
+    */
+   public String login (long uid) throws SQLException {
+      String[] logins = this._logins;
+      if (uid >= 0 && uid < logins.length && logins[(int) uid] != null)
+         return logins[(int) uid];
+      if (uid < 0)
+         return null;
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(
+         "SELECT userId FROM USR WHERE uid = ?", uid);
+      if (result.isEmpty())
+         return null;
+      String found = result.get(0).get(0);
+      add(uid, found);
+      return found;
+   }//end login
+
+   /**
+    * Records a user, e.g. one just created.
+    *
+    * @param uid the user's uid
+    * @param login the user's login
+    */
+   public synchronized void add (long uid, String login) {
+      if (uid < 0 || uid >= Integer.MAX_VALUE)
+         throw new IllegalArgumentException("uid out of range: " + uid);
+      String[] logins = this._logins;
+      if (uid >= logins.length)
+         logins = Arrays.copyOf(logins, (int) Math.max(uid + 1, Math.min(Integer.MAX_VALUE - 1L, Math.max(1024L, logins.length * 2L))));
+      logins[(int) uid] = login;
+      this._logins = logins;
+      this._uids.put(login, uid);
+   }//end add
+
+   /**
+    * @return the number of users known to the directory
+    */
+   public int size () {
+      return this._uids.size();
+   }//end size
+
+}//end UserDirectory
@@ -0,0 +1,455 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory people search for SearchUser.  Every user is a document made
+ * of their login, their name, the companies they worked at and the
+ * institutions they studied at.  Those are split into lower case words
+ * and kept in an inverted index ordered by word, so that every word
+ * starting with a typed prefix is one sorted range.  Words that match
+ * nothing by prefix fall back to a trigram index over the vocabulary,
+ * which tolerates typos.
+ *
+ * Every word of a query must match some word of a user.  A match scores
+ * by field (login and name count more than company and institution) and
+ * by quality (whole word, prefix, fuzzy), and users are ranked by their
+ * summed score.
+ *
+ */
+public class UserSearchIndex {
+
+   // fields of a document, stored in the low bits of each posting
+   private static final int LOGIN = 0;
+   private static final int NAME = 1;
+   private static final int COMPANY = 2;
+   private static final int INSTITUTION = 3;
+   private static final int FIELD_BITS = 2;
+   private static final float[] FIELD_WEIGHT = { 4f, 3f, 1f, 1f };
+
+   // score multipliers by match quality
+   private static final float EXACT = 3f;
+   private static final float PREFIX = 2f;
+   private static final float FUZZY = 1f;
+
+   // least trigram similarity a fuzzy match needs
+   private static final float MIN_SIMILARITY = 0.4f;
+
+   /**
+    * One ranked search result.
+    */
+   public static class Hit {
+      public final String userId;
+      public final String name;
+      public final float score;
+
+      public Hit (String userId, String name, float score) {
+         this.userId = userId;
+         this.name = name;
+         this.score = score;
+      }//end Hit
+   }//end Hit
+
+   /**
+    * One page of search results.
+    */
+   public static class Page {
+      // the hits of this page, best first
+      public final List<Hit> hits;
+      // the number of users matching the query
+      public final int total;
+
+      public Page (List<Hit> hits, int total) {
+         this.hits = hits;
+         this.total = total;
+      }//end Page
+   }//end Page
+
+   // login <-> dense document id, plus the display name of each document
+   private final HashMap<String, Integer> _ids = new HashMap<String, Integer>();
+   private final ArrayList<String> _logins = new ArrayList<String>();
+   private final ArrayList<String> _names = new ArrayList<String>();
+
+   // word -> postings (document id << FIELD_BITS | field)
+   private final TreeMap<String, Postings> _words = new TreeMap<String, Postings>();
+
+   // trigram -> words containing it
+   private final HashMap<String, List<String>> _trigrams = new HashMap<String, List<String>>();
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // per-thread scoring scratch space
+   private final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>() {
+      protected Scratch initialValue () {
+         return new Scratch();
+      }
+   };
+
+   /**
+    * Builds the index from USR, WORK_EXPR and EDUCATIONAL_DETAILS.
+    *
+    * @param esql the database access object
+    * @return the populated index
+    * @throws java.sql.SQLException when the users cannot be read
+    */
+   public static UserSearchIndex load (ProfNetwork esql) throws SQLException {
+      final UserSearchIndex index = new UserSearchIndex();
+      esql.executeQueryAndStream("SELECT userId, name FROM USR", 4096, new RowHandler() {
+         public boolean row (ResultSet rs) throws SQLException {
+            index.addUser(rs.getString(1), rs.getString(2));
+            return true;
+         }
+      });
+      // WORK_EXPR and EDUCATIONAL_DETAILS refer to users by uid
+      final UserDirectory users = esql.getUsers();
+      esql.executeQueryAndStream("SELECT uid, company FROM WORK_EXPR", 4096, new RowHandler() {
+         public boolean row (ResultSet rs) throws SQLException {
+            String login = users.login(rs.getLong(1));
+            if (login != null)
+               index.add(login, COMPANY, rs.getString(2));
+            return true;
+         }
+      });
+      esql.executeQueryAndStream("SELECT uid, institutionName FROM EDUCATIONAL_DETAILS", 4096, new RowHandler() {
+         public boolean row (ResultSet rs) throws SQLException {
+            String login = users.login(rs.getLong(1));
+            if (login != null)
+               index.add(login, INSTITUTION, rs.getString(2));
+            return true;
+         }
+      });
+      return index;
+   }//end load
+
+   /**
+    * Adds a user, or renames one already indexed.
+    *
+    * @param userId the login
+    * @param name the user's name, may be null
+    */
+   public void addUser (String userId, String name) {
+      this._lock.writeLock().lock();
+      try{
+         int doc = docOf(userId);
+         this._names.set(doc, name == null ? "" : name.trim());
+         index(doc, LOGIN, userId);
+         index(doc, NAME, name);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end addUser
+
+   /**
+    * Adds a company to a user's document.
+    *
+    * @param userId the login
+    * @param company the company worked at
+    */
+   public void addCompany (String userId, String company) {
+      add(userId, COMPANY, company);
+   }//end addCompany
+
+   /**
+    * Adds an institution to a user's document.
+    *
+    * @param userId the login
+    * @param institution the institution studied at
+    */
+   public void addInstitution (String userId, String institution) {
+      add(userId, INSTITUTION, institution);
+   }//end addInstitution
+
+   /**
+    * Runs a query and returns one page of the ranked results.
+    *
+    * @param query words to look for; each may be a prefix or misspelt
+    * @param offset the number of best results to skip
+    * @param limit the page size
+    * @return the requested page and the total number of matches
+    */
+   public Page search (String query, int offset, int limit) {
+      List<String> tokens = tokenize(query);
+      if (tokens.isEmpty())
+         return new Page(Collections.<Hit>emptyList(), 0);
+      this._lock.readLock().lock();
+      try{
+         Scratch s = this._scratch.get();
+         s.reset(this._logins.size());
+         for (int t = 0; t < tokens.size(); ++t){
+            if (!match(s, tokens.get(t), t))
+               return new Page(Collections.<Hit>emptyList(), 0);
+         }//end for
+         return rank(s, offset, limit);
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end search
+
+   /**
+    * @return the number of users indexed
+    */
+   public int size () {
+      this._lock.readLock().lock();
+      try{
+         return this._logins.size();
+      }finally{
+         this._lock.readLock().unlock();
+      }//end try
+   }//end size
+
+   private void add (String userId, int field, String text) {
+      this._lock.writeLock().lock();
+      try{
+         index(docOf(userId), field, text);
+      }finally{
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end add
+
+   private int docOf (String userId) {
+      String login = userId.trim();
+      Integer id = this._ids.get(login);
+      if (id != null)
+         return id;
+      int doc = this._logins.size();
+      this._ids.put(login, doc);
+      this._logins.add(login);
+      this._names.add("");
+      return doc;
+   }//end docOf
+
+   private void index (int doc, int field, String text) {
+      int posting = doc << FIELD_BITS | field;
+      for (String word : tokenize(text)){
+         Postings p = this._words.get(word);
+         if (p == null){
+            p = new Postings();
+            this._words.put(word, p);
+            for (String g : trigrams(word)){
+               List<String> words = this._trigrams.get(g);
+               if (words == null){
+                  words = new ArrayList<String>(4);
+                  this._trigrams.put(g, words);
+               }//end if
+               words.add(word);
+            }//end for
+         }//end if
+         p.add(posting);
+      }//end for
+   }//end index
+
+   /**
+    * Scores every document matching query word t.  A document is kept
+    * only if it also matched all earlier words.
+    *
+    * @return false if no document is left
+    */
+   private boolean match (Scratch s, String token, int t) {
+      s.beginToken();
+      SortedMap<String, Postings> range = this._words.subMap(token, token + Character.MAX_VALUE);
+      for (Map.Entry<String, Postings> e : range.entrySet())
+         score(s, e.getValue(), t, e.getKey().length() == token.length() ? EXACT : PREFIX);
+      if (range.isEmpty() && token.length() >= 3){
+         // no word starts with it; try words that look alike
+         HashMap<String, Integer> shared = new HashMap<String, Integer>();
+         List<String> grams = trigrams(token);
+         for (String g : grams){
+            List<String> words = this._trigrams.get(g);
+            if (words == null)
+               continue;
+            for (String w : words){
+               Integer n = shared.get(w);
+               shared.put(w, n == null ? 1 : n + 1);
+            }//end for
+         }//end for
+         for (Map.Entry<String, Integer> e : shared.entrySet()){
+            int common = e.getValue();
+            float similarity = common / (float) (grams.size() + e.getKey().length() - common);
+            if (similarity >= MIN_SIMILARITY)
+               score(s, this._words.get(e.getKey()), t, FUZZY * similarity);
+         }//end for
+      }//end if
+      return s.endToken();
+   }//end match
+
+   private static void score (Scratch s, Postings p, int t, float quality) {
+      for (int i = 0; i < p.size; ++i){
+         int doc = p.items[i] >>> FIELD_BITS;
+         // documents that missed an earlier word are out already
+         if (s.matched[doc] != t)
+            continue;
+         s.offer(doc, FIELD_WEIGHT[p.items[i] & ((1 << FIELD_BITS) - 1)] * quality);
+      }//end for
+   }//end score
+
+   /**
+    * Picks the requested page out of the candidates with a bounded heap,
+    * so that a short prefix matching thousands of users costs no full sort.
+    */
+   private Page rank (Scratch s, int offset, int limit) {
+      final float[] total = s.total;
+      final ArrayList<String> logins = this._logins;
+      // best first; equal scores by login so that pages are stable
+      Comparator<Integer> order = new Comparator<Integer>() {
+         public int compare (Integer a, Integer b) {
+            int c = Float.compare(total[b], total[a]);
+            return c != 0 ? c : logins.get(a).compareTo(logins.get(b));
+         }
+      };
+      int keep = offset + limit;
+      PriorityQueue<Integer> worstFirst = new PriorityQueue<Integer>(Math.max(1, Math.min(keep, s.candidateCount)),
+                                                                     Collections.reverseOrder(order));
+      for (int i = 0; i < s.candidateCount && keep > 0; ++i){
+         Integer doc = s.candidates[i];
+         if (worstFirst.size() < keep){
+            worstFirst.add(doc);
+         }else if (order.compare(doc, worstFirst.peek()) < 0){
+            worstFirst.poll();
+            worstFirst.add(doc);
+         }//end if
+      }//end for
+      Integer[] best = worstFirst.toArray(new Integer[worstFirst.size()]);
+      Arrays.sort(best, order);
+      List<Hit> hits = new ArrayList<Hit>(Math.max(0, best.length - offset));
+      for (int i = offset; i < best.length; ++i)
+         hits.add(new Hit(logins.get(best[i]), this._names.get(best[i]), total[best[i]]));
+      return new Page(hits, s.candidateCount);
+   }//end rank
+
+   /**
+    * Splits text into lower case words of letters and digits.
+    */
+   static List<String> tokenize (String text) {
+      List<String> words = new ArrayList<String>(4);
+      if (text == null)
+         return words;
+      int start = -1;
+      for (int i = 0; i <= text.length(); ++i){
+         boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+         if (word && start < 0){
+            start = i;
+         }else if (!word && start >= 0){
+            words.add(text.substring(start, i).toLowerCase());
+            start = -1;
+         }//end if
+      }//end for
+      return words;
+   }//end tokenize
+
+   // a word of n letters has at most n trigrams once padded with one $ per end
+   private static List<String> trigrams (String word) {
+      String padded = "$" + word + "$";
+      List<String> grams = new ArrayList<String>(padded.length());
+      for (int i = 0; i + 3 <= padded.length(); ++i){
+         String g = padded.substring(i, i + 3);
+         if (!grams.contains(g))
+            grams.add(g);
+      }//end for
+      if (grams.isEmpty())
+         grams.add(padded);
+      return grams;
+   }//end trigrams
+
+   /**
+    * A growable list of postings.
+    */
+   private static class Postings {
+      int[] items = new int[2];
+      int size = 0;
+
+      void add (int posting) {
+         // a document's postings for a word mostly arrive together; checking
+         // the last one is enough to keep repeats rare
+         if (this.size > 0 && this.items[this.size - 1] == posting)
+            return;
+         if (this.size == this.items.length)
+            this.items = Arrays.copyOf(this.items, this.size * 2);
+         this.items[this.size++] = posting;
+      }//end add
+   }//end Postings
+
+   /**
+    * Scores of one search.  matched[d] counts the query words document d
+    * has matched so far; best[d] is its best score for the current word.
+    */
+   private static class Scratch {
+      int[] matched = new int[0];
+      float[] total = new float[0];
+      float[] best = new float[0];
+      int[] candidates = new int[16];
+      int candidateCount = 0;
+      int[] touched = new int[16];
+      int touchedCount = 0;
+      int token = 0;
+
+      void reset (int docs) {
+         if (this.matched.length < docs){
+            int capacity = Math.max(docs, this.matched.length * 2);
+            this.matched = new int[capacity];
+            this.total = new float[capacity];
+            this.best = new float[capacity];
+         }else{
+            Arrays.fill(this.matched, 0, docs, 0);
+            Arrays.fill(this.total, 0, docs, 0f);
+         }//end if
+         this.candidateCount = 0;
+         this.token = 0;
+      }//end reset
+
+      void beginToken () {
+         this.touchedCount = 0;
+      }//end beginToken
+
+      void offer (int doc, float score) {
+         if (this.best[doc] == 0f){
+            if (this.touchedCount == this.touched.length)
+               this.touched = Arrays.copyOf(this.touched, this.touchedCount * 2);
+            this.touched[this.touchedCount++] = doc;
+         }//end if
+         if (score > this.best[doc])
+            this.best[doc] = score;
+      }//end offer
+
+      /**
+       * Folds the current word's best scores into the totals.
+       *
+       * @return false if no document matched every word so far
+       */
+      boolean endToken () {
+         for (int i = 0; i < this.touchedCount; ++i){
+            int doc = this.touched[i];
+            this.total[doc] += this.best[doc];
+            this.best[doc] = 0f;
+            this.matched[doc] = this.token + 1;
+         }//end for
+         ++this.token;
+         this.candidates = Arrays.copyOf(this.touched, Math.max(this.touchedCount, 1));
+         this.candidateCount = this.touchedCount;
+         return this.touchedCount > 0;
+      }//end endToken
+   }//end Scratch
+
+}//end UserSearchIndex
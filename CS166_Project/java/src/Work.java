@@ -0,0 +1,36 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+/**
+ * The statements of one transaction, see ProfNetwork.inTransaction().
+ * The work may be run more than once when the transaction has to be
+ * retried, so it must not have side effects outside the database; use
+ * UnitOfWork.afterCommit() for those.
+ *
+ * @param <T> the result of the work
+ */
+public interface Work<T> {
+
+   /**
+    * Runs the statements of the transaction.
+    *
+    * @param tx the transaction to run the statements in
+    * @return the result handed back by inTransaction()
+    * @throws java.sql.SQLException when a statement fails; the transaction
+    *         is rolled back
+    */
+   T run (UnitOfWork tx) throws SQLException;
+
+}//end Work
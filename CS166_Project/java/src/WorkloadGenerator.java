@@ -0,0 +1,346 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic seed data of any size in the format of the
+ * sql/src/sql_files scripts, one INSERT per line, so that it can be
+ * loaded with psql or, much faster, with
+ *
+ *   java BulkLoader &lt;dbname&gt; &lt;port&gt; &lt;user&gt; &lt;CS166_Project dir&gt; &lt;output dir&gt;
+ *
+ * The files written are user_entry.sql, work_expr.sql, edu_details.sql,
+ * connection_entry.sql and message_entry.sql.
+ *
+ * Connections follow preferential attachment: every new user sends
+ * requests to users picked in proportion to their current number of
+ * connections, which gives the power-law degree distribution of real
+ * social networks.  Companies and institutions are picked from Zipf
+ * distributions, and messages go mostly between connected users, sent
+ * more often by well connected ones.  The same seed always gives the
+ * same data.
+ *
+ * Every user's password is PASSWORD, so that LoadDriver can log in as
+ * anyone.  Preferential attachment keeps two ints per connection in
+ * memory; give the JVM about 8 bytes per connection (-Xmx).
+ *
+ */
+public class WorkloadGenerator {
+
+   // password of every generated user
+   public static final String PASSWORD = "secret";
+
+   private static final String[] FIRST = {
+      "Ada", "Alan", "Barbara", "Carlos", "Chen", "Dana", "Diego", "Elena", "Fatima", "Grace",
+      "Hiro", "Ines", "Ivan", "Jamal", "Jin", "Karen", "Leila", "Linus", "Maria", "Mei",
+      "Nadia", "Omar", "Priya", "Quinn", "Rosa", "Sam", "Sofia", "Tariq", "Uma", "Victor",
+      "Wei", "Xavier", "Yara", "Yusuf", "Zoe", "Ken", "Lucia", "Noah", "Olga", "Pedro" };
+   private static final String[] LAST = {
+      "Smith", "Garcia", "Nguyen", "Kim", "Patel", "Mueller", "Rossi", "Silva", "Cohen", "Novak",
+      "Tanaka", "Ivanova", "Okafor", "Haddad", "Larsen", "Moreau", "Kowalski", "Singh", "Lopez", "Wang",
+      "Brown", "Jensen", "Costa", "Yilmaz", "Dubois", "Sato", "Ahmed", "Murphy", "Fischer", "Reyes" };
+   private static final String[] SYLLABLE = {
+      "ka", "zo", "tri", "bel", "no", "va", "qu", "lin", "ex", "ra", "pix", "ton", "jax", "mi", "do",
+      "vo", "ly", "sta", "ri", "bu", "zz", "fe", "ed", "om", "ni", "ta", "yo", "ca", "ble", "wi" };
+   private static final String[] ROLE = {
+      "Software Engineer", "Senior Developer", "Data Analyst", "Product Manager", "Designer",
+      "Account Executive", "Financial Advisor", "Nurse", "Teacher", "Consultant", "Recruiter",
+      "Research Scientist", "Sales Manager", "Accountant", "Technician" };
+   private static final String[] LOCATION = {
+      "Riverside", "Los Angeles", "San Jose", "Seattle", "Austin", "New York", "Chicago",
+      "Boston", "Denver", "Atlanta", "Toronto", "London", "Berlin", "Bangalore", "Tokyo" };
+   private static final String[] MAJOR = {
+      "computer science", "mathematics", "physics", "biology", "chemistry", "history",
+      "economics", "electrical", "mechanical", "psychology", "english", "business" };
+   private static final String[] DEGREE = { "bachelor", "master", "doctrate" };
+   private static final String[] WORD = {
+      "hello", "thanks", "meeting", "project", "tomorrow", "great", "job", "interview", "coffee",
+      "team", "update", "question", "resume", "role", "referral", "congrats", "schedule", "call",
+      "offer", "deadline", "review", "lunch", "next", "week", "quick", "idea", "share", "notes" };
+
+   private final Random _random;
+   private final int _users;
+   private final int _connectionsPerUser;
+   private final long _messages;
+
+   // endpoints of every connection made so far, two per connection
+   private int[] _endpoints;
+   private int _endpointCount = 0;
+
+   private final Zipf _companies;
+   private final Zipf _institutions;
+
+   /**
+    * Creates a new generator
+    *
+    * @param users the number of users
+    * @param connectionsPerUser requests each new user sends (average
+    *        degree is twice this)
+    * @param messages the number of messages
+    * @param seed the random seed
+    */
+   public WorkloadGenerator (int users, int connectionsPerUser, long messages, long seed) {
+      this._random = new Random(seed);
+      this._users = users;
+      this._connectionsPerUser = connectionsPerUser;
+      this._messages = messages;
+      this._endpoints = new int[(int) Math.min(Integer.MAX_VALUE - 8, 2L * users * connectionsPerUser + 16)];
+      this._companies = new Zipf(Math.max(50, users / 50), 1.1);
+      this._institutions = new Zipf(Math.max(20, users / 200), 1.0);
+   }//end WorkloadGenerator
+
+   /**
+    * Writes all seed files into a directory.
+    *
+    * @param dir the output directory, created if missing
+    * @throws java.io.IOException when a file cannot be written
+    */
+   public void write (File dir) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      long start = System.currentTimeMillis();
+      writeUsers(new File(dir, "user_entry.sql"));
+      writeWork(new File(dir, "work_expr.sql"));
+      writeEducation(new File(dir, "edu_details.sql"));
+      writeConnections(new File(dir, "connection_entry.sql"));
+      writeMessages(new File(dir, "message_entry.sql"));
+      System.out.println("Generated " + this._users + " users, " + this._endpointCount / 2 + " connections, "
+                         + this._messages + " messages in " + (System.currentTimeMillis() - start) + "ms");
+   }//end write
+
+   /**
+    * @return the login of user i
+    */
+   static String login (int i) {
+      return FIRST[i % FIRST.length] + "_" + LAST[(i / FIRST.length) % LAST.length] + i;
+   }//end login
+
+   private void writeUsers (File file) throws IOException {
+      Writer w = open(file);
+      try{
+         for (int i = 0; i < this._users; ++i){
+            String name = FIRST[i % FIRST.length] + " " + LAST[(i / FIRST.length) % LAST.length];
+            line(w, "INSERT INTO USR(userId,password,email,name,dateOfBirth) VALUES (",
+                 login(i), PASSWORD, login(i).toLowerCase() + "@example.com", name, date(1950, 2002));
+         }//end for
+      }finally{
+         w.close();
+      }//end try
+   }//end writeUsers
+
+   private void writeWork (File file) throws IOException {
+      Writer w = open(file);
+      try{
+         for (int i = 0; i < this._users; ++i){
+            int jobs = this._random.nextInt(4);
+            int year = 1990 + this._random.nextInt(20);
+            for (int j = 0; j < jobs; ++j){
+               int end = year + 1 + this._random.nextInt(6);
+               line(w, "INSERT INTO WORK_EXPR(userId,company,role,location,startDate,endDate) VALUES (",
+                    login(i), name("company", this._companies.next(this._random)), pick(ROLE), pick(LOCATION),
+                    date(year, year), date(end, end));
+               year = end;
+            }//end for
+         }//end for
+      }finally{
+         w.close();
+      }//end try
+   }//end writeWork
+
+   private void writeEducation (File file) throws IOException {
+      Writer w = open(file);
+      try{
+         for (int i = 0; i < this._users; ++i){
+            int degrees = 1 + this._random.nextInt(2);
+            int year = 1970 + this._random.nextInt(35);
+            for (int d = 0; d < degrees; ++d){
+               // one entry per degree keeps (userId, major, degree) unique
+               line(w, "INSERT INTO EDUCATIONAL_DETAILS(userId,institutionName,major,degree,startdate,enddate) VALUES (",
+                    login(i), name("institution", this._institutions.next(this._random)), pick(MAJOR), DEGREE[d],
+                    date(year, year), date(year + 2 + d, year + 2 + d));
+               year += 3 + d;
+            }//end for
+         }//end for
+      }finally{
+         w.close();
+      }//end try
+   }//end writeEducation
+
+   /**
+    * Preferential attachment: user v sends requests to up to
+    * connectionsPerUser earlier users, each picked with probability
+    * proportional to its degree by drawing a random endpoint.
+    */
+   private void writeConnections (File file) throws IOException {
+      Writer w = open(file);
+      int m = this._connectionsPerUser;
+      int[] picked = new int[m];
+      try{
+         for (int v = 1; v < this._users; ++v){
+            int count = 0;
+            for (int attempt = 0; count < Math.min(m, v) && attempt < 4 * m; ++attempt){
+               int u = this._endpointCount == 0 || this._random.nextInt(10) == 0
+                  ? this._random.nextInt(v)
+                  : this._endpoints[this._random.nextInt(this._endpointCount)];
+               boolean seen = false;
+               for (int k = 0; k < count; ++k)
+                  seen |= picked[k] == u;
+               if (seen)
+                  continue;
+               picked[count++] = u;
+            }//end for
+            for (int k = 0; k < count; ++k){
+               int r = this._random.nextInt(100);
+               String status = r < 80 ? "Accept" : r < 95 ? "Request" : "Reject";
+               line(w, "INSERT INTO CONNECTION_USR(userId,connectionId,status)VALUES (",
+                    login(v), login(picked[k]), status);
+               if (this._endpointCount + 2 > this._endpoints.length)
+                  this._endpoints = Arrays.copyOf(this._endpoints, this._endpoints.length * 2);
+               this._endpoints[this._endpointCount++] = v;
+               this._endpoints[this._endpointCount++] = picked[k];
+            }//end for
+         }//end for
+      }finally{
+         w.close();
+      }//end try
+   }//end writeConnections
+
+   /**
+    * Most messages follow a connection in a random direction; the rest go
+    * to a random user.  Either way busy users send and receive more.
+    */
+   private void writeMessages (File file) throws IOException {
+      Writer w = open(file);
+      long now = System.currentTimeMillis();
+      long year = 365L * 24 * 60 * 60 * 1000;
+      try{
+         for (long id = 1; id <= this._messages; ++id){
+            int sender;
+            int receiver;
+            if (this._endpointCount > 0 && this._random.nextInt(5) > 0){
+               int e = this._random.nextInt(this._endpointCount / 2) * 2;
+               int flip = this._random.nextInt(2);
+               sender = this._endpoints[e + flip];
+               receiver = this._endpoints[e + 1 - flip];
+            }else{
+               sender = this._endpointCount > 0 ? this._endpoints[this._random.nextInt(this._endpointCount)]
+                                                : this._random.nextInt(this._users);
+               receiver = this._random.nextInt(this._users);
+            }//end if
+            StringBuilder contents = new StringBuilder();
+            for (int k = 5 + this._random.nextInt(25); k > 0; --k)
+               contents.append(contents.length() == 0 ? "" : " ").append(pick(WORD));
+            int r = this._random.nextInt(100);
+            int deleteStatus = r < 85 ? 0 : r < 90 ? 1 : r < 95 ? 2 : 3;
+            java.sql.Timestamp sendTime = new java.sql.Timestamp(now - (long) (this._random.nextDouble() * year));
+            line(w, "INSERT INTO MESSAGE(msgId,senderId,receiverId,contents,sendTime,deleteStatus,status) VALUES (",
+                 Long.toString(id), login(sender), login(receiver), contents.toString(),
+                 sendTime.toString(), Integer.toString(deleteStatus), ProfNetwork.MESSAGE_SENT);
+         }//end for
+      }finally{
+         w.close();
+      }//end try
+   }//end writeMessages
+
+   private String pick (String[] values) {
+      return values[this._random.nextInt(values.length)];
+   }//end pick
+
+   // a made up but stable name for the i-th company or institution
+   private static String name (String kind, int i) {
+      StringBuilder sb = new StringBuilder();
+      int n = i + 1;
+      do{
+         sb.append(SYLLABLE[n % SYLLABLE.length]);
+         n /= SYLLABLE.length;
+      }while (n > 0);
+      sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+      return kind.equals("institution") ? sb + " University" : sb.toString();
+   }//end name
+
+   // M/D/YYYY as in the shipped seed files
+   private String date (int fromYear, int toYear) {
+      int year = fromYear + this._random.nextInt(toYear - fromYear + 1);
+      return (1 + this._random.nextInt(12)) + "/" + (1 + this._random.nextInt(28)) + "/" + year;
+   }//end date
+
+   private static Writer open (File file) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+   }//end open
+
+   private static void line (Writer w, String prefix, String... values) throws IOException {
+      w.write(prefix);
+      for (int i = 0; i < values.length; ++i){
+         w.write(i == 0 ? "'" : ",'");
+         w.write(values[i].replace("'", "''"));
+         w.write("'");
+      }//end for
+      w.write(");\n");
+   }//end line
+
+   /**
+    * Draws ranks 0..n-1 with probability proportional to 1/(rank+1)^s.
+    */
+   private static class Zipf {
+      private final double[] _cumulative;
+
+      Zipf (int n, double s) {
+         this._cumulative = new double[n];
+         double sum = 0;
+         for (int k = 0; k < n; ++k){
+            sum += 1 / Math.pow(k + 1, s);
+            this._cumulative[k] = sum;
+         }//end for
+      }//end Zipf
+
+      int next (Random random) {
+         double x = random.nextDouble() * this._cumulative[this._cumulative.length - 1];
+         int i = Arrays.binarySearch(this._cumulative, x);
+         return i >= 0 ? i : Math.min(-i - 1, this._cumulative.length - 1);
+      }//end next
+   }//end Zipf
+
+   /**
+    * The generator entry point
+    *
+    * @param args &lt;output dir&gt; &lt;users&gt; [connections per user] [messages] [seed]
+    */
+   public static void main (String[] args) {
+      if (args.length < 2 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            WorkloadGenerator.class.getName () +
+            " <output dir> <users> [connections per user] [messages] [seed]");
+         return;
+      }//end if
+      try{
+         int users = Integer.parseInt(args[1]);
+         int perUser = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+         long messages = args.length > 3 ? Long.parseLong(args[3]) : 10L * users;
+         long seed = args.length > 4 ? Long.parseLong(args[4]) : 166;
+         new WorkloadGenerator(users, perUser, messages, seed).write(new File(args[0]));
+      }catch(Exception e) {
+         System.err.println (e.getMessage ());
+      }//end try
+   }//end main
+
+}//end WorkloadGenerator
@@ -3,10 +3,16 @@ DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
 psql -p 1245 mydb < $DIR/../src/create_tables.sql
 psql -p 1245 mydb < $DIR/../src/create_indexes.sql
 psql -p 1245 mydb < $DIR/../src/load_data.sql
+# badge counters; rebuilt by BulkLoader after the load below
+psql -p 1245 mydb < $DIR/../src/create_counters.sql
+# both directions of every accepted connection, for FriendList
+psql -p 1245 mydb < $DIR/../src/create_friends.sql
+# NOTIFY on new messages and requests, for the menus' push notices
+psql -p 1245 mydb < $DIR/../src/create_notify.sql
 
-psql -p 1245 mydb < $DIR/../src/sql_files/connection_entry.sql
-psql -p 1245 mydb < $DIR/../src/sql_files/edu_details.sql
-psql -p 1245 mydb < $DIR/../src/sql_files/message_entry.sql
-psql -p 1245 mydb < $DIR/../src/sql_files/user_entry.sql
-psql -p 1245 mydb < $DIR/../src/sql_files/work_expr.sql
-
+# The seed scripts name users by login while the tables refer to them by
+# USR.uid, so BulkLoader loads them, resolving logins as it goes.  It also
+# loads sql_files/message_entry.sql when WorkloadGenerator has written one
+# and moves the message id sequence past the loaded msgIds.
+javac -cp $DIR/../../java/lib/pg73jdbc3.jar -d $DIR/../../java/classes $DIR/../../java/src/*.java
+java -cp $DIR/../../java/classes:$DIR/../../java/lib/pg73jdbc3.jar BulkLoader mydb 1245 $USER $DIR/../.. $DIR/../src/sql_files
@@ -0,0 +1,14 @@
+#!/bin/bash
+# Fails if the planner picks a sequential scan for any statement of
+# ProfNetwork.java.  Run it on representative data, see verify_indexes.sql.
+#   verify_indexes.sh [dbname]
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+OUT=$(psql -p 1245 ${1:-mydb} < $DIR/../src/verify_indexes.sql)
+echo "$OUT"
+
+SEQ=$(echo "$OUT" | grep -c "Seq Scan")
+if [ "$SEQ" -ne 0 ]; then
+   echo "FAIL: $SEQ sequential scan(s) in the plans above"
+   exit 1
+fi
+echo "OK: every statement uses an index"
@@ -0,0 +1,115 @@
+-- Per-user badge counters: accepted connections, pending inbound requests
+-- and unread messages, so the menus can show them with one primary key
+-- read.  Triggers keep them up to date inside the transaction of every
+-- USR, CONNECTION_USR and MESSAGE write.  Run after create_tables.sql;
+-- on an existing database the counters are filled from the current rows.
+--
+-- A message is unread while its status is 'sent' and the receiver has not
+-- deleted it; ProfNetwork marks it 'Read' when the receiver opens it.
+DROP TRIGGER usr_counters_usr ON USR;
+DROP TRIGGER usr_counters_connection ON CONNECTION_USR;
+DROP TRIGGER usr_counters_message ON MESSAGE;
+DROP TABLE USR_COUNTERS;
+
+CREATE TABLE USR_COUNTERS(
+	uid bigint NOT NULL REFERENCES USR(uid) ON DELETE CASCADE,
+	friendCount integer NOT NULL DEFAULT 0,
+	pendingCount integer NOT NULL DEFAULT 0,
+	unreadCount integer NOT NULL DEFAULT 0,
+	PRIMARY KEY(uid)
+	);
+
+CREATE OR REPLACE FUNCTION usr_counters_usr() RETURNS trigger AS $$
+BEGIN
+	INSERT INTO USR_COUNTERS(uid) VALUES (NEW.uid);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a pair of users counts once for both of them, as in FRIEND, while
+-- either direction of it is accepted; a request counts only for its
+-- receiver.  The pair is locked so that two transactions accepting its
+-- two directions at once do not both find the other direction missing.
+CREATE OR REPLACE FUNCTION usr_counters_connection() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		IF OLD.status = NEW.status AND OLD.uid = NEW.uid AND OLD.connectionUid = NEW.connectionUid THEN
+			RETURN NULL;
+		END IF;
+		IF OLD.status = 'Accept' AND NEW.status = 'Accept' AND OLD.uid = NEW.connectionUid AND OLD.connectionUid = NEW.uid THEN
+			RETURN NULL;
+		END IF;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		IF OLD.status = 'Accept' AND OLD.uid <> OLD.connectionUid THEN
+			PERFORM pg_advisory_xact_lock(LEAST(OLD.uid, OLD.connectionUid) # (GREATEST(OLD.uid, OLD.connectionUid) << 32));
+			IF NOT EXISTS (SELECT 1 FROM CONNECTION_USR
+				WHERE uid = OLD.connectionUid AND connectionUid = OLD.uid AND status = 'Accept') THEN
+				UPDATE USR_COUNTERS SET friendCount = friendCount - 1 WHERE uid IN (OLD.uid, OLD.connectionUid);
+			END IF;
+		ELSIF OLD.status = 'Request' THEN
+			UPDATE USR_COUNTERS SET pendingCount = pendingCount - 1 WHERE uid = OLD.connectionUid;
+		END IF;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		IF NEW.status = 'Accept' AND NEW.uid <> NEW.connectionUid THEN
+			PERFORM pg_advisory_xact_lock(LEAST(NEW.uid, NEW.connectionUid) # (GREATEST(NEW.uid, NEW.connectionUid) << 32));
+			IF NOT EXISTS (SELECT 1 FROM CONNECTION_USR
+				WHERE uid = NEW.connectionUid AND connectionUid = NEW.uid AND status = 'Accept') THEN
+				UPDATE USR_COUNTERS SET friendCount = friendCount + 1 WHERE uid IN (NEW.uid, NEW.connectionUid);
+			END IF;
+		ELSIF NEW.status = 'Request' THEN
+			UPDATE USR_COUNTERS SET pendingCount = pendingCount + 1 WHERE uid = NEW.connectionUid;
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION usr_counters_message() RETURNS trigger AS $$
+DECLARE
+	was_unread boolean := false;
+	is_unread boolean := false;
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		was_unread := OLD.status = 'sent' AND COALESCE(OLD.deleteStatus, 0) & 2 = 0;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		is_unread := NEW.status = 'sent' AND COALESCE(NEW.deleteStatus, 0) & 2 = 0;
+	END IF;
+	IF was_unread AND is_unread THEN
+		IF OLD.receiverUid = NEW.receiverUid THEN
+			RETURN NULL;
+		END IF;
+	END IF;
+	IF was_unread THEN
+		UPDATE USR_COUNTERS SET unreadCount = unreadCount - 1 WHERE uid = OLD.receiverUid;
+	END IF;
+	IF is_unread THEN
+		UPDATE USR_COUNTERS SET unreadCount = unreadCount + 1 WHERE uid = NEW.receiverUid;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER usr_counters_usr AFTER INSERT ON USR
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_usr();
+CREATE TRIGGER usr_counters_connection AFTER INSERT OR UPDATE OR DELETE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_connection();
+CREATE TRIGGER usr_counters_message AFTER INSERT OR UPDATE OR DELETE ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE usr_counters_message();
+
+-- fill the counters from the existing rows (BulkLoader runs the same
+-- statement after a load, with the triggers disabled)
+INSERT INTO USR_COUNTERS(uid, friendCount, pendingCount, unreadCount)
+	SELECT U.uid, COALESCE(F.n, 0), COALESCE(P.n, 0), COALESCE(M.n, 0)
+	FROM USR U
+	LEFT JOIN (SELECT E.id, COUNT(*) AS n
+		FROM (SELECT uid AS id, connectionUid AS other FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid
+			UNION SELECT connectionUid, uid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid) E
+		GROUP BY E.id) F ON F.id = U.uid
+	LEFT JOIN (SELECT connectionUid AS id, COUNT(*) AS n FROM CONNECTION_USR WHERE status = 'Request'
+		GROUP BY connectionUid) P ON P.id = U.uid
+	LEFT JOIN (SELECT receiverUid AS id, COUNT(*) AS n FROM MESSAGE
+		WHERE status = 'sent' AND COALESCE(deleteStatus, 0) & 2 = 0
+		GROUP BY receiverUid) M ON M.id = U.uid;
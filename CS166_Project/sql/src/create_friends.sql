@@ -0,0 +1,57 @@
+-- Accepted connections as directed edges in both directions, so that the
+-- friends of a user are one range scan of FRIEND's primary key instead
+-- of an OR over both columns of CONNECTION_USR.  CONNECTION_USR remains
+-- the record of requests and answers; a trigger mirrors every change of
+-- an accepted row into FRIEND in the same transaction.  Run after
+-- create_tables.sql; on an existing database FRIEND is filled from the
+-- current rows.
+DROP TRIGGER friend_edges ON CONNECTION_USR;
+DROP TABLE FRIEND;
+
+CREATE TABLE FRIEND(
+	uid bigint NOT NULL REFERENCES USR(uid) ON DELETE CASCADE,
+	friendUid bigint NOT NULL REFERENCES USR(uid) ON DELETE CASCADE,
+	PRIMARY KEY(uid, friendUid)
+	);
+
+-- a pair may be accepted in both directions of CONNECTION_USR; its edges
+-- go when the last accepted row between the two users does
+CREATE OR REPLACE FUNCTION friend_edges() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		IF OLD.status = NEW.status AND OLD.uid = NEW.uid AND OLD.connectionUid = NEW.connectionUid THEN
+			RETURN NULL;
+		END IF;
+	END IF;
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		IF OLD.status = 'Accept' THEN
+			DELETE FROM FRIEND
+			WHERE ((uid = OLD.uid AND friendUid = OLD.connectionUid) OR (uid = OLD.connectionUid AND friendUid = OLD.uid))
+			AND NOT EXISTS (SELECT 1 FROM CONNECTION_USR C WHERE C.status = 'Accept'
+				AND ((C.uid = OLD.uid AND C.connectionUid = OLD.connectionUid)
+				OR (C.uid = OLD.connectionUid AND C.connectionUid = OLD.uid)));
+		END IF;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		IF NEW.status = 'Accept' AND NEW.uid <> NEW.connectionUid THEN
+			INSERT INTO FRIEND(uid, friendUid)
+				SELECT NEW.uid, NEW.connectionUid
+				WHERE NOT EXISTS (SELECT 1 FROM FRIEND WHERE uid = NEW.uid AND friendUid = NEW.connectionUid);
+			INSERT INTO FRIEND(uid, friendUid)
+				SELECT NEW.connectionUid, NEW.uid
+				WHERE NOT EXISTS (SELECT 1 FROM FRIEND WHERE uid = NEW.connectionUid AND friendUid = NEW.uid);
+		END IF;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER friend_edges AFTER INSERT OR UPDATE OR DELETE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE friend_edges();
+
+-- fill FRIEND from the existing rows (BulkLoader runs the same statement
+-- after a load, with the trigger disabled)
+INSERT INTO FRIEND(uid, friendUid)
+	SELECT uid, connectionUid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid
+	UNION
+	SELECT connectionUid, uid FROM CONNECTION_USR WHERE status = 'Accept' AND uid <> connectionUid;
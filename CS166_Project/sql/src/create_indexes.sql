@@ -0,0 +1,25 @@
+-- Indexes for the queries issued by ProfNetwork.java.  Run after
+-- create_tables.sql; verify with scripts/verify_indexes.sh.
+
+-- SearchUser without the in-memory index (-Dprofnetwork.search=false):
+-- case-insensitive prefix match on name or login
+CREATE INDEX usr_name_prefix_idx ON USR(lower(name) text_pattern_ops);
+CREATE INDEX usr_login_prefix_idx ON USR(lower(userId) text_pattern_ops);
+
+-- ViewMessage inbox/outbox: visible messages of a mailbox in (sendTime, msgId)
+-- order, so each keyset page is one backward range scan.  A NULL sendTime
+-- sorts as the oldest; the expression is the one of the page queries.
+CREATE INDEX message_inbox_idx ON MESSAGE(receiverUid, (COALESCE(sendTime, CAST('-infinity' AS timestamp))), msgId) WHERE deleteStatus IN (0,1);
+CREATE INDEX message_outbox_idx ON MESSAGE(senderUid, (COALESCE(sendTime, CAST('-infinity' AS timestamp))), msgId) WHERE deleteStatus IN (0,2);
+
+-- MessagePurger: messages deleted by both sides, waiting to be removed
+CREATE INDEX message_purge_idx ON MESSAGE(msgId) WHERE deleteStatus = 3;
+
+-- CONNECTION_USR is keyed on (uid, connectionUid); lookups from the
+-- other end of an edge use the reverse index: UpdateRequest's pending
+-- requests to a user, and the connectionUid side of the FriendList and
+-- distance queries when FRIEND is not there
+CREATE INDEX connection_reverse_idx ON CONNECTION_USR(connectionUid, uid);
+
+-- WORK_EXPR and EDUCATIONAL_DETAILS lookups by uid use the primary key;
+-- logins are looked up through USR's unique index on userId
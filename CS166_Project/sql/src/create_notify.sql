@@ -0,0 +1,38 @@
+-- Push notifications for new messages and connection requests.  When
+-- its transaction commits, a delivered message NOTIFYs
+-- message_<receiverUid>, a request request_<connectionUid> and an
+-- accepted request friend_<uid>, the requester.  NotificationHub.java
+-- LISTENs on the channels of the users logged in and tells their
+-- sessions.  The user is in the channel name because the JDBC driver in
+-- use does not read NOTIFY payloads, and so the server only signals the
+-- listener about users someone waits on.  Run after create_tables.sql.
+DROP TRIGGER notify_message ON MESSAGE;
+DROP TRIGGER notify_request ON CONNECTION_USR;
+
+-- notifications of one transaction on one channel arrive as one, so a
+-- batch of messages to the same user wakes them once
+CREATE OR REPLACE FUNCTION notify_message() RETURNS trigger AS $$
+BEGIN
+	IF NEW.receiverUid IS NOT NULL AND NEW.status = 'sent' THEN
+		EXECUTE 'NOTIFY message_' || NEW.receiverUid;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION notify_request() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' AND NEW.status = 'Request' THEN
+		EXECUTE 'NOTIFY request_' || NEW.connectionUid;
+	ELSIF TG_OP = 'UPDATE' AND NEW.status = 'Accept' AND OLD.status <> 'Accept' THEN
+		EXECUTE 'NOTIFY friend_' || NEW.uid;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER notify_message AFTER INSERT ON MESSAGE
+	FOR EACH ROW EXECUTE PROCEDURE notify_message();
+
+CREATE TRIGGER notify_request AFTER INSERT OR UPDATE ON CONNECTION_USR
+	FOR EACH ROW EXECUTE PROCEDURE notify_request();
@@ -1,54 +1,80 @@
+DROP TABLE FRIEND;
+DROP TABLE USR_COUNTERS;
 DROP TABLE WORK_EXPR;
 DROP TABLE EDUCATIONAL_DETAILS;
 DROP TABLE MESSAGE;
 DROP TABLE CONNECTION_USR;
 DROP TABLE USR;
+DROP TYPE MESSAGE_STATUS;
+DROP TYPE CONNECTION_STATUS;
 
 
+-- Users are keyed by uid, a compact surrogate from USR_UID_SEQ; the login
+-- (userId) is only a unique attribute of USR.  Every other table refers
+-- to users by uid, which keeps their keys, indexes and joins on 8 byte
+-- integers instead of varchar(50).  ProfNetwork maps logins to uids with
+-- the in-memory UserDirectory.
+--
+-- Text is stored in varchar, which keeps only the characters given, not
+-- char(N)'s blank padding, and statuses are enums of 4 bytes.
+-- ColumnMigration.java converts a database with the earlier char(N)
+-- columns in place.
+CREATE TYPE MESSAGE_STATUS AS ENUM ('sent', 'Read', 'Failed to Deliver');
+CREATE TYPE CONNECTION_STATUS AS ENUM ('Request', 'Accept', 'Reject');
+
 CREATE TABLE USR(
+	uid bigint NOT NULL,
 	userId varchar(50) UNIQUE NOT NULL, 
-	password varchar(50) NOT NULL,
+	password varchar(128) NOT NULL,
 	email text NOT NULL,
-	name char(50),
+	name varchar(50),
 	dateOfBirth date,
-	PRIMARY KEY(userId));
+	PRIMARY KEY(uid));
+
+CREATE SEQUENCE USR_UID_SEQ OWNED BY USR.uid;
+ALTER TABLE USR ALTER COLUMN uid SET DEFAULT nextval('USR_UID_SEQ');
 
 CREATE TABLE WORK_EXPR(
-	userId varchar(50) NOT NULL, 
-	company char(50) NOT NULL, 
-	role char(50) NOT NULL,
-	location char(50),
+	uid bigint NOT NULL, 
+	company varchar(50) NOT NULL, 
+	role varchar(50) NOT NULL,
+	location varchar(50),
 	startDate date,
 	endDate date,
-	PRIMARY KEY(userId,company,role,startDate),
-	FOREIGN KEY(userId) REFERENCES USR(userId)
+	PRIMARY KEY(uid,company,role,startDate),
+	FOREIGN KEY(uid) REFERENCES USR(uid)
 	);
 
 CREATE TABLE EDUCATIONAL_DETAILS(
-	userId varchar(50) NOT NULL, 
-	institutionName char(50) NOT NULL, 
-	major char(50) NOT NULL,
-	degree char(50) NOT NULL,
+	uid bigint NOT NULL, 
+	institutionName varchar(50) NOT NULL, 
+	major varchar(50) NOT NULL,
+	degree varchar(50) NOT NULL,
 	startdate date,
 	enddate date,
-	PRIMARY KEY(userId,major,degree),
-	FOREIGN KEY(userId) REFERENCES USR(userId)
+	PRIMARY KEY(uid,major,degree),
+	FOREIGN KEY(uid) REFERENCES USR(uid)
 	);
 
 CREATE TABLE MESSAGE(
 	msgId integer UNIQUE NOT NULL, 
-	senderId varchar(50) NOT NULL, 
-	receiverId varchar(50) NOT NULL,
-	contents char(500) NOT NULL,
+	senderUid bigint NOT NULL REFERENCES USR(uid), 
+	receiverUid bigint REFERENCES USR(uid),	-- NULL when the recipient did not exist
+	contents varchar(500) NOT NULL,
 	sendTime timestamp,
-	deleteStatus integer,
-	status char(30) NOT NULL,
+	deleteStatus integer DEFAULT 0,	-- 1 deleted by sender, 2 by receiver, 3 both
+	status MESSAGE_STATUS NOT NULL,
 	PRIMARY KEY(msgId)
 	);
 
+-- msgId comes from this sequence.  Each nextval reserves a block of 50 ids
+-- that the client hands out locally (see MessageIdAllocator.java).
+CREATE SEQUENCE MESSAGE_MSGID_SEQ INCREMENT BY 50 OWNED BY MESSAGE.msgId;
+ALTER TABLE MESSAGE ALTER COLUMN msgId SET DEFAULT nextval('MESSAGE_MSGID_SEQ');
+
 CREATE TABLE CONNECTION_USR(
-	userId varchar(50) NOT NULL REFERENCES USR(userId), 
-	connectionId varchar(50) NOT NULL REFERENCES USR(userId), 
-	status char(30) NOT NULL,
-	PRIMARY KEY(userId,connectionId)
+	uid bigint NOT NULL REFERENCES USR(uid), 
+	connectionUid bigint NOT NULL REFERENCES USR(uid), 
+	status CONNECTION_STATUS NOT NULL,
+	PRIMARY KEY(uid,connectionUid)
 	);
@@ -0,0 +1,4 @@
+-- Widens USR.password for the salted hashes written by CredentialStore.java
+-- on databases created before it.  Existing plaintext passwords keep
+-- working and are replaced by hashes as each user next logs in.
+ALTER TABLE USR ALTER COLUMN password TYPE varchar(128);
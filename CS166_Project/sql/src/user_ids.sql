@@ -0,0 +1,71 @@
+-- Converts a database created before USR.uid existed, where every table
+-- referred to users by their login, to the uid keys of create_tables.sql
+-- in place.  Run once with the application stopped, then run
+-- create_indexes.sql, create_counters.sql and create_friends.sql again:
+-- the indexes on the login columns go with the columns, and the counter
+-- and FRIEND tables are rebuilt from the converted rows.
+BEGIN;
+
+DROP TRIGGER IF EXISTS friend_edges ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS usr_counters_usr ON USR;
+DROP TRIGGER IF EXISTS usr_counters_connection ON CONNECTION_USR;
+DROP TRIGGER IF EXISTS usr_counters_message ON MESSAGE;
+DROP TABLE IF EXISTS FRIEND;
+DROP TABLE IF EXISTS USR_COUNTERS;
+
+-- number the users
+CREATE SEQUENCE USR_UID_SEQ;
+ALTER TABLE USR ADD COLUMN uid bigint;
+UPDATE USR SET uid = nextval('USR_UID_SEQ');
+ALTER TABLE USR ALTER COLUMN uid SET NOT NULL;
+ALTER TABLE USR ALTER COLUMN uid SET DEFAULT nextval('USR_UID_SEQ');
+ALTER SEQUENCE USR_UID_SEQ OWNED BY USR.uid;
+
+-- one pass over each table gives every reference the uid of its user
+ALTER TABLE WORK_EXPR ADD COLUMN uid bigint;
+UPDATE WORK_EXPR W SET uid = U.uid FROM USR U WHERE U.userId = W.userId;
+
+ALTER TABLE EDUCATIONAL_DETAILS ADD COLUMN uid bigint;
+UPDATE EDUCATIONAL_DETAILS E SET uid = U.uid FROM USR U WHERE U.userId = E.userId;
+
+ALTER TABLE CONNECTION_USR ADD COLUMN uid bigint, ADD COLUMN connectionUid bigint;
+UPDATE CONNECTION_USR C SET uid = A.uid, connectionUid = B.uid
+	FROM USR A, USR B
+	WHERE A.userId = C.userId AND B.userId = C.connectionId;
+
+-- MESSAGE had no foreign keys: an unknown receiver becomes NULL, as for a
+-- message that failed to deliver, and messages of unknown senders go
+ALTER TABLE MESSAGE ADD COLUMN senderUid bigint, ADD COLUMN receiverUid bigint;
+UPDATE MESSAGE M SET
+	senderUid = (SELECT U.uid FROM USR U WHERE U.userId = M.senderId),
+	receiverUid = (SELECT U.uid FROM USR U WHERE U.userId = M.receiverId);
+DELETE FROM MESSAGE WHERE senderUid IS NULL;
+
+-- dropping the login columns drops their keys, foreign keys and indexes
+ALTER TABLE WORK_EXPR DROP COLUMN userId;
+ALTER TABLE EDUCATIONAL_DETAILS DROP COLUMN userId;
+ALTER TABLE CONNECTION_USR DROP COLUMN userId, DROP COLUMN connectionId;
+ALTER TABLE MESSAGE DROP COLUMN senderId, DROP COLUMN receiverId;
+
+-- the login stays unique, uid becomes the key
+ALTER TABLE USR DROP CONSTRAINT usr_pkey;
+ALTER TABLE USR ADD PRIMARY KEY(uid);
+
+ALTER TABLE WORK_EXPR ALTER COLUMN uid SET NOT NULL,
+	ADD PRIMARY KEY(uid, company, role, startDate),
+	ADD FOREIGN KEY(uid) REFERENCES USR(uid);
+ALTER TABLE EDUCATIONAL_DETAILS ALTER COLUMN uid SET NOT NULL,
+	ADD PRIMARY KEY(uid, major, degree),
+	ADD FOREIGN KEY(uid) REFERENCES USR(uid);
+ALTER TABLE CONNECTION_USR ALTER COLUMN uid SET NOT NULL, ALTER COLUMN connectionUid SET NOT NULL,
+	ADD PRIMARY KEY(uid, connectionUid),
+	ADD FOREIGN KEY(uid) REFERENCES USR(uid),
+	ADD FOREIGN KEY(connectionUid) REFERENCES USR(uid);
+ALTER TABLE MESSAGE ALTER COLUMN senderUid SET NOT NULL,
+	ADD FOREIGN KEY(senderUid) REFERENCES USR(uid),
+	ADD FOREIGN KEY(receiverUid) REFERENCES USR(uid);
+
+COMMIT;
+
+-- dropped columns keep their space until the tables are rewritten
+VACUUM FULL ANALYZE;
@@ -0,0 +1,81 @@
+-- EXPLAIN ANALYZE every statement ProfNetwork.java issues per user action,
+-- as it issues it, so that the plans show what the planner really picks.
+-- Run it on representative data, e.g. a WorkloadGenerator data set loaded
+-- by BulkLoader: on the small seed data a sequential scan is the right
+-- plan for most tables.  uid 1, 2 and 3 stand for any three users; with
+-- generated data uid 1 is one of the best connected.  Statements that
+-- write run in a transaction that is rolled back at the end; one that
+-- fails on the data, e.g. a request that already exists, only loses its
+-- own plan.
+ANALYZE;
+\set ON_ERROR_ROLLBACK on
+
+SELECT userId AS login FROM USR WHERE uid = 1 \gset
+SELECT COALESCE(MAX(msgId), 1) AS msg FROM MESSAGE \gset
+
+BEGIN;
+
+-- CreateUser
+EXPLAIN ANALYZE INSERT INTO USR (userId, password, email, name, dateOfBirth) VALUES ('verify_indexes','x','x@example.com','Verify Indexes',CAST('2000-01-01' AS date)) RETURNING uid;
+
+-- LogIn, and UserDirectory resolving a login or uid not yet cached
+EXPLAIN ANALYZE SELECT password FROM USR WHERE userId = :'login';
+EXPLAIN ANALYZE SELECT uid FROM USR WHERE userId = :'login';
+EXPLAIN ANALYZE SELECT userId FROM USR WHERE uid = 1;
+
+-- main menu badges (create_counters.sql)
+EXPLAIN ANALYZE SELECT friendCount, pendingCount, unreadCount FROM USR_COUNTERS WHERE uid = 1;
+
+-- SearchUser without the in-memory index
+EXPLAIN ANALYZE SELECT COUNT(*) FROM USR WHERE lower(name) LIKE 'ma%' OR lower(userId) LIKE 'ma%';
+EXPLAIN ANALYZE SELECT userId, name FROM USR WHERE lower(name) LIKE 'ma%' OR lower(userId) LIKE 'ma%' ORDER BY userId LIMIT 10 OFFSET 0;
+
+-- ViewMessage inbox and outbox, first page and a later one
+EXPLAIN ANALYZE SELECT msgId, senderUid, sendTime, status, COALESCE(sendTime, CAST('-infinity' AS timestamp)) FROM MESSAGE WHERE receiverUid = 1 AND deleteStatus IN (0,1) AND (COALESCE(sendTime, CAST('-infinity' AS timestamp)), msgId) < (CAST('infinity' AS timestamp), 2147483647) ORDER BY COALESCE(sendTime, CAST('-infinity' AS timestamp)) DESC, msgId DESC LIMIT 11;
+EXPLAIN ANALYZE SELECT msgId, receiverUid, sendTime, status, COALESCE(sendTime, CAST('-infinity' AS timestamp)) FROM MESSAGE WHERE senderUid = 1 AND deleteStatus IN (0,2) AND (COALESCE(sendTime, CAST('-infinity' AS timestamp)), msgId) < (CAST('infinity' AS timestamp), 2147483647) ORDER BY COALESCE(sendTime, CAST('-infinity' AS timestamp)) DESC, msgId DESC LIMIT 11;
+EXPLAIN ANALYZE SELECT msgId, senderUid, sendTime, status, COALESCE(sendTime, CAST('-infinity' AS timestamp)) FROM MESSAGE WHERE receiverUid = 1 AND deleteStatus IN (0,1) AND (COALESCE(sendTime, CAST('-infinity' AS timestamp)), msgId) < (CAST('2015-01-01 00:00:00' AS timestamp), 2147483647) ORDER BY COALESCE(sendTime, CAST('-infinity' AS timestamp)) DESC, msgId DESC LIMIT 11;
+
+-- ViewMessage read, and its read receipt
+EXPLAIN ANALYZE SELECT contents FROM MESSAGE WHERE msgId = :msg AND receiverUid = 1 AND deleteStatus IN (0,1);
+EXPLAIN ANALYZE SELECT contents FROM MESSAGE WHERE msgId = :msg AND senderUid = 1 AND deleteStatus IN (0,2);
+EXPLAIN ANALYZE UPDATE MESSAGE SET status = 'Read' WHERE msgId = :msg AND receiverUid = 1 AND status = 'sent';
+
+-- ViewMessage delete, one message and all older than some days
+EXPLAIN ANALYZE UPDATE MESSAGE SET deleteStatus = deleteStatus | 2 WHERE msgId = :msg AND receiverUid = 1 AND deleteStatus & 2 = 0 RETURNING deleteStatus;
+EXPLAIN ANALYZE UPDATE MESSAGE SET deleteStatus = deleteStatus | 1 WHERE msgId = :msg AND senderUid = 1 AND deleteStatus & 1 = 0 RETURNING deleteStatus;
+EXPLAIN ANALYZE UPDATE MESSAGE SET deleteStatus = deleteStatus | 2 WHERE receiverUid = 1 AND deleteStatus IN (0,1) AND sendTime < '2015-01-01';
+EXPLAIN ANALYZE UPDATE MESSAGE SET deleteStatus = deleteStatus | 1 WHERE senderUid = 1 AND deleteStatus IN (0,2) AND sendTime < '2015-01-01';
+
+-- MessagePurger
+EXPLAIN ANALYZE DELETE FROM MESSAGE WHERE msgId IN (SELECT msgId FROM MESSAGE WHERE deleteStatus = 3 LIMIT 1000);
+
+-- NewMessage, through MessageOutbox: the smallest batch statement
+EXPLAIN ANALYZE INSERT INTO MESSAGE(msgId,senderUid,receiverUid,contents,sendTime,deleteStatus,status) SELECT V.msgId, V.senderUid, V.receiverUid, V.contents, V.sendTime, 0, V.status FROM (VALUES (CAST(2147483000 AS integer),CAST(1 AS bigint),CAST(2 AS bigint),CAST('verify' AS text),CAST('2015-01-01 00:00:00' AS timestamp),CAST('sent' AS MESSAGE_STATUS))) V(msgId,senderUid,receiverUid,contents,sendTime,status) WHERE V.msgId IS NOT NULL AND NOT EXISTS (SELECT 1 FROM MESSAGE M WHERE M.msgId = V.msgId);
+
+-- FriendList on FRIEND (create_friends.sql), and on CONNECTION_USR without it
+EXPLAIN ANALYZE SELECT friendUid FROM FRIEND WHERE uid = 1;
+EXPLAIN ANALYZE SELECT friendUid FROM FRIEND WHERE uid = 2 AND friendUid = 3;
+EXPLAIN ANALYZE SELECT CASE WHEN uid = 1 THEN connectionUid ELSE uid END FROM CONNECTION_USR WHERE status = 'Accept' AND (uid = 1 OR connectionUid = 1) AND uid <> connectionUid;
+EXPLAIN ANALYZE SELECT uid FROM CONNECTION_USR WHERE status = 'Accept' AND ((uid = 2 AND connectionUid = 3) OR (uid = 3 AND connectionUid = 2));
+
+-- FriendList profile views, through ProfileCache
+EXPLAIN ANALYZE SELECT userId, email, name, dateOfBirth, uid FROM USR WHERE userId = :'login';
+EXPLAIN ANALYZE SELECT company, role, location, startDate, endDate FROM WORK_EXPR WHERE uid = 1 ORDER BY startDate;
+EXPLAIN ANALYZE SELECT institutionName, major, degree, startdate, enddate FROM EDUCATIONAL_DETAILS WHERE uid = 1 ORDER BY startdate;
+
+-- SendRequest distance check, on FRIEND and on CONNECTION_USR without it
+EXPLAIN ANALYZE WITH RECURSIVE reach(uid, depth) AS (SELECT CAST(1 AS bigint), 0 UNION SELECT F.friendUid, R.depth + 1 FROM reach R, FRIEND F WHERE R.depth < 3 AND R.uid <> 3 AND F.uid = R.uid) SELECT MIN(depth) FROM reach WHERE uid = 3;
+EXPLAIN ANALYZE WITH RECURSIVE reach(uid, depth) AS (SELECT CAST(1 AS bigint), 0 UNION SELECT CASE WHEN C.uid = R.uid THEN C.connectionUid ELSE C.uid END, R.depth + 1 FROM reach R, CONNECTION_USR C WHERE R.depth < 3 AND R.uid <> 3 AND C.status = 'Accept' AND (C.uid = R.uid OR C.connectionUid = R.uid)) SELECT MIN(depth) FROM reach WHERE uid = 3;
+
+-- SendRequest
+EXPLAIN ANALYZE SELECT uid FROM CONNECTION_USR WHERE uid = 2 AND connectionUid = 3;
+EXPLAIN ANALYZE INSERT INTO CONNECTION_USR(uid,connectionUid,status) VALUES (2,3,'Request');
+
+-- UpdateRequest
+EXPLAIN ANALYZE SELECT uid FROM CONNECTION_USR WHERE status = 'Request' AND connectionUid = 1;
+EXPLAIN ANALYZE UPDATE CONNECTION_USR SET status = CAST('Accept' AS CONNECTION_STATUS) WHERE status = 'Request' AND connectionUid = 1 AND uid = ANY (CAST('{2,3}' AS bigint[])) RETURNING uid;
+
+-- UpdatePassword
+EXPLAIN ANALYZE UPDATE USR SET password = 'x' WHERE userId = :'login';
+
+ROLLBACK;